@@ -0,0 +1,99 @@
+package com.example.mediademo;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.GrantPermissionRule;
+import androidx.test.rule.ServiceTestRule;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 界面主线程被 UiStressBenchmark 压着时，录音线程的读间隔能不能保持在 buffer 周期附近
+ *
+ * 数据源是实时的 SignalAudioSource（和麦克风一样按采样时钟交付数据），不依赖真实输入设备
+ *   ./gradlew connectedDebugAndroidTest                    （默认 :audio 进程）
+ *   ./gradlew -PaudioInProcess connectedDebugAndroidTest   （同进程，对照组）
+ * 读间隔 p50/p99/max 通过 instrumentation status 和 logcat（tag CaptureJitterTest）输出，两次运行直接对比
+ */
+@RunWith(AndroidJUnit4.class)
+public class CaptureJitterTest {
+    private static final String TAG = "CaptureJitterTest";
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BUFFER_SIZE = 3840; // 20 ms 单声道 16 位
+    private static final long BUFFER_PERIOD_MS = 20;
+    private static final long RECORD_MS = 20_000;
+    // p99 读间隔最多比 buffer 周期多这么多；同进程时界面的 GC 暂停会把它拉长
+    private static final long JITTER_BUDGET_MS = 20;
+
+    @Rule
+    public final ServiceTestRule serviceRule = new ServiceTestRule();
+
+    // 前台服务类型是 microphone，Android 14 上 startForeground 需要录音权限
+    @Rule
+    public final GrantPermissionRule permissions = GrantPermissionRule.grant(Manifest.permission.RECORD_AUDIO);
+
+    private ActivityScenario<MainActivity> scenario;
+    private UiStressBenchmark stress;
+
+    @After
+    public void tearDown() {
+        if (stress != null) stress.stop();
+        if (scenario != null) scenario.close();
+    }
+
+    @Test
+    public void readGapsStayNearBufferPeriodUnderUiStress() throws Exception {
+        // 界面在前台，服务才能从后台限制里启动前台服务
+        scenario = ActivityScenario.launch(MainActivity.class);
+        Context context = ApplicationProvider.getApplicationContext();
+        Intent intent = new Intent(context, AudioRecordService.class);
+        // 和界面一样先 start 再 bind，停止录音后服务自己 stopSelf
+        serviceRule.startService(intent);
+        IBinder binder = serviceRule.bindService(intent);
+        AudioEngineClient client = new AudioEngineClient(binder);
+
+        stress = UiStressBenchmark.start(RECORD_MS + 5_000);
+        client.startRecordingFromSignal(SignalAudioSource.Kind.SINE, SAMPLE_RATE, 1, -1, true, BUFFER_SIZE);
+        Thread.sleep(RECORD_MS);
+        assertTrue("模拟输入没有开始录音", client.isRecording());
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        client.stopRecordingAsync((path, durationMs, stopLatencyMs) -> stopped.countDown());
+        assertTrue("停止回调超时", stopped.await(10, TimeUnit.SECONDS));
+        stress.stop();
+
+        Bundle stats = client.getLastCaptureStats();
+        assertFalse("没有采集统计", stats.isEmpty());
+        long reads = stats.getLong(AudioRecordService.STATS_READS);
+        int p50 = stats.getInt(AudioRecordService.STATS_GAP_P50_MS);
+        int p99 = stats.getInt(AudioRecordService.STATS_GAP_P99_MS);
+        long max = stats.getLong(AudioRecordService.STATS_GAP_MAX_MS);
+        String summary = reads + " 次读取, 读间隔 p50/p99/max " + p50 + "/" + p99 + "/" + max + " ms";
+        Log.i(TAG, summary);
+        Bundle status = new Bundle();
+        status.putString("jitter", summary);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+
+        // 实时数据源每 20 ms 交付一块，录 20 秒应该有约 1000 次读取
+        assertTrue(summary, reads >= RECORD_MS / BUFFER_PERIOD_MS * 9 / 10);
+        assertTrue(summary, p99 <= BUFFER_PERIOD_MS + JITTER_BUDGET_MS);
+    }
+}
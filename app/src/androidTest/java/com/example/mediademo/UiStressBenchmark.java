@@ -0,0 +1,65 @@
+package com.example.mediademo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * 对比“音频服务独立进程”和“与界面同进程”时采集抖动的压测：在界面主线程上持续制造垃圾和卡顿
+ * 只在 androidTest 里由 CaptureJitterTest 驱动，不会打进正式包
+ */
+final class UiStressBenchmark implements Runnable {
+    private static final String TAG = "UiStressBenchmark";
+    private static final long PERIOD_MS = 50;
+    private static final long BUSY_MS = 20; // 每个周期主线程忙等的时间，模拟布局/绘制卡顿
+    private static final int GARBAGE_PER_PERIOD = 20_000; // 每个周期分配的小对象数，逼出频繁 GC
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long endAt;
+    private volatile boolean stopped;
+    private List<Object> retained = new ArrayList<>();
+    private long periods;
+
+    private UiStressBenchmark(long durationMs) {
+        endAt = SystemClock.uptimeMillis() + durationMs;
+    }
+
+    static UiStressBenchmark start(long durationMs) {
+        Log.i(TAG, "界面压测开始，持续 " + durationMs / 1000 + " 秒");
+        UiStressBenchmark benchmark = new UiStressBenchmark(durationMs);
+        benchmark.handler.post(benchmark);
+        return benchmark;
+    }
+
+    // 任意线程调用，主线程上的下一个周期结束
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        long now = SystemClock.uptimeMillis();
+        if (stopped || now >= endAt) {
+            retained = null;
+            Log.i(TAG, "界面压测结束，共 " + periods + " 个周期");
+            return;
+        }
+        periods++;
+        // 一部分对象留到下个周期，晋升后让 GC 有更多工作
+        List<Object> next = new ArrayList<>(GARBAGE_PER_PERIOD / 4);
+        for (int i = 0; i < GARBAGE_PER_PERIOD; i++) {
+            byte[] garbage = new byte[64 + (i & 255)];
+            if ((i & 3) == 0) next.add(garbage);
+        }
+        retained = next;
+        long busyUntil = SystemClock.uptimeMillis() + BUSY_MS;
+        while (SystemClock.uptimeMillis() < busyUntil) {
+            // 忙等
+        }
+        handler.postAtTime(this, now + PERIOD_MS);
+    }
+}
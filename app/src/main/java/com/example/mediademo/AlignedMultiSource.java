@@ -0,0 +1,394 @@
+package com.example.mediademo;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * 多路同步录音：把几个 16bit 数据源按时间戳对齐后交织成一路多声道数据
+ *
+ * 对 CaptureEngine 来说这就是一个普通的 AudioSource（声道数是各路之和，采样率跟第一路），
+ * 写盘、电平、LiveTap 都不用改
+ *   - 每一路一个实时优先级线程，只做 read -> 拷进自己的环形缓冲区 -> 发布时间戳，不加锁、不分配内存
+ *   - 环形缓冲区是单生产者单消费者，生产者只写 tail，消费者只写 head
+ *   - 第一路是主时钟，其它路按时间戳换算出“主时钟第 m 帧对应本路第几帧”，用线性插值的小数游标读取；
+ *     每次 read 比较游标和时间戳给出的期望位置，用 PI 调节步长吸收时钟漂移，偏差太大（丢数据、长时间卡顿）时直接重新对齐
+ * 读取由 CaptureEngine 的录音线程完成，交织和插值在这里做，每路线程的开销和原来单路循环的 read 相同
+ */
+public class AlignedMultiSource implements AudioSource {
+    private static final String TAG = "AlignedMultiSource";
+    private static final int RING_SECONDS = 1;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long DRAIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SECONDARY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(40); // 副路迟到多久后补静音
+    // 漂移校正的 PI 参数按时间而不是按 read 次数给出，每次 read 的帧数不同也不影响收敛：
+    // 比例项 1s 消掉位置误差，积分项 2s 的时间常数估计时钟偏差（TP = TI / 2 时临界阻尼）
+    private static final double TAU_P_SECONDS = 1.0;
+    private static final double TAU_I_SECONDS = 2.0;
+    private static final double MAX_RATE_ADJUST = 1000e-6; // 步长最多偏离标称 ±1000ppm
+    private static final double RESYNC_SECONDS = 0.05; // 误差超过 50ms 直接跳到期望位置
+
+    private final Lane[] lanes;
+    private final int sampleRate;
+    private final int channels;
+    private final long[] masterTs = new long[2];
+    private final long[] laneTs = new long[2];
+    private volatile boolean stopped;
+    private volatile Thread consumer;
+    private long masterCursor; // 主路已经输出的帧数
+    private boolean aligned;
+    private long underrunFrames;
+    private int resyncCount;
+
+    // 第一路作为主时钟；每路都必须是 16bit
+    public AlignedMultiSource(AudioSource... sources) {
+        if (sources.length == 0) throw new IllegalArgumentException("至少需要一路数据源");
+        sampleRate = sources[0].sampleRate();
+        lanes = new Lane[sources.length];
+        int totalChannels = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].bitsPerSample() != 16) {
+                throw new IllegalArgumentException("多路录音只支持 16bit pcm");
+            }
+            lanes[i] = new Lane(i, sources[i]);
+            totalChannels += sources[i].channels();
+        }
+        channels = totalChannels;
+    }
+
+    @Override
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int channels() {
+        return channels;
+    }
+
+    @Override
+    public int bitsPerSample() {
+        return 16;
+    }
+
+    @Override
+    public void start() throws IOException {
+        stopped = false;
+        for (Lane lane : lanes) {
+            lane.source.start();
+        }
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        consumer = Thread.currentThread();
+        Lane master = lanes[0];
+        int wanted = length / (channels * 2);
+        if (wanted <= 0) return 0;
+
+        // 等主路有数据
+        long available;
+        while ((available = master.tail - masterCursor) <= 0) {
+            // 停止后各路线程排空缓冲后才会结束，这里要等到主路结束才算读完
+            if (master.finished) return END_OF_STREAM;
+            LockSupport.parkNanos(this, WAIT_SLICE_NANOS);
+        }
+        int frames = (int) Math.min(wanted, available);
+
+        if (!master.readTimestamp(masterTs)) {
+            return 0; // 理论上不会发生：有数据就一定发布过时间戳
+        }
+        long blockEnd = masterCursor + frames;
+        double masterNanosPerFrame = 1e9 / sampleRate;
+
+        for (int i = 1; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            if (!lane.readTimestamp(laneTs)) {
+                lane.pendingStart = true;
+                continue;
+            }
+            // 主路第 m 帧的时间 -> 本路的帧位置
+            double expectedEnd = expectedPosition(lane, blockEnd, masterNanosPerFrame);
+            if (!aligned || lane.pendingStart) {
+                lane.pos = expectedPosition(lane, masterCursor, masterNanosPerFrame);
+                lane.pendingStart = false;
+            }
+            double error = expectedEnd - (lane.pos + frames * lane.nominalStep);
+            if (Math.abs(error) > lane.sampleRate * RESYNC_SECONDS) {
+                lane.pos = expectedEnd - frames * lane.nominalStep;
+                lane.rateAdjust = 0;
+                resyncCount++;
+                error = 0;
+            }
+            lane.rateAdjust += error * frames / (TAU_I_SECONDS * TAU_I_SECONDS * sampleRate * (double) sampleRate);
+            double adjust = lane.rateAdjust + error / (TAU_P_SECONDS * sampleRate);
+            double limit = lane.nominalStep * MAX_RATE_ADJUST;
+            adjust = Math.max(-limit, Math.min(limit, adjust));
+            lane.rateAdjust = Math.max(-limit, Math.min(limit, lane.rateAdjust));
+            lane.step = lane.nominalStep + adjust;
+
+            // 副路迟到时等一会儿，仍然不够就用已有的数据，缺的部分补静音
+            long needed = (long) Math.floor(lane.pos + frames * lane.step) + 2;
+            long deadline = System.nanoTime() + SECONDARY_WAIT_NANOS;
+            while (lane.tail < needed && !lane.finished && !stopped && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(this, WAIT_SLICE_NANOS);
+            }
+        }
+        aligned = true;
+
+        // 交织：主路直接拷贝，副路线性插值
+        int out = offset;
+        int channelOffset = 0;
+        for (Lane lane : lanes) {
+            int laneChannels = lane.channels;
+            short[] ring = lane.ring;
+            int mask = lane.mask;
+            long tail = lane.tail;
+            int pos = out + channelOffset * 2;
+            int stride = channels * 2;
+            if (lane.index == 0) {
+                long frame = masterCursor;
+                for (int f = 0; f < frames; f++, frame++, pos += stride) {
+                    int base = (int) (frame & mask) * laneChannels;
+                    for (int c = 0; c < laneChannels; c++) {
+                        short s = ring[base + c];
+                        buffer[pos + c * 2] = (byte) s;
+                        buffer[pos + c * 2 + 1] = (byte) (s >> 8);
+                    }
+                }
+            } else {
+                double p = lane.pos;
+                double step = lane.step;
+                // head 之前的数据可能已经被生产者覆盖；还没对齐的副路整段输出静音
+                long oldest = lane.pendingStart ? Long.MAX_VALUE : lane.head;
+                for (int f = 0; f < frames; f++, p += step, pos += stride) {
+                    long i0 = (long) Math.floor(p);
+                    boolean valid = i0 >= oldest && i0 + 1 < tail;
+                    if (!valid) underrunFrames++;
+                    double frac = p - i0;
+                    int b0 = (int) (i0 & mask) * laneChannels;
+                    int b1 = (int) ((i0 + 1) & mask) * laneChannels;
+                    for (int c = 0; c < laneChannels; c++) {
+                        short s = valid ? (short) Math.round(ring[b0 + c] + (ring[b1 + c] - ring[b0 + c]) * frac) : 0;
+                        buffer[pos + c * 2] = (byte) s;
+                        buffer[pos + c * 2 + 1] = (byte) (s >> 8);
+                    }
+                }
+                if (!lane.pendingStart) {
+                    lane.pos = p;
+                    // 插值还要用到前一帧，所以只释放到 floor(p) - 1
+                    lane.head = Math.max(lane.head, Math.min(tail, (long) Math.floor(p) - 1));
+                }
+            }
+            channelOffset += laneChannels;
+        }
+        masterCursor = blockEnd;
+        master.head = masterCursor;
+        for (Lane lane : lanes) {
+            if (!lane.realtime) LockSupport.unpark(lane.thread);
+        }
+        return frames * channels * 2;
+    }
+
+    private double expectedPosition(Lane lane, long masterFrame, double masterNanosPerFrame) {
+        double nanos = masterTs[1] + (masterFrame - masterTs[0]) * masterNanosPerFrame;
+        return laneTs[0] + (nanos - laneTs[1]) * lane.sampleRate / 1e9;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        for (Lane lane : lanes) {
+            lane.source.stop();
+        }
+        Thread t = consumer;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    @Override
+    public void interrupt() {
+        Thread t = consumer;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    @Override
+    public void release() {
+        stop();
+        long overflow = 0;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lane.source.release();
+            overflow += lane.overflowFrames;
+        }
+        StringBuilder drift = new StringBuilder();
+        for (int i = 1; i < lanes.length; i++) {
+            drift.append(String.format(java.util.Locale.US, " 第%d路漂移 %.1fppm", i,
+                    lanes[i].rateAdjust / lanes[i].nominalStep * 1e6));
+        }
+        Log.d(TAG, "多路录音结束: 补静音 " + underrunFrames + " 帧, 溢出丢弃 " + overflow + " 帧, 重新对齐 " + resyncCount + " 次" + drift);
+    }
+
+    public long underrunFrames() {
+        return underrunFrames;
+    }
+
+    public int resyncCount() {
+        return resyncCount;
+    }
+
+    // 副路相对主时钟的漂移估计（ppm）
+    public double driftPpm(int laneIndex) {
+        Lane lane = lanes[laneIndex];
+        return lane.rateAdjust / lane.nominalStep * 1e6;
+    }
+
+    // 一路数据源：自己的线程、环形缓冲区和最近一次时间戳
+    private final class Lane implements Runnable {
+        final int index;
+        final AudioSource source;
+        final int channels;
+        final int sampleRate;
+        final int capacityFrames;
+        final int mask;
+        final short[] ring;
+        final byte[] scratch;
+        final Thread thread;
+        final double nominalStep;
+        final boolean realtime;
+
+        volatile long tail; // 生产者写
+        volatile long head; // 消费者写
+        volatile boolean finished;
+        long overflowFrames;
+
+        // 时间戳：(环形缓冲区帧序号, 纳秒)，用 seqlock 保证两项一致
+        private volatile int tsSeq;
+        private volatile long tsFrame;
+        private volatile long tsNanos;
+
+        // 以下只在消费者线程使用
+        double pos;
+        double step;
+        double rateAdjust;
+        boolean pendingStart = true;
+
+        Lane(int index, AudioSource source) {
+            this.index = index;
+            this.source = source;
+            this.channels = source.channels();
+            this.sampleRate = source.sampleRate();
+            this.capacityFrames = Integer.highestOneBit(sampleRate * RING_SECONDS - 1) << 1;
+            this.mask = capacityFrames - 1;
+            this.ring = new short[capacityFrames * channels];
+            this.scratch = new byte[Math.max(channels * 2, sampleRate / 50 * channels * 2)]; // 每次最多读 20ms
+            this.nominalStep = (double) sampleRate / AlignedMultiSource.this.sampleRate;
+            this.step = nominalStep;
+            this.realtime = source.isRealtime();
+            this.thread = new Thread(this, "CaptureLane-" + index);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            int frameBytes = channels * 2;
+            long sourceFrames = 0; // 数据源交付的总帧数，包括溢出丢弃的
+            long[] ts = new long[2];
+            int scratchFrames = scratch.length / frameBytes;
+            long drainDeadline = 0;
+            try {
+                while (true) {
+                    if (stopped) {
+                        // 停止后继续取出数据源里已经缓冲的数据，最多 DRAIN_NANOS
+                        if (drainDeadline == 0) drainDeadline = System.nanoTime() + DRAIN_NANOS;
+                        else if (System.nanoTime() > drainDeadline) break;
+                    }
+                    // 非实时数据源（文件、信号发生器）等消费者腾出空间，不丢数据
+                    while (!realtime && !stopped && capacityFrames - (tail - head) < scratchFrames) {
+                        LockSupport.parkNanos(this, WAIT_SLICE_NANOS);
+                    }
+                    int read = source.read(scratch, 0, scratch.length);
+                    if (read < 0) {
+                        if (read != END_OF_STREAM && !stopped) {
+                            Log.e(TAG, "第" + index + "路读取失败，错误码: " + read);
+                        }
+                        break;
+                    }
+                    int frames = read / frameBytes;
+                    if (frames == 0) {
+                        if (stopped) break;
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    sourceFrames += frames;
+
+                    long t = tail;
+                    long free = capacityFrames - (t - head);
+                    int keep = frames;
+                    if (keep > free) {
+                        // 消费者跟不上，丢掉本次多出来的部分；时间戳会反映这次跳变，消费者随后重新对齐
+                        keep = (int) free;
+                        overflowFrames += frames - keep;
+                    }
+                    int b = 0;
+                    for (int f = 0; f < keep; f++) {
+                        int base = (int) ((t + f) & mask) * channels;
+                        for (int c = 0; c < channels; c++, b += 2) {
+                            ring[base + c] = (short) ((scratch[b] & 0xff) | (scratch[b + 1] << 8));
+                        }
+                    }
+                    // 环形缓冲区最后一帧的下一帧对应数据源的第 (sourceFrames - 丢弃部分) 帧
+                    long sourceFrameAtEnd = sourceFrames - (frames - keep);
+                    long nanos;
+                    if (source.timestamp(ts)) {
+                        nanos = ts[1] + (long) ((sourceFrameAtEnd - ts[0]) * 1e9 / sampleRate);
+                    } else {
+                        nanos = now;
+                    }
+                    tail = t + keep;
+                    publishTimestamp(t + keep, nanos);
+                    Thread c = consumer;
+                    if (c != null) LockSupport.unpark(c);
+                }
+            } finally {
+                finished = true;
+                Thread c = consumer;
+                if (c != null) LockSupport.unpark(c);
+            }
+        }
+
+        private void publishTimestamp(long frame, long nanos) {
+            tsSeq++;
+            tsFrame = frame;
+            tsNanos = nanos;
+            tsSeq++;
+        }
+
+        boolean readTimestamp(long[] out) {
+            while (true) {
+                int seq = tsSeq;
+                if (seq == 0) return false;
+                if ((seq & 1) != 0) {
+                    Thread.yield();
+                    continue;
+                }
+                long frame = tsFrame;
+                long nanos = tsNanos;
+                if (seq == tsSeq) {
+                    out[0] = frame;
+                    out[1] = nanos;
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.mediademo;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+
+/*
+ * 声控录音：麦克风一直开着，安静时只做一个很便宜的能量检测，有声音才开 take
+ *
+ * 空闲时每 IDLE_READ_MS 醒来读一大块（每秒只唤醒几次），每 DECIMATION 个采样取一个算均方能量，换算成和电平表相同的 0-100，
+ * 不写盘、不发电平、不做响度分析；最近 preRollMs 的数据留在一个预先分配好的环形缓冲区里
+ * 电平连续 triggerMs 超过 thresholdLevel 时触发：把一个 Segment 数据源交给 Listener，由它照常开 CaptureEngine 录成 take，
+ * Segment 先吐出预录的数据，再接着读麦克风；连续 quietMs 低于阈值后返回 END_OF_STREAM，take 正常收尾
+ * 录音期间这个线程等着，Segment 被 release 后回到空闲检测；AudioRecord 在整个布防期间只 start/release 一次
+ */
+public final class ArmedRecorder implements Runnable {
+    private static final String TAG = "ArmedRecorder";
+    private static final int IDLE_READ_MS = 250;
+    private static final int DECIMATION = 4;
+
+    public static final class Config {
+        public final int thresholdLevel; // 0-100，和电平表同一刻度，约等于 dBFS + 90
+        public final long triggerMs; // 超过阈值持续多久才触发，滤掉单个咔哒声
+        public final long quietMs; // 安静多久结束 take
+        public final long preRollMs; // take 开头带上触发前多久的声音
+
+        public Config(int thresholdLevel, long triggerMs, long quietMs, long preRollMs) {
+            this.thresholdLevel = thresholdLevel;
+            this.triggerMs = triggerMs;
+            this.quietMs = quietMs;
+            this.preRollMs = preRollMs;
+        }
+
+        public static Config defaults() {
+            return new Config(50, 200, 5000, 2000);
+        }
+
+        @Override
+        public String toString() {
+            return "阈值 " + thresholdLevel + ", 触发 " + triggerMs + " ms, 安静 " + quietMs + " ms, 预录 " + preRollMs + " ms";
+        }
+    }
+
+    public interface Listener {
+        // 在布防线程上回调：用 segment 开一个 take；segment 被 release 之前这个线程一直等待，开不了 take 时也必须 release
+        void onTriggered(AudioSource segment);
+
+        // 布防线程退出，麦克风已释放
+        void onDisarmed(boolean failed);
+    }
+
+    private final AudioSource source;
+    private final Config config;
+    private final Listener listener;
+    private final int blockAlign;
+    private final byte[] preRoll; // 环形缓冲区，容量按帧对齐
+    private int preRollPos;
+    private int preRollFill;
+    private volatile boolean disarmed;
+    private volatile int triggers;
+    private volatile long idleWakeups;
+    private Segment segment; // 正在录的 take，受 this 锁保护
+
+    public ArmedRecorder(AudioSource source, Config config, Listener listener) {
+        this.source = source;
+        this.config = config;
+        this.listener = listener;
+        this.blockAlign = source.channels() * source.bitsPerSample() / 8;
+        long bytes = config.preRollMs * source.sampleRate() / 1000 * blockAlign;
+        this.preRoll = new byte[(int) Math.max(blockAlign, bytes)];
+    }
+
+    // 空闲时一次读取的字节数，创建 AudioRecord 时缓冲区至少要有它的两倍
+    public static int idleReadBytes(int sampleRate, int channels, int bitsPerSample) {
+        return sampleRate * IDLE_READ_MS / 1000 * channels * bitsPerSample / 8;
+    }
+
+    public void start() {
+        new Thread(this, "ArmedRecorder").start();
+    }
+
+    // 任意线程调用：正在录的 take 在下一次读取时结束，然后释放麦克风
+    public void disarm() {
+        disarmed = true;
+        source.interrupt();
+    }
+
+    // 预录环形缓冲区的大小，布防期间一直占用
+    public int bufferBytes() {
+        return preRoll.length;
+    }
+
+    public String summary() {
+        return config + ", 已触发 " + triggers + " 次, 空闲唤醒 " + idleWakeups + " 次";
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        boolean failed = false;
+        try {
+            source.start();
+            byte[] block = new byte[idleReadBytes(source.sampleRate(), source.channels(), source.bitsPerSample())];
+            long loudMs = 0;
+            while (!disarmed) {
+                int read = source.read(block, 0, block.length);
+                if (read < 0) {
+                    Log.e(TAG, "读取音频数据失败，错误码: " + read);
+                    failed = true;
+                    break;
+                }
+                if (read == 0) continue;
+                idleWakeups++;
+                keepPreRoll(block, read);
+                long blockMs = (long) read / blockAlign * 1000 / source.sampleRate();
+                if (level(block, 0, read) >= config.thresholdLevel) {
+                    loudMs += blockMs;
+                } else {
+                    loudMs = 0;
+                }
+                if (loudMs >= config.triggerMs) {
+                    loudMs = 0;
+                    record();
+                }
+            }
+            source.stop();
+        } catch (IOException e) {
+            Log.e(TAG, "无法开始监听", e);
+            failed = true;
+        } finally {
+            source.release();
+        }
+        Log.d(TAG, "解除布防: " + summary());
+        listener.onDisarmed(failed);
+    }
+
+    private void keepPreRoll(byte[] data, int length) {
+        int offset = 0;
+        if (length > preRoll.length) {
+            offset = length - preRoll.length;
+            length = preRoll.length;
+        }
+        int first = Math.min(length, preRoll.length - preRollPos);
+        System.arraycopy(data, offset, preRoll, preRollPos, first);
+        System.arraycopy(data, offset + first, preRoll, 0, length - first);
+        preRollPos = (preRollPos + length) % preRoll.length;
+        preRollFill = Math.min(preRoll.length, preRollFill + length);
+    }
+
+    // 只看 16 位；8 位输入按满幅处理，任何声音都触发
+    private int level(byte[] data, int offset, int length) {
+        if (source.bitsPerSample() != 16) return 100;
+        long sum = 0;
+        int count = 0;
+        int step = 2 * DECIMATION;
+        for (int i = offset; i + 1 < offset + length; i += step) {
+            short sample = (short) ((data[i] & 0xff) | (data[i + 1] << 8));
+            sum += (long) sample * sample;
+            count++;
+        }
+        if (count == 0) return 0;
+        double rms = Math.sqrt((double) sum / count);
+        return Math.max(0, Math.min(100, (int) (20 * Math.log10(rms / 32768.0) + 90)));
+    }
+
+    private void record() {
+        triggers++;
+        Segment s = new Segment();
+        synchronized (this) {
+            segment = s;
+        }
+        Log.d(TAG, "声音触发，开始 take（预录 " + preRollFill / blockAlign * 1000 / source.sampleRate() + " ms）");
+        listener.onTriggered(s);
+        // 解除布防时 segment 下一次读取就返回 END_OF_STREAM；一定要等它被 release，录音线程还在读同一个 AudioRecord
+        synchronized (this) {
+            while (segment != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    disarmed = true;
+                }
+            }
+        }
+        preRollFill = 0;
+    }
+
+    // 交给 CaptureEngine 的数据源：先读预录的数据，再读麦克风；stop/release 不碰真正的 AudioRecord
+    private final class Segment implements AudioSource {
+        private int preRollLeft = preRollFill;
+        private int preRollRead = (preRollPos - preRollFill + preRoll.length) % preRoll.length;
+        private long quietMs;
+        private volatile boolean stopped;
+
+        @Override
+        public int sampleRate() {
+            return source.sampleRate();
+        }
+
+        @Override
+        public int channels() {
+            return source.channels();
+        }
+
+        @Override
+        public int bitsPerSample() {
+            return source.bitsPerSample();
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (preRollLeft > 0) {
+                int n = Math.min(length - length % blockAlign, preRollLeft);
+                n = Math.min(n, preRoll.length - preRollRead);
+                System.arraycopy(preRoll, preRollRead, buffer, offset, n);
+                preRollRead = (preRollRead + n) % preRoll.length;
+                preRollLeft -= n;
+                return n;
+            }
+            if (stopped || disarmed) return END_OF_STREAM;
+            int read = source.read(buffer, offset, length);
+            if (read <= 0) return read;
+            // take 中的安静检测用同一个抽样能量，只是换成累计安静时长
+            if (level(buffer, offset, read) < config.thresholdLevel) {
+                quietMs += (long) read / blockAlign * 1000 / source.sampleRate();
+                if (quietMs >= config.quietMs) {
+                    Log.d(TAG, "安静 " + quietMs + " ms，结束 take");
+                    stopped = true;
+                }
+            } else {
+                quietMs = 0;
+            }
+            return read;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            synchronized (ArmedRecorder.this) {
+                if (segment == this) {
+                    segment = null;
+                }
+                ArmedRecorder.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.example.mediademo;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.util.Log;
+
+import java.util.List;
+
+/*
+ * 界面进程这一侧的 IAudioEngine 包装
+ *
+ * AudioRecordService 可能在独立的 :audio 进程里，所有调用都可能抛 RemoteException（服务进程被杀）；
+ * 这里统一捕获并返回默认值，MainActivity 的调用方式和原来直接拿 Service 对象时基本一样
+ * 停止回调切回主线程；电平从共享内存环形缓冲区读取，每帧调用 pollMeterLevel，不走 binder
+ */
+public class AudioEngineClient {
+    private static final String TAG = "AudioEngineClient";
+    // 播放列表每页的估算大小上限；binder 缓冲区约 1 MB，由这个进程所有进行中的事务共用
+    private static final long PLAYLIST_PAGE_BYTES = 128 * 1024;
+    private static final int PLAYLIST_ENTRY_OVERHEAD = 16;
+
+    public interface StopCallback {
+        // 在主线程回调；path 为 null 表示没有可用的 take
+        void onStopped(String path, long durationMs, long stopLatencyMs);
+    }
+
+    private final IAudioEngine engine;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private SharedRing meterRing;
+    private final int[] meterPayload = new int[1];
+    private long meterRead; // 已经读过的电平记录数
+
+    public AudioEngineClient(IBinder binder) {
+        engine = IAudioEngine.Stub.asInterface(binder);
+    }
+
+    private static void logFailure(String what, RemoteException e) {
+        Log.e(TAG, what + " 失败，音频进程可能已经退出", e);
+    }
+
+    public boolean isRecording() {
+        try {
+            return engine.isRecording();
+        } catch (RemoteException e) {
+            logFailure("isRecording", e);
+            return false;
+        }
+    }
+
+    public boolean isPlaying() {
+        try {
+            return engine.isPlaying();
+        } catch (RemoteException e) {
+            logFailure("isPlaying", e);
+            return false;
+        }
+    }
+
+    public boolean isExporting() {
+        try {
+            return engine.isExporting();
+        } catch (RemoteException e) {
+            logFailure("isExporting", e);
+            return false;
+        }
+    }
+
+    public String getCurrentTakePath() {
+        try {
+            return engine.getCurrentTakePath();
+        } catch (RemoteException e) {
+            logFailure("getCurrentTakePath", e);
+            return null;
+        }
+    }
+
+    public Uri getLiveTapUri() {
+        try {
+            return engine.getLiveTapUri();
+        } catch (RemoteException e) {
+            logFailure("getLiveTapUri", e);
+            return null;
+        }
+    }
+
+    public void prewarmCapture(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        try {
+            engine.prewarmCapture(sampleRate, channelConfig, audioFormat, bufferSize);
+        } catch (RemoteException e) {
+            logFailure("prewarmCapture", e);
+        }
+    }
+
+    public void startRecording(int sampleRate, int channelConfig, int audioFormat, int bufferSize, long requestedAtNanos) {
+        try {
+            engine.startRecording(sampleRate, channelConfig, audioFormat, bufferSize, requestedAtNanos);
+        } catch (RemoteException e) {
+            logFailure("startRecording", e);
+        }
+    }
+
+    public void startMultiSourceRecording(int sampleRate, int bufferSize, long requestedAtNanos) {
+        try {
+            engine.startMultiSourceRecording(sampleRate, bufferSize, requestedAtNanos);
+        } catch (RemoteException e) {
+            logFailure("startMultiSourceRecording", e);
+        }
+    }
+
+    public void stopRecordingAsync(StopCallback callback) {
+        try {
+            engine.stopRecordingAsync(new IStopCallback.Stub() {
+                @Override
+                public void onStopped(String path, long durationMs, long stopLatencyMs) {
+                    // 跨进程时在 binder 线程上，同进程时已经在主线程，统一 post 一次
+                    mainHandler.post(() -> callback.onStopped(path, durationMs, stopLatencyMs));
+                }
+            });
+        } catch (RemoteException e) {
+            logFailure("stopRecordingAsync", e);
+        }
+    }
+
+    public void startRecordingFromSignal(SignalAudioSource.Kind kind, int sampleRate, int channels, long durationMs,
+                                         boolean realtime, int bufferSize) {
+        try {
+            engine.startRecordingFromSignal(kind.ordinal(), sampleRate, channels, durationMs, realtime, bufferSize);
+        } catch (RemoteException e) {
+            logFailure("startRecordingFromSignal", e);
+        }
+    }
+
+    public void startRecordingFromFile(String path, boolean realtime, boolean loop, int bufferSize) {
+        try {
+            engine.startRecordingFromFile(path, realtime, loop, bufferSize);
+        } catch (RemoteException e) {
+            logFailure("startRecordingFromFile", e);
+        }
+    }
+
+    // 下一次录音开始时生效
+    public void setWriterConfig(TakeWriter.Config config) {
+        long value = config.durability == TakeWriter.Durability.PERIODIC ? config.intervalMs : config.segmentBytes;
+        try {
+            engine.setWriterConfig(config.durability.ordinal(), config.chunkSize, value);
+        } catch (RemoteException e) {
+            logFailure("setWriterConfig", e);
+        }
+    }
+
+    // 过热时换用的采样率，0 表示不换
+    public void setFallbackSampleRate(int sampleRate) {
+        try {
+            engine.setFallbackSampleRate(sampleRate);
+        } catch (RemoteException e) {
+            logFailure("setFallbackSampleRate", e);
+        }
+    }
+
+    // 界面进程和服务进程各有一份 AudioTrace 状态，两边一起设置
+    public void setTraceOptions(boolean enabled, boolean forceOnLegacy) {
+        AudioTrace.setEnabled(enabled);
+        AudioTrace.setForceOnLegacy(forceOnLegacy);
+        try {
+            engine.setTraceOptions(enabled, forceOnLegacy);
+        } catch (RemoteException e) {
+            logFailure("setTraceOptions", e);
+        }
+    }
+
+    public void startQuickClip(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        try {
+            engine.startQuickClip(sampleRate, channelConfig, audioFormat, bufferSize);
+        } catch (RemoteException e) {
+            logFailure("startQuickClip", e);
+        }
+    }
+
+    public boolean hasQuickClip() {
+        try {
+            return engine.hasQuickClip();
+        } catch (RemoteException e) {
+            logFailure("hasQuickClip", e);
+            return false;
+        }
+    }
+
+    public void playQuickClip() {
+        try {
+            engine.playQuickClip();
+        } catch (RemoteException e) {
+            logFailure("playQuickClip", e);
+        }
+    }
+
+    public void keepQuickClip() {
+        try {
+            engine.keepQuickClip();
+        } catch (RemoteException e) {
+            logFailure("keepQuickClip", e);
+        }
+    }
+
+    public void discardQuickClip() {
+        try {
+            engine.discardQuickClip();
+        } catch (RemoteException e) {
+            logFailure("discardQuickClip", e);
+        }
+    }
+
+    public void arm(int sampleRate, int channelConfig, int audioFormat) {
+        arm(sampleRate, channelConfig, audioFormat, ArmedRecorder.Config.defaults());
+    }
+
+    public void arm(int sampleRate, int channelConfig, int audioFormat, ArmedRecorder.Config config) {
+        try {
+            engine.arm(sampleRate, channelConfig, audioFormat, config.thresholdLevel, config.triggerMs, config.quietMs,
+                    config.preRollMs);
+        } catch (RemoteException e) {
+            logFailure("arm", e);
+        }
+    }
+
+    public void disarm() {
+        try {
+            engine.disarm();
+        } catch (RemoteException e) {
+            logFailure("disarm", e);
+        }
+    }
+
+    public boolean isArmed() {
+        try {
+            return engine.isArmed();
+        } catch (RemoteException e) {
+            logFailure("isArmed", e);
+            return false;
+        }
+    }
+
+    public void setMonitoring(boolean enabled) {
+        try {
+            engine.setMonitoring(enabled);
+        } catch (RemoteException e) {
+            logFailure("setMonitoring", e);
+        }
+    }
+
+    public boolean isMonitoring() {
+        try {
+            return engine.isMonitoring();
+        } catch (RemoteException e) {
+            logFailure("isMonitoring", e);
+            return false;
+        }
+    }
+
+    public void exportTodayTakes() {
+        try {
+            engine.exportTodayTakes();
+        } catch (RemoteException e) {
+            logFailure("exportTodayTakes", e);
+        }
+    }
+
+    public void cancelExport() {
+        try {
+            engine.cancelExport();
+        } catch (RemoteException e) {
+            logFailure("cancelExport", e);
+        }
+    }
+
+    // 按估算的 Parcel 大小分页发送，每页远小于 binder 缓冲区，其它并发事务也还有余量
+    public void setPlaylist(List<Uri> uris) {
+        try {
+            int token = engine.beginPlaylist();
+            int start = 0;
+            long pageBytes = 0;
+            for (int i = 0; i < uris.size(); i++) {
+                // Uri 在 Parcel 里按 UTF-16 字符串写，另加类型和长度字段
+                pageBytes += 2L * uris.get(i).toString().length() + PLAYLIST_ENTRY_OVERHEAD;
+                if (pageBytes >= PLAYLIST_PAGE_BYTES) {
+                    engine.appendPlaylist(token, uris.subList(start, i + 1));
+                    start = i + 1;
+                    pageBytes = 0;
+                }
+            }
+            if (start < uris.size()) {
+                engine.appendPlaylist(token, uris.subList(start, uris.size()));
+            }
+            engine.commitPlaylist(token);
+        } catch (RemoteException e) {
+            logFailure("setPlaylist", e);
+        }
+    }
+
+    public void playAudio(Uri uri) {
+        try {
+            engine.playAudio(uri);
+        } catch (RemoteException e) {
+            logFailure("playAudio", e);
+        }
+    }
+
+    public void removeCurrent() {
+        try {
+            engine.removeCurrent();
+        } catch (RemoteException e) {
+            logFailure("removeCurrent", e);
+        }
+    }
+
+    public void trimSilentStart(long takeId) {
+        try {
+            engine.trimSilentStart(takeId);
+        } catch (RemoteException e) {
+            logFailure("trimSilentStart", e);
+        }
+    }
+
+    public void buildSpectrogram(long takeId) {
+        try {
+            engine.buildSpectrogram(takeId);
+        } catch (RemoteException e) {
+            logFailure("buildSpectrogram", e);
+        }
+    }
+
+    public void cancelSpectrogram() {
+        try {
+            engine.cancelSpectrogram();
+        } catch (RemoteException e) {
+            logFailure("cancelSpectrogram", e);
+        }
+    }
+
+    public void uploadTake(long takeId, String endpoint) {
+        try {
+            engine.uploadTake(takeId, endpoint);
+        } catch (RemoteException e) {
+            logFailure("uploadTake", e);
+        }
+    }
+
+    public void cancelUpload() {
+        try {
+            engine.cancelUpload();
+        } catch (RemoteException e) {
+            logFailure("cancelUpload", e);
+        }
+    }
+
+    // 上一次录音的采集统计：读次数、读间隔 p50/p99/最大值和停止延迟（键见 AudioRecordService.STATS_*），没有录过时为空 Bundle
+    public Bundle getLastCaptureStats() {
+        try {
+            return engine.getLastCaptureStats();
+        } catch (RemoteException e) {
+            logFailure("getLastCaptureStats", e);
+            return new Bundle();
+        }
+    }
+
+    // 连接后调用一次；API 27 以下或服务不提供时返回 false，电平继续走 VOLUME_UPDATE 广播
+    public boolean attachMeter() {
+        if (meterRing != null) return true;
+        try {
+            Bundle bundle = engine.getMeterRing();
+            SharedMemory memory = bundle != null ? bundle.getParcelable("ring") : null;
+            meterRing = SharedRing.attach(memory);
+        } catch (RemoteException | RuntimeException e) {
+            Log.e(TAG, "无法获取电平共享内存", e);
+        }
+        return meterRing != null;
+    }
+
+    // 有新电平时返回 0-100，没有新数据时返回 -1；不分配内存，可以每帧调用
+    public int pollMeterLevel() {
+        if (meterRing == null) return -1;
+        long written = meterRing.written();
+        if (written == meterRead) return -1;
+        meterRead = written;
+        if (meterRing.readLatest(meterPayload) < 0) return -1;
+        return Math.max(0, Math.min(100, meterPayload[0]));
+    }
+
+    public void release() {
+        if (meterRing != null) {
+            meterRing.detach();
+            meterRing = null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.mediademo;
 
+import android.app.Application;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -14,45 +15,134 @@ import android.media.MediaRecorder;
 import android.media.MediaMetadata;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
-import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.RemoteException;
 import androidx.core.app.NotificationCompat;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.content.pm.PackageManager;
 import androidx.core.content.ContextCompat;
 import android.Manifest;
 
 import android.media.AudioAttributes;
+import android.media.AudioDeviceInfo;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.media.audiofx.LoudnessEnhancer;
 import android.net.Uri;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class AudioRecordService extends Service {
     private static final String TAG = "AudioRecordService";
     private static final String CHANNEL_ID = "AudioRecordChannel";
-    private AudioRecord audioRecord;
+    // getLastCaptureStats 返回的 key
+    public static final String STATS_READS = "reads";
+    public static final String STATS_GAP_P50_MS = "gapP50Ms";
+    public static final String STATS_GAP_P99_MS = "gapP99Ms";
+    public static final String STATS_GAP_MAX_MS = "gapMaxMs";
+    public static final String STATS_STOP_LATENCY_MS = "stopLatencyMs";
+    private volatile CaptureEngine captureEngine; // 正在进行的录音，每个 take 一个
     private MediaPlayer mediaPlayer;
-    private boolean isRecording = false;
-    private String pcmPath;
+    private volatile boolean isRecording = false;
+    private boolean noisyReceiverRegistered = false;
+    private boolean notificationChannelCreated = false;
+    private final Object prewarmLock = new Object();
+    private AudioRecord prewarmedRecord;
+    private String prewarmedKey;
+    private volatile int prewarmedBytes; // 预热 AudioRecord 的缓冲区大小，用于内存预算
+    private volatile boolean playerPaused; // 暂停（临时失去焦点）中的 MediaPlayer，内存预算只在最严重时释放它
+    private static final long PLAYER_ESTIMATE_BYTES = 1024 * 1024; // MediaPlayer 解码缓冲区的粗略估计
+    private volatile Take currentTake; // 正在录制的 take
+    private volatile Take lastTake; // 最近一次结束的 take
+    private BatchExporter batchExporter;
+    private volatile BatchExporter.Job exportJob;
+    private volatile boolean isExporting = false;
+    private volatile boolean exportCancelPending; // 查询线程还没创建 exportJob 时收到的取消
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Long, StopCallback> stopCallbacks = new ConcurrentHashMap<>();
+    // 写盘策略：默认每 2 秒 force 一次，掉电最多丢 2 秒
+    private volatile TakeWriter.Config writerConfig = TakeWriter.Config.periodic(TakeWriter.DEFAULT_CHUNK_SIZE, 2000);
+    private volatile String lastWriterSummary;
+    private volatile String lastCaptureStats;
+    private volatile Bundle lastCaptureBundle; // 同样的统计，按 key 给 getLastCaptureStats
+    private volatile SharedRing meterRing; // 界面第一次请求时创建，之前电平仍然走广播
+    private final int[] meterPayload = new int[1]; // 只在录音线程上使用
+    // 过热降级：只在主线程访问
+    private CaptureQualityGovernor qualityGovernor;
+    private int fallbackSampleRate = 22050; // FALLBACK 时换用的采样率，0 表示不换
+    private int[] micParams; // 当前麦克风录音的 sampleRate/channelConfig/audioFormat/bufferSize，模拟输入和多路录音时为 null
+    private CaptureEngine rolloverFrom; // 正在收尾、收尾后要换采样率接着录的 take
+    // 换采样率时新旧 take 重叠：新 take 出第一个采样之前旧 take 继续录，录音线程上取走并停止
+    private final AtomicReference<CaptureEngine> handoverFrom = new AtomicReference<>();
+    private ExecutorService editExecutor; // take 剪辑，第一次使用时创建
+    // 频谱图：一个协调线程依次处理请求，计算在专用的 ForkJoinPool 上，都在第一次使用时创建
+    private ExecutorService spectrogramExecutor;
+    private ForkJoinPool spectrogramPool;
+    // 当前请求的取消标记；新请求用 getAndSet 换上自己的标记并取消上一个，binder 线程并发请求时不会漏掉任何一个
+    private final AtomicReference<AtomicBoolean> spectrogramCancelled = new AtomicReference<>(new AtomicBoolean());
+    private volatile SpectrogramTiles spectrogram; // 正在生成的
+    private volatile String lastSpectrogramSummary;
+    private TakeUploader uploader; // 第一次上传或发现未完成的 ledger 时创建
+    // 声控录音：只在主线程访问
+    private ArmedRecorder armedRecorder;
+    private volatile String lastArmedSummary;
+    // 内存短片段：只在主线程访问
+    private QuickClip.Recorder clipRecorder; // 正在录的片段
+    private QuickClip quickClip; // 录完、等用户决定保留还是丢弃的片段
+    private QuickClip.Player clipPlayer;
+    // 耳返：只在主线程访问；开关对之后的录音一直有效
+    private boolean monitorEnabled = false;
+    private InputMonitor inputMonitor;
+    private CaptureEngine monitorEngine; // inputMonitor 挂在哪个引擎上
+    private volatile String lastMonitorSummary;
 
     private AudioManager audioManager;
     private AudioFocusRequest focusRequest;
     private final Object focusLock = new Object();
     private boolean resumeOnFocusGain = false;
 
-    private List<Uri> playlist = new ArrayList<>();
-    private int currentIndex = -1;
+    // 播放队列只在主线程访问；启动时后台恢复上次的队列，恢复完成前用户已经设置了新列表就丢弃恢复结果
+    private PlayQueue queue = new PlayQueue();
+    private boolean queueTouched = false;
+    private PlayQueueStore queueStore;
+    private final List<Uri> prefetchWindow = new ArrayList<>();
     private MediaSession mediaSession;
-    private long lastVolumeUpdateTime = 0;
+    private MetadataLoader metadataLoader;
+    private int playerCookie = 0; // playback.prepare 异步切片的 cookie
+
+    // 响度归一化：衰减用 MediaPlayer.setVolume，提升用 LoudnessEnhancer
+    private static final float DUCK_VOLUME = 0.2f;
+    private LoudnessStore loudnessStore;
+    private LoudnessScanner loudnessScanner;
+    private LoudnessEnhancer loudnessEnhancer;
+    private Uri currentUri;
+    private float trackGain = 1.0f;
+    private boolean ducked = false;
 
     // 广播接收器：监听耳机拔出
     // adb shell am broadcast -a com.example.mediademo.TEST_NOISY -p com.example.mediademo --receiver-include-background
@@ -79,6 +169,16 @@ public class AudioRecordService extends Service {
     // 音频焦点监听器
     private final AudioManager.OnAudioFocusChangeListener focusChangeListener = focusChange -> {
         Log.d(TAG, "FOCUSCHANGELISTENER IS CALLED: " + focusChange);
+        AudioTrace.counter("audio.focus", focusChange);
+        boolean t = AudioTrace.begin("focus.change");
+        try {
+            onFocusChange(focusChange);
+        } finally {
+            AudioTrace.end(t);
+        }
+    };
+
+    private void onFocusChange(int focusChange) {
         switch (focusChange) {
             case AudioManager.AUDIOFOCUS_GAIN:
                 Log.d(TAG, "AUDIOFOCUS_GAIN");
@@ -87,8 +187,10 @@ public class AudioRecordService extends Service {
                     synchronized (focusLock) {
                         resumeOnFocusGain = false;
                         if (mediaPlayer != null && !mediaPlayer.isPlaying()) {
-                            mediaPlayer.setVolume(1.0f, 1.0f);
+                            ducked = false;
+                            applyVolume();
                             mediaPlayer.start();
+                            playerPaused = false;
                             notifyUiUpdate();
                         }
                     }
@@ -106,6 +208,7 @@ public class AudioRecordService extends Service {
                     if (mediaPlayer != null && mediaPlayer.isPlaying()) {
                         resumeOnFocusGain = true;
                         mediaPlayer.pause();
+                        playerPaused = true;
                     }
                     if (isRecording) {
                         stopRecording();
@@ -117,12 +220,13 @@ public class AudioRecordService extends Service {
                 Log.d(TAG, "AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK");
                 // 暂时失去焦点，但可以降低音量播放（如导航播报）
                 if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-                    mediaPlayer.setVolume(0.2f, 0.2f);
+                    ducked = true;
+                    applyVolume();
                     notifyUiUpdate();
                 }
                 break;
         }
-    };
+    }
 
     private void notifyUiUpdate() {
         Intent updateIntent = new Intent("com.example.mediademo.UPDATE_UI");
@@ -130,15 +234,345 @@ public class AudioRecordService extends Service {
         sendBroadcast(updateIntent);
     }
 
+    public interface StopCallback {
+        // 主线程回调，take 已经整理完成；stopLatencyMs 是停止命令到文件关闭的耗时
+        void onStopped(Take take, long stopLatencyMs);
+    }
+
     // Binder 给 Activity 提供调用接口
-    // 这样 Activity能够通过获得Service对象来getter录音状态
-    public class AudioBinder extends Binder {
-        AudioRecordService getService() {
-            return AudioRecordService.this;
+    // 服务可以运行在独立的 :audio 进程里，Activity 只能通过 AIDL 调用，不能再直接拿到 Service 对象
+    // 同进程时 asInterface 直接返回这个对象，调用发生在主线程；跨进程时在 binder 线程上，需要转到主线程执行
+    private class EngineBinder extends IAudioEngine.Stub {
+        private void onMain(Runnable r) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                r.run();
+            } else {
+                mainHandler.post(r);
+            }
+        }
+
+        // 查询要读主线程上的状态（MediaPlayer、播放队列），跨进程时在主线程上执行并等结果
+        private <T> T callOnMain(Callable<T> call, T fallback) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                try {
+                    return call.call();
+                } catch (Exception e) {
+                    return fallback;
+                }
+            }
+            FutureTask<T> task = new FutureTask<>(call);
+            mainHandler.post(task);
+            try {
+                return task.get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                Log.w(TAG, "主线程查询超时", e);
+                return fallback;
+            }
+        }
+
+        @Override
+        public boolean isRecording() {
+            return AudioRecordService.this.isRecording();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return callOnMain(AudioRecordService.this::isPlaying, false);
+        }
+
+        @Override
+        public boolean isExporting() {
+            return AudioRecordService.this.isExporting();
+        }
+
+        @Override
+        public boolean isShuffle() {
+            return callOnMain(AudioRecordService.this::isShuffle, false);
+        }
+
+        @Override
+        public String getCurrentTakePath() {
+            Take take = getCurrentTake();
+            return take != null ? take.path : null;
+        }
+
+        @Override
+        public Uri getLiveTapUri() {
+            return AudioRecordService.this.getLiveTapUri();
+        }
+
+        @Override
+        public void prewarmCapture(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+            onMain(() -> AudioRecordService.this.prewarmCapture(sampleRate, channelConfig, audioFormat, bufferSize));
+        }
+
+        @Override
+        public void startRecording(int sampleRate, int channelConfig, int audioFormat, int bufferSize, long requestedAtNanos) {
+            onMain(() -> AudioRecordService.this.startRecording(sampleRate, channelConfig, audioFormat, bufferSize, requestedAtNanos));
+        }
+
+        @Override
+        public void startMultiSourceRecording(int sampleRate, int bufferSize, long requestedAtNanos) {
+            onMain(() -> AudioRecordService.this.startMultiSourceRecording(sampleRate, bufferSize, requestedAtNanos));
+        }
+
+        @Override
+        public void stopRecordingAsync(IStopCallback callback) {
+            onMain(() -> AudioRecordService.this.stopRecordingAsync(callback == null ? null : (take, stopLatencyMs) -> {
+                try {
+                    callback.onStopped(take != null ? take.path : null, take != null ? take.durationMs : 0, stopLatencyMs);
+                } catch (RemoteException e) {
+                    Log.w(TAG, "停止回调失败，界面进程可能已经退出", e);
+                }
+            }));
+        }
+
+        @Override
+        public void startRecordingFromSignal(int kind, int sampleRate, int channels, long durationMs, boolean realtime, int bufferSize) {
+            SignalAudioSource.Kind[] kinds = SignalAudioSource.Kind.values();
+            if (kind < 0 || kind >= kinds.length || sampleRate <= 0 || channels <= 0 || bufferSize <= 0) {
+                Log.w(TAG, "忽略无效的模拟输入参数: kind=" + kind + ", " + sampleRate + " Hz, " + channels + " 声道");
+                return;
+            }
+            AudioSource source = new SignalAudioSource(kinds[kind], sampleRate, channels, 0.5, 1000, durationMs, realtime);
+            onMain(() -> AudioRecordService.this.startRecordingFrom(source, bufferSize));
+        }
+
+        @Override
+        public void startRecordingFromFile(String path, boolean realtime, boolean loop, int bufferSize) {
+            // 解析 wav 头要读文件，留在 binder 线程上做
+            AudioSource source;
+            try {
+                source = FileAudioSource.wav(new File(path), realtime, loop);
+            } catch (IOException e) {
+                Log.w(TAG, "无法打开模拟输入文件: " + path, e);
+                return;
+            }
+            onMain(() -> AudioRecordService.this.startRecordingFrom(source, bufferSize));
+        }
+
+        @Override
+        public void setWriterConfig(int durability, int chunkSize, long value) {
+            TakeWriter.Durability[] values = TakeWriter.Durability.values();
+            if (durability < 0 || durability >= values.length || chunkSize < WavHeader.HEADER_SIZE || value < 0) {
+                Log.w(TAG, "忽略无效的写盘策略: " + durability + ", " + chunkSize + ", " + value);
+                return;
+            }
+            switch (values[durability]) {
+                case PERIODIC:
+                    AudioRecordService.this.setWriterConfig(TakeWriter.Config.periodic(chunkSize, value));
+                    break;
+                case SEGMENT:
+                    AudioRecordService.this.setWriterConfig(TakeWriter.Config.segments(chunkSize, value));
+                    break;
+                default:
+                    AudioRecordService.this.setWriterConfig(TakeWriter.Config.none(chunkSize));
+                    break;
+            }
+        }
+
+        @Override
+        public void setFallbackSampleRate(int sampleRate) {
+            if (sampleRate < 0) {
+                Log.w(TAG, "忽略无效的降级采样率: " + sampleRate);
+                return;
+            }
+            onMain(() -> AudioRecordService.this.setFallbackSampleRate(sampleRate));
+        }
+
+        // 两个开关都是 volatile，埋点在哪个线程上都能马上看到，不用转到主线程
+        @Override
+        public void setTraceOptions(boolean enabled, boolean forceOnLegacy) {
+            Log.d(TAG, "AudioTrace: enabled=" + enabled + ", forceOnLegacy=" + forceOnLegacy);
+            AudioTrace.setEnabled(enabled);
+            AudioTrace.setForceOnLegacy(forceOnLegacy);
+        }
+
+        @Override
+        public void exportTodayTakes() {
+            onMain(AudioRecordService.this::exportTodayTakes);
+        }
+
+        @Override
+        public void cancelExport() {
+            onMain(AudioRecordService.this::cancelExport);
+        }
+
+        // 分页收到的播放列表，commit 之前只在 binder 线程上攒着，不碰主线程上的队列
+        private final Object playlistLock = new Object();
+        private int playlistToken;
+        private ArrayList<Uri> pendingPlaylist;
+
+        @Override
+        public int beginPlaylist() {
+            synchronized (playlistLock) {
+                pendingPlaylist = new ArrayList<>();
+                return ++playlistToken;
+            }
+        }
+
+        @Override
+        public void appendPlaylist(int token, List<Uri> page) {
+            synchronized (playlistLock) {
+                if (token != playlistToken || pendingPlaylist == null) {
+                    Log.w(TAG, "丢弃过期的播放列表分页 " + token);
+                    return;
+                }
+                pendingPlaylist.addAll(page);
+            }
+        }
+
+        @Override
+        public void commitPlaylist(int token) {
+            List<Uri> uris;
+            synchronized (playlistLock) {
+                if (token != playlistToken || pendingPlaylist == null) {
+                    Log.w(TAG, "丢弃过期的播放列表 " + token);
+                    return;
+                }
+                uris = pendingPlaylist;
+                pendingPlaylist = null;
+            }
+            onMain(() -> AudioRecordService.this.setPlaylist(uris));
+        }
+
+        @Override
+        public void playAudio(Uri uri) {
+            onMain(() -> AudioRecordService.this.playAudio(uri));
+        }
+
+        @Override
+        public void playNext() {
+            onMain(AudioRecordService.this::playnext);
+        }
+
+        @Override
+        public void playPrevious() {
+            onMain(AudioRecordService.this::playPrevious);
+        }
+
+        @Override
+        public void insertNext(Uri uri) {
+            onMain(() -> AudioRecordService.this.insertNext(uri));
+        }
+
+        @Override
+        public void removeCurrent() {
+            onMain(AudioRecordService.this::removeCurrent);
+        }
+
+        @Override
+        public void setShuffle(boolean enabled) {
+            onMain(() -> AudioRecordService.this.setShuffle(enabled));
+        }
+
+        @Override
+        public void startQuickClip(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+            onMain(() -> AudioRecordService.this.startQuickClip(sampleRate, channelConfig, audioFormat, bufferSize));
+        }
+
+        @Override
+        public boolean hasQuickClip() {
+            return callOnMain(AudioRecordService.this::hasQuickClip, false);
+        }
+
+        @Override
+        public void playQuickClip() {
+            onMain(AudioRecordService.this::playQuickClip);
+        }
+
+        @Override
+        public void keepQuickClip() {
+            onMain(AudioRecordService.this::keepQuickClip);
+        }
+
+        @Override
+        public void discardQuickClip() {
+            onMain(AudioRecordService.this::discardQuickClip);
+        }
+
+        @Override
+        public void arm(int sampleRate, int channelConfig, int audioFormat, int thresholdLevel, long triggerMs,
+                        long quietMs, long preRollMs) {
+            if (thresholdLevel < 0 || thresholdLevel > 100 || triggerMs < 0 || quietMs < 0 || preRollMs < 0) {
+                Log.w(TAG, "忽略无效的声控参数: " + thresholdLevel + ", " + triggerMs + ", " + quietMs + ", " + preRollMs);
+                return;
+            }
+            ArmedRecorder.Config config = new ArmedRecorder.Config(thresholdLevel, triggerMs, quietMs, preRollMs);
+            onMain(() -> AudioRecordService.this.arm(sampleRate, channelConfig, audioFormat, config));
+        }
+
+        @Override
+        public void disarm() {
+            onMain(AudioRecordService.this::disarm);
+        }
+
+        @Override
+        public boolean isArmed() {
+            return callOnMain(AudioRecordService.this::isArmed, false);
+        }
+
+        @Override
+        public void setMonitoring(boolean enabled) {
+            onMain(() -> AudioRecordService.this.setMonitoring(enabled));
+        }
+
+        @Override
+        public boolean isMonitoring() {
+            return callOnMain(AudioRecordService.this::isMonitoring, false);
+        }
+
+        @Override
+        public void trimSilentStart(long takeId) {
+            AudioRecordService.this.trimSilentStart(takeId);
+        }
+
+        @Override
+        public void buildSpectrogram(long takeId) {
+            AudioRecordService.this.buildSpectrogram(takeId);
+        }
+
+        @Override
+        public void cancelSpectrogram() {
+            AudioRecordService.this.cancelSpectrogram();
+        }
+
+        @Override
+        public void uploadTake(long takeId, String endpoint) {
+            AudioRecordService.this.uploadTake(takeId, endpoint);
+        }
+
+        @Override
+        public void cancelUpload() {
+            AudioRecordService.this.cancelUpload();
+        }
+
+        @Override
+        public Bundle getLastCaptureStats() {
+            Bundle stats = lastCaptureBundle;
+            return stats != null ? stats : new Bundle();
+        }
+
+        @Override
+        public Bundle getMeterRing() {
+            Bundle bundle = new Bundle();
+            SharedRing ring = meterRing();
+            if (ring != null) {
+                bundle.putParcelable("ring", ring.memory());
+            }
+            return bundle;
         }
     }
 
-    private final IBinder binder = new AudioBinder();
+    private final IBinder binder = new EngineBinder();
+
+    // 电平环形缓冲区：每条记录一个 int（0-100），64 条约 3 秒，界面每帧只读最新一条
+    private synchronized SharedRing meterRing() {
+        if (meterRing == null) {
+            meterRing = SharedRing.create("meter", 1, 64);
+        }
+        return meterRing;
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -148,12 +582,106 @@ public class AudioRecordService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        createNotificationChannel(); // 通知栏显示录音
-        pcmPath = getExternalFilesDir(null).getAbsolutePath() + "/record.pcm";
+        // 冷启动只做必要的轻量工作，其余子系统按需创建：
+        // 通知渠道与 take 库的恢复放到后台线程，MediaSession/元数据/响度分析在第一次播放时创建，
+        // 耳机拔出广播在第一次录音或播放时注册
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         initAudioFocusRequest();
-        initMediaSession();
+        loudnessStore = LoudnessStore.get(this);
+        queueStore = new PlayQueueStore(this);
+        registerMemoryConsumers();
+        new Thread(() -> {
+            ensureNotificationChannel();
+            // 上次进程残留的未整理 take 交给后台队列补做；这里可能晚于第一次录音，TakeLibrary 会跳过本进程创建的 take
+            TakeLibrary.get(this).recoverUnfinished();
+            resumeUploads();
+            PlayQueue restored = queueStore.load();
+            if (restored != null) {
+                mainHandler.post(() -> {
+                    if (!queueTouched) {
+                        queue = restored;
+                    }
+                });
+            }
+        }, "ServiceWarmup").start();
+
+        // 在 MainActivity.java 的某个点击事件或 onCreate 中
+//        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+//            Log.d("Test", ">>> 正在发送应用内测试广播...");
+//            Intent intent = new Intent("com.example.mediademo.TEST_NOISY");
+//            intent.setPackage(getPackageName()); // 明确指定包名
+//            sendBroadcast(intent);
+//        }, 5000); // 启动 5 秒后自动发广播
+    }
+    // 服务自己持有的资源；缓存和池子由各自的类登记
+    private void registerMemoryConsumers() {
+        MemoryGovernor governor = MemoryGovernor.get();
+        governor.register("预热 AudioRecord", MemoryGovernor.PRIORITY_PREWARM, new MemoryGovernor.Consumer() {
+            @Override
+            public long sizeBytes() {
+                return prewarmedBytes;
+            }
+
+            @Override
+            public long trim(int level) {
+                return releasePrewarmedRecord();
+            }
+        });
+        governor.register("暂停的播放器", MemoryGovernor.PRIORITY_IDLE, new MemoryGovernor.Consumer() {
+            @Override
+            public long sizeBytes() {
+                return playerPaused ? PLAYER_ESTIMATE_BYTES : 0;
+            }
+
+            // 只释放暂停中的播放器，和 sizeBytes 的口径一致；来电结束后不会自动恢复播放了，但进程保住了
+            @Override
+            public long trim(int level) {
+                if (!playerPaused || mediaPlayer == null) return 0;
+                resumeOnFocusGain = false;
+                stopPlayback();
+                return PLAYER_ESTIMATE_BYTES;
+            }
+        });
+        // 录音路径只登记大小用于 dump，从不收缩
+        governor.register("录音缓冲", MemoryGovernor.PRIORITY_PINNED, new MemoryGovernor.Consumer() {
+            @Override
+            public long sizeBytes() {
+                long bytes = QuickClip.inUseBytes();
+                ArmedRecorder armed = armedRecorder;
+                if (armed != null) bytes += armed.bufferBytes();
+                int[] params = micParams;
+                if (isRecording && params != null) bytes += params[3];
+                // TakeWriter 的块缓冲和写盘积压，换采样率交接时前一个 take 可能还在写
+                CaptureEngine engine = captureEngine;
+                if (engine != null) bytes += engine.writerBufferBytes();
+                CaptureEngine previous = handoverFrom.get();
+                if (previous != null && previous != engine) bytes += previous.writerBufferBytes();
+                return bytes;
+            }
 
+            @Override
+            public long trim(int level) {
+                return 0;
+            }
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryGovernor.get().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryGovernor.get().onLowMemory();
+    }
+
+    // 录音或播放真正开始时才注册，冷启动不需要
+    private void ensureNoisyReceiver() {
+        if (noisyReceiverRegistered) return;
+        noisyReceiverRegistered = true;
         // 注册广播接收器
         IntentFilter filter = new IntentFilter();
         filter.addAction(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
@@ -168,16 +696,44 @@ public class AudioRecordService extends Service {
             registerReceiver(noisyReceiver, filter);
             Log.d(TAG, ">>> 广播接收器已注册");
         }
+    }
 
+    private TakeLibrary takeLibrary() {
+        return TakeLibrary.get(this);
+    }
 
-        // 在 MainActivity.java 的某个点击事件或 onCreate 中
-//        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-//            Log.d("Test", ">>> 正在发送应用内测试广播...");
-//            Intent intent = new Intent("com.example.mediademo.TEST_NOISY");
-//            intent.setPackage(getPackageName()); // 明确指定包名
-//            sendBroadcast(intent);
-//        }, 5000); // 启动 5 秒后自动发广播
+    private MetadataLoader metadataLoader() {
+        if (metadataLoader == null) {
+            metadataLoader = new MetadataLoader(this);
+            // 后台提取完成时，如果还是当前曲目就补发完整的元数据
+            metadataLoader.setListener((uri, metadata) -> {
+                if (uri.equals(queue.currentUri())) {
+                    publishMetadata(uri, metadata);
+                }
+            });
+        }
+        return metadataLoader;
+    }
+
+    private LoudnessScanner loudnessScanner() {
+        if (loudnessScanner == null) {
+            loudnessScanner = new LoudnessScanner(this);
+            loudnessScanner.setListener((uri, result) -> {
+                if (uri.equals(currentUri)) {
+                    applyTrackGain(uri);
+                }
+            });
+        }
+        return loudnessScanner;
     }
+
+    // MediaSession 只有在播放时才需要，第一次播放时再创建
+    private void ensureMediaSession() {
+        if (mediaSession == null) {
+            initMediaSession();
+        }
+    }
+
     // 初始化MediaSession 用于处理耳机播放/暂停/前进按钮的keyEvent
     private void initMediaSession() {
         mediaSession = new MediaSession(this, "MediaDemoSession");
@@ -186,8 +742,8 @@ public class AudioRecordService extends Service {
             @Override
             public void onPlay() {
                 Log.d(TAG,"MediaSession onPlay is called");
-                if (currentIndex != -1 && !playlist.isEmpty()) {
-                    playAudio(playlist.get(currentIndex));
+                if (queue.current() != PlayQueue.NONE) {
+                    playCurrent();
                     Log.d(TAG,"MediaSession onPlay KeyEvent");
                     notifyUiUpdate();
                 }
@@ -214,6 +770,12 @@ public class AudioRecordService extends Service {
                 Log.d(TAG,"MediaSession onSkipToNext KeyEvent");
             }
 
+            @Override
+            public void onSkipToPrevious() {
+                Log.d(TAG,"MediaSession onSkipToPrevious is called");
+                playPrevious();
+            }
+
             // onRecord
 
 
@@ -226,16 +788,36 @@ public class AudioRecordService extends Service {
         if (mediaSession == null) return;
         PlaybackState.Builder stateBuilder = new PlaybackState.Builder()
                 .setActions(PlaybackState.ACTION_PLAY | PlaybackState.ACTION_PAUSE | 
-                           PlaybackState.ACTION_SKIP_TO_NEXT | PlaybackState.ACTION_STOP);
+                           PlaybackState.ACTION_SKIP_TO_NEXT | PlaybackState.ACTION_SKIP_TO_PREVIOUS |
+                           PlaybackState.ACTION_STOP);
         stateBuilder.setState(state, PlaybackState.PLAYBACK_POSITION_UNKNOWN, 1.0f);
         mediaSession.setPlaybackState(stateBuilder.build());
     }
 
+    // 命中缓存时立即发布完整元数据；否则先发布文件名，并以最高优先级请求后台提取
     private void updateMetadata(Uri uri) {
+        TrackMetadata metadata = metadataLoader().getCached(uri);
+        if (metadata == null) {
+            metadataLoader().request(uri, -1);
+        }
+        publishMetadata(uri, metadata);
+    }
+
+    private void publishMetadata(Uri uri, TrackMetadata metadata) {
         if (mediaSession == null) return;
-        MediaMetadata.Builder metadataBuilder = new MediaMetadata.Builder()
-                .putString(MediaMetadata.METADATA_KEY_TITLE, "正在播放: " + uri.getLastPathSegment())
-                .putString(MediaMetadata.METADATA_KEY_ARTIST, "MediaDemo");
+        MediaMetadata.Builder metadataBuilder = new MediaMetadata.Builder();
+        if (metadata == null) {
+            metadataBuilder.putString(MediaMetadata.METADATA_KEY_TITLE, "正在播放: " + uri.getLastPathSegment())
+                    .putString(MediaMetadata.METADATA_KEY_ARTIST, "MediaDemo");
+        } else {
+            metadataBuilder.putString(MediaMetadata.METADATA_KEY_TITLE, metadata.title)
+                    .putString(MediaMetadata.METADATA_KEY_ARTIST, metadata.artist != null ? metadata.artist : "MediaDemo")
+                    .putString(MediaMetadata.METADATA_KEY_ALBUM, metadata.album)
+                    .putLong(MediaMetadata.METADATA_KEY_DURATION, metadata.durationMs);
+            if (metadata.artwork != null) {
+                metadataBuilder.putBitmap(MediaMetadata.METADATA_KEY_ART, metadata.artwork);
+            }
+        }
         mediaSession.setMetadata(metadataBuilder.build());
     }
 
@@ -254,143 +836,983 @@ public class AudioRecordService extends Service {
     }
 
     private void notifyVolumeUpdate(int level) {
+        SharedRing ring = meterRing;
+        if (ring != null) {
+            // 写共享内存，不经过 binder，也不分配对象
+            meterPayload[0] = level;
+            ring.write(SystemClock.elapsedRealtimeNanos(), meterPayload);
+            return;
+        }
         Intent intent = new Intent("com.example.mediademo.VOLUME_UPDATE");
         intent.putExtra("level", level);
         intent.setPackage(getPackageName());
         sendBroadcast(intent);
     }
 
-    public void startRecording(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
-        if (isRecording) return;
+    // 预先在后台构造好 AudioRecord（不开始录音，不占用麦克风指示），点击录音时省掉创建的耗时
+    public void prewarmCapture(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        if (isRecording || prewarmedRecord != null) return;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        String key = captureKey(sampleRate, channelConfig, audioFormat, bufferSize);
+        new Thread(() -> {
+            AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, bufferSize);
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                record.release();
+                return;
+            }
+            synchronized (prewarmLock) {
+                if (prewarmedRecord == null && !isRecording) {
+                    prewarmedRecord = record;
+                    prewarmedKey = key;
+                    prewarmedBytes = bufferSize;
+                    record = null;
+                }
+            }
+            if (record != null) {
+                record.release();
+            }
+        }, "CapturePrewarm").start();
+    }
 
-        int res;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            res = audioManager.requestAudioFocus(focusRequest);
-        } else {
-            res = audioManager.requestAudioFocus(focusChangeListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE);
+    // 参数一致时取走预热好的实例，否则返回 null
+    private AudioRecord takePrewarmedRecord(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        synchronized (prewarmLock) {
+            AudioRecord record = prewarmedRecord;
+            prewarmedRecord = null;
+            prewarmedBytes = 0;
+            if (record != null && !captureKey(sampleRate, channelConfig, audioFormat, bufferSize).equals(prewarmedKey)) {
+                record.release();
+                record = null;
+            }
+            return record;
         }
+    }
 
-        if (res != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-            Log.w(TAG, "无法获取音频焦点，录音取消");
-            return;
+    // 返回释放的缓冲区字节数
+    private long releasePrewarmedRecord() {
+        synchronized (prewarmLock) {
+            long freed = prewarmedBytes;
+            if (prewarmedRecord != null) {
+                prewarmedRecord.release();
+                prewarmedRecord = null;
+            }
+            prewarmedBytes = 0;
+            return freed;
+        }
+    }
+
+    private static String captureKey(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        return sampleRate + "/" + channelConfig + "/" + audioFormat + "/" + bufferSize;
+    }
+
+    public void startRecording(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        startRecording(sampleRate, channelConfig, audioFormat, bufferSize, SystemClock.elapsedRealtimeNanos());
+    }
+
+    // requestedAtNanos 是用户点击的时间，用来统计点击到第一个采样的耗时
+    public void startRecording(int sampleRate, int channelConfig, int audioFormat, int bufferSize, long requestedAtNanos) {
+        if (isRecording || armedRecorder != null) return;
+        StartupMetrics.onRecordRequested();
+        if (!prepareCapture("正在录音...")) {
+            StartupMetrics.onRecordFailed();
+            return;
+        }
+
+        // 开始时就已经过热，直接用低采样率
+        CaptureQualityGovernor governor = qualityGovernor();
+        governor.start();
+        if (governor.level() == CaptureQualityGovernor.Level.FALLBACK && canFallBack(sampleRate)) {
+            bufferSize = fallbackBufferSize(channelConfig, audioFormat, bufferSize, sampleRate);
+            sampleRate = fallbackSampleRate;
+        }
+        if (!startMicCapture(sampleRate, channelConfig, audioFormat, bufferSize, requestedAtNanos)) {
+            StartupMetrics.onRecordFailed();
+            isRecording = false;
+            governor.stop();
+            stopForeground(true);
+        }
+    }
+
+    private boolean startMicCapture(int sampleRate, int channelConfig, int audioFormat, int bufferSize, long requestedAtNanos) {
+        AudioRecord record = takePrewarmedRecord(sampleRate, channelConfig, audioFormat, bufferSize);
+        if (record == null) {
+            record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, bufferSize);
+        }
+        AudioRecordSource source = new AudioRecordSource(record, channelConfig, audioFormat);
+        if (!source.isInitialized()) {
+            source.release();
+            return false;
+        }
+        startCapture(source, bufferSize, requestedAtNanos);
+        micParams = new int[]{sampleRate, channelConfig, audioFormat, bufferSize};
+        return true;
+    }
+
+    private CaptureQualityGovernor qualityGovernor() {
+        if (qualityGovernor == null) {
+            qualityGovernor = new CaptureQualityGovernor(this, (from, to, reason) -> {
+                CaptureEngine engine = captureEngine;
+                if (engine != null) {
+                    engine.applyQuality(to);
+                }
+                if (to == CaptureQualityGovernor.Level.FALLBACK) {
+                    rollOverToFallbackRate();
+                }
+            });
+        }
+        return qualityGovernor;
+    }
+
+    // 下一次过热降级时生效（包括正在进行的录音）；0 表示过热时只降计算量、不换采样率
+    public void setFallbackSampleRate(int sampleRate) {
+        fallbackSampleRate = sampleRate;
+    }
+
+    private boolean canFallBack(int sampleRate) {
+        return fallbackSampleRate > 0 && sampleRate > fallbackSampleRate;
+    }
+
+    private int fallbackBufferSize(int channelConfig, int audioFormat, int bufferSize, int sampleRate) {
+        int min = AudioRecord.getMinBufferSize(fallbackSampleRate, channelConfig, audioFormat);
+        int scaled = (int) ((long) bufferSize * fallbackSampleRate / sampleRate);
+        return min > 0 ? Math.max(min, scaled) : bufferSize;
+    }
+
+    // wav 中途不能改采样率：先用低采样率开一个新 take，新 take 收到第一个采样之后旧 take 才收尾（见 handoverFrom），
+    // 交接处两个 take 有一小段重叠，不丢音频
+    // 设备不允许同时开两个 AudioRecord（Android 10 以下常见）时退回到串行交接：旧 take 收尾完成后再开新 take，
+    // 旧 AudioRecord 停止到新 AudioRecord 开始之间（通常一两百毫秒）的音频会丢失
+    private void rollOverToFallbackRate() {
+        CaptureEngine engine = captureEngine;
+        int[] params = micParams;
+        if (engine == null || params == null || !canFallBack(params[0])) return;
+        int bufferSize = fallbackBufferSize(params[1], params[2], params[3], params[0]);
+        // 耳返跟着新 take 走
+        detachMonitor(engine);
+        handoverFrom.set(engine);
+        if (startMicCapture(fallbackSampleRate, params[1], params[2], bufferSize, SystemClock.elapsedRealtimeNanos())) {
+            Log.w(TAG, "温控 CRITICAL，take " + engine.take().id + " 换成 " + fallbackSampleRate + " Hz 的新 take 接着录音");
+            notifyUiUpdate();
+            return;
+        }
+        handoverFrom.set(null);
+        Log.w(TAG, "温控 CRITICAL，无法同时打开第二个 AudioRecord，take " + engine.take().id + " 收尾后换成 "
+                + fallbackSampleRate + " Hz 继续录音，交接处会有空档");
+        // isRecording 保持 true，界面仍然显示录音中
+        captureEngine = null;
+        rolloverFrom = engine;
+        engine.requestStop();
+    }
+
+    // 录音线程：新 take 已经在出数据（或者没能开始），换采样率前的旧 take 可以收尾了
+    private void finishHandover(CaptureEngine successor) {
+        CaptureEngine previous = handoverFrom.get();
+        if (previous != null && previous != successor && handoverFrom.compareAndSet(previous, null)) {
+            previous.requestStop();
+        }
+    }
+
+    // 主线程：旧 take 已经关闭
+    private void finishRollover(CaptureEngine engine) {
+        if (rolloverFrom != engine) return; // 收尾期间用户已经停止录音
+        rolloverFrom = null;
+        int[] params = micParams;
+        int bufferSize = fallbackBufferSize(params[1], params[2], params[3], params[0]);
+        if (!startMicCapture(fallbackSampleRate, params[1], params[2], bufferSize, SystemClock.elapsedRealtimeNanos())) {
+            Log.e(TAG, "低采样率录音初始化失败，录音结束");
+            isRecording = false;
+            stopForeground(true);
+            qualityGovernor.stop();
+            notifyUiUpdate();
+            return;
+        }
+        notifyUiUpdate();
+    }
+
+    // 焦点、权限、前台服务、耳机拔出广播，单路和多路录音共用
+    private boolean prepareCapture(String notificationText) {
+        int res;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            res = audioManager.requestAudioFocus(focusRequest);
+        } else {
+            res = audioManager.requestAudioFocus(focusChangeListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE);
+        }
+
+        if (res != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+            Log.w(TAG, "无法获取音频焦点，录音取消");
+            return false;
         }
 
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED){
             stopSelf();
-            return;
+            return false;
         }
 
         // 提升为前台服务，防止旋转或切后台被杀
-        startForeground(1, getNotification("正在录音..."));
+        startForeground(1, getNotification(notificationText));
+
+        ensureNoisyReceiver();
+        return true;
+    }
 
-        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, bufferSize);
-        
-        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+    // 同时录两路：麦克风 + 第二路输入（USB 声卡优先，其次 UNPROCESSED，再次 VOICE_COMMUNICATION），
+    // 按时间戳对齐后交织成一个多声道 wav（前面的声道是麦克风）
+    // Android 10 以下大多不允许同一应用并发录音，第二路初始化失败时退回单路
+    public void startMultiSourceRecording(int sampleRate, int bufferSize, long requestedAtNanos) {
+        if (isRecording || armedRecorder != null) return;
+        if (!prepareCapture("正在多路录音...")) return;
+
+        AudioRecord mic = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        AudioRecordSource micSource = new AudioRecordSource(mic, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (!micSource.isInitialized()) {
+            micSource.release();
             isRecording = false;
             stopForeground(true);
             return;
         }
+        AudioRecord second = createSecondaryRecord(sampleRate, bufferSize);
+        if (second == null) {
+            Log.w(TAG, "第二路输入不可用，退回单路录音");
+            startCapture(micSource, bufferSize, requestedAtNanos);
+            return;
+        }
+        AudioRecordSource secondSource = new AudioRecordSource(second, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        // 交织后每帧是两路之和，读缓冲区按声道数放大
+        startCapture(new AlignedMultiSource(micSource, secondSource), bufferSize * 2, requestedAtNanos);
+    }
+
+    private AudioRecord createSecondaryRecord(int sampleRate, int bufferSize) {
+        AudioDeviceInfo usbInput = null;
+        for (AudioDeviceInfo device : audioManager.getDevices(AudioManager.GET_DEVICES_INPUTS)) {
+            int type = device.getType();
+            if (type == AudioDeviceInfo.TYPE_USB_DEVICE || type == AudioDeviceInfo.TYPE_USB_HEADSET) {
+                usbInput = device;
+                break;
+            }
+        }
+        int audioSource;
+        if (usbInput != null) {
+            audioSource = MediaRecorder.AudioSource.MIC;
+        } else if ("true".equals(audioManager.getProperty(AudioManager.PROPERTY_SUPPORT_AUDIO_SOURCE_UNPROCESSED))) {
+            audioSource = MediaRecorder.AudioSource.UNPROCESSED;
+        } else {
+            audioSource = MediaRecorder.AudioSource.VOICE_COMMUNICATION;
+        }
+        AudioRecord record = new AudioRecord(audioSource, sampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return null;
+        }
+        if (usbInput != null) {
+            record.setPreferredDevice(usbInput);
+        }
+        Log.d(TAG, "第二路输入: source=" + audioSource + (usbInput != null ? ", USB " + usbInput.getProductName() : ""));
+        return record;
+    }
+
+    // 用文件或信号发生器代替麦克风，在真机上压测写盘、电平和响度分析，不需要录音权限和音频焦点
+    public void startRecordingFrom(AudioSource source, int bufferSize) {
+        if (isRecording || armedRecorder != null) return;
+        startForeground(1, getNotification("正在录音（模拟输入）..."));
+        startCapture(source, bufferSize, SystemClock.elapsedRealtimeNanos());
+    }
 
+    private void startCapture(AudioSource source, int bufferSize, long requestedAtNanos) {
+        Take take = takeLibrary().createTake(source.sampleRate(), source.channels(), source.bitsPerSample());
+        currentTake = take;
         isRecording = true;
-        audioRecord.startRecording();
+        micParams = null; // 麦克风录音由 startMicCapture 随后设置
+        qualityGovernor().start();
 
-        new Thread(() -> {
-            try (FileOutputStream os = new FileOutputStream(pcmPath)) {
-                byte[] data = new byte[bufferSize];
-                while (isRecording) {
-                    int read = audioRecord.read(data, 0, bufferSize);
-                    if (read < 0) {
-                        Log.e(TAG, "读取音频数据失败，错误码: " + read);
-                        isRecording = false;
-                        break;
+        CaptureEngine[] self = new CaptureEngine[1];
+        CaptureEngine engine = new CaptureEngine(source, take, bufferSize, writerConfig, new CaptureEngine.Listener() {
+            @Override
+            public void onFirstSample() {
+                StartupMetrics.onFirstSample(requestedAtNanos);
+                finishHandover(self[0]);
+            }
+
+            @Override
+            public void onLevel(int level) {
+                notifyVolumeUpdate(level);
+            }
+
+            @Override
+            public void onFinished(CaptureEngine engine, boolean failed) {
+                // 新 take 没出数据就结束了，旧 take 也不能一直录下去
+                finishHandover(engine);
+                long stopLatencyMs = engine.stopLatencyMs();
+                if (stopLatencyMs >= 0) {
+                    StartupMetrics.onStopClosed(stopLatencyMs);
+                }
+                // 在停止回调之前就绪，调用方收到回调后可以直接读
+                Bundle stats = new Bundle();
+                stats.putLong(STATS_READS, engine.readCount());
+                stats.putInt(STATS_GAP_P50_MS, engine.readGapPercentileMs(50));
+                stats.putInt(STATS_GAP_P99_MS, engine.readGapPercentileMs(99));
+                stats.putLong(STATS_GAP_MAX_MS, engine.maxReadGapMs());
+                stats.putLong(STATS_STOP_LATENCY_MS, stopLatencyMs);
+                lastCaptureBundle = stats;
+                // 文件已关闭，整理工作交给后台队列，下一次录音可以马上开始
+                long closedAt = SystemClock.elapsedRealtime();
+                takeLibrary().finishTake(take, engine.dataBytes(), () -> {
+                    StartupMetrics.onStopFinalized(SystemClock.elapsedRealtime() - closedAt);
+                    StopCallback callback = stopCallbacks.remove(take.id);
+                    if (callback != null) {
+                        mainHandler.post(() -> callback.onStopped(take, stopLatencyMs));
                     }
-                    if (read > 0) {
-                        os.write(data, 0, read);
-                        
-                        // 计算 RMS 音量
-                        long sum = 0;
-                        for (int i = 0; i < read - 1; i += 2) {
-                            short sample = (short) ((data[i] & 0xff) | (data[i + 1] << 8));
-                            sum += (long) sample * sample;
-                        }
-                        
-                        double rms = Math.sqrt(sum / (read / 2.0));
-                        // 将 RMS 映射到 0-100 的分贝或线性等级
-                        // 这里的 90 是一个经验参考值，代表最大振幅的对数映射
-                        int level = (int) (20 * Math.log10(rms / 32768.0) + 90);
-                        level = Math.max(0, Math.min(100, level));
-
-                        // 频率限制：每 50ms 更新一次，避免广播过载
-                        long currentTime = System.currentTimeMillis();
-                        if (currentTime - lastVolumeUpdateTime > 50) {
-                            notifyVolumeUpdate(level);
-                            lastVolumeUpdateTime = currentTime;
+                });
+                lastTake = take;
+                lastWriterSummary = engine.writerSummary();
+                lastCaptureStats = String.format(Locale.US, "%d 次读取, 读间隔 p50/p99/max %d/%d/%d ms",
+                        engine.readCount(), engine.readGapPercentileMs(50), engine.readGapPercentileMs(99), engine.maxReadGapMs());
+                LoudnessStore.Result loudness = engine.loudnessResult();
+                if (loudness != null) {
+                    // 以后可能经 SAF 或导出的副本播放，按文件名和长度保存，LoudnessScanner 据此找到
+                    loudnessStore.saveForTake(new File(take.path).getName(), engine.dataBytes(), loudness);
+                }
+                // currentTake 换了说明已经开始了下一次录音，这里只收尾自己的 take
+                if (currentTake == take) {
+                    currentTake = null;
+                }
+                if (captureEngine == engine) {
+                    // 没有经过 stopRecording 就结束了（读错误、文件读完）
+                    captureEngine = null;
+                    isRecording = false;
+                }
+                // 文件关闭之前一直保持前台，避免收尾期间进程被回收
+                mainHandler.post(() -> {
+                    detachMonitor(engine);
+                    finishRollover(engine);
+                    if (!isRecording) {
+                        qualityGovernor.stop();
+                        // 声控录音的 take 结束后还要继续监听，保持前台
+                        if (armedRecorder == null) {
+                            stopForeground(true);
+                            if (!isPlaying()) {
+                                stopSelf();
+                            }
                         }
                     }
+                    notifyUiUpdate();
+                });
+            }
+        });
+        self[0] = engine;
+        engine.applyQuality(qualityGovernor.level());
+        captureEngine = engine;
+        if (monitorEnabled) {
+            attachMonitor(engine);
+        }
+        engine.start();
+    }
 
+    // 录音中切换也立即生效
+    public void setMonitoring(boolean enabled) {
+        monitorEnabled = enabled;
+        CaptureEngine engine = captureEngine;
+        if (engine == null) return;
+        if (enabled) {
+            attachMonitor(engine);
+        } else {
+            detachMonitor(engine);
+        }
+    }
 
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                // 录音异常结束，通知 UI
-                stopRecording();
-                Intent updateIntent = new Intent("com.example.mediademo.UPDATE_UI");
-                updateIntent.setPackage(getPackageName());
-                sendBroadcast(updateIntent);
+    public boolean isMonitoring() {
+        return monitorEnabled;
+    }
+
+    private void attachMonitor(CaptureEngine engine) {
+        if (inputMonitor != null) return;
+        if (!hasWiredHeadphones()) {
+            // 外放会啸叫，蓝牙的延迟又太大，只在有线/USB 耳机上开耳返
+            Log.w(TAG, "没有有线耳机，暂不开启耳返");
+            return;
+        }
+        Take take = engine.take();
+        if (take.bitsPerSample != 16) return;
+        InputMonitor monitor = InputMonitor.create(audioManager, take.sampleRate, take.channels);
+        if (monitor == null) {
+            Log.w(TAG, "耳返创建失败: " + take.sampleRate + " Hz, " + take.channels + " 声道");
+            return;
+        }
+        inputMonitor = monitor;
+        monitorEngine = engine;
+        engine.setMonitor(monitor);
+    }
+
+    private void detachMonitor(CaptureEngine engine) {
+        if (inputMonitor == null || monitorEngine != engine) return;
+        engine.setMonitor(null);
+        lastMonitorSummary = inputMonitor.summary();
+        inputMonitor.release();
+        inputMonitor = null;
+        monitorEngine = null;
+    }
+
+    private boolean hasWiredHeadphones() {
+        for (AudioDeviceInfo device : audioManager.getDevices(AudioManager.GET_DEVICES_OUTPUTS)) {
+            int type = device.getType();
+            if (type == AudioDeviceInfo.TYPE_WIRED_HEADSET || type == AudioDeviceInfo.TYPE_WIRED_HEADPHONES
+                    || type == AudioDeviceInfo.TYPE_USB_HEADSET) {
+                return true;
             }
-        }).start();
+        }
+        return false;
+    }
+
+    // 下一次录音开始时生效，正在进行的录音不受影响
+    public void setWriterConfig(TakeWriter.Config config) {
+        writerConfig = config;
+    }
+
+    public TakeWriter.Config getWriterConfig() {
+        return writerConfig;
     }
 
     public void stopRecording() {
+        stopRecordingAsync(null);
+    }
+
+    // 停止是异步命令，调用方（主线程上的 UI、焦点监听、耳机拔出广播）不会阻塞在音频硬件或磁盘上：
+    // 录音线程排空缓冲、关闭文件，后台队列回填头部之后，在主线程回调 callback
+    public void stopRecordingAsync(StopCallback callback) {
+        // 停止按钮同时解除声控录音，正在录的 take 照常收尾
+        disarm();
+        if (clipRecorder != null) {
+            // 片段录音没有 take，录音线程结束后只刷新界面
+            clipRecorder.requestStop();
+            if (callback != null) {
+                mainHandler.post(() -> callback.onStopped(null, 0));
+            }
+            return;
+        }
         isRecording = false;
-        if (audioRecord != null) {
-            try {
-                if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                    audioRecord.stop();
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping audioRecord", e);
+        CaptureEngine engine = captureEngine;
+        captureEngine = null;
+        // 换采样率的交接还没完成，旧 take 一起停
+        CaptureEngine previous = handoverFrom.getAndSet(null);
+        if (previous != null) {
+            previous.requestStop();
+        }
+        if (engine == null) {
+            // 正在换采样率：不再开新 take，等旧 take 收尾后回调
+            engine = rolloverFrom;
+            rolloverFrom = null;
+        }
+        if (engine == null) {
+            if (qualityGovernor != null) {
+                qualityGovernor.stop();
+            }
+            stopForeground(true);
+            if (!isPlaying()) {
+                stopSelf();
+            }
+            if (callback != null) {
+                Take take = lastTake;
+                mainHandler.post(() -> callback.onStopped(take, 0));
             }
-            audioRecord.release();
-            audioRecord = null;
+            return;
         }
-        stopForeground(true);
-        if (!isPlaying()) {
-            stopSelf();
+        if (callback != null) {
+            stopCallbacks.put(engine.take().id, callback);
         }
+        engine.requestStop();
     }
 
     public boolean isRecording() {
         return isRecording;
     }
 
-    public void setPlaylist (List<Uri> uri) {
-        this.playlist = uri;
-        if(!playlist.isEmpty())
-            playTrack(0);
+    // 声控录音：麦克风保持打开，安静时只做抽样能量检测，有声音时自动开 take（带预录），安静一段时间后自动收尾
+    // 用 stopRecordingAsync 或 disarm 解除
+    public void arm(int sampleRate, int channelConfig, int audioFormat, ArmedRecorder.Config config) {
+        if (isRecording || armedRecorder != null) return;
+        if (!prepareCapture("声控录音：等待声音...")) return;
+        int channels = channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        int bits = audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 8 : 16;
+        // 空闲时一次读 250ms，AudioRecord 的缓冲区要能装下两次读取，唤醒稍晚也不丢数据
+        int bufferSize = Math.max(AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat),
+                2 * ArmedRecorder.idleReadBytes(sampleRate, channels, bits));
+        AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, bufferSize);
+        AudioRecordSource source = new AudioRecordSource(record, channelConfig, audioFormat);
+        if (!source.isInitialized()) {
+            source.release();
+            stopForeground(true);
+            return;
+        }
+        int takeBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        ArmedRecorder[] self = new ArmedRecorder[1];
+        self[0] = new ArmedRecorder(source, config, new ArmedRecorder.Listener() {
+            @Override
+            public void onTriggered(AudioSource segment) {
+                mainHandler.post(() -> {
+                    if (armedRecorder != self[0] || isRecording) {
+                        segment.release(); // 已经解除，或者正在录别的
+                        return;
+                    }
+                    startCapture(segment, takeBufferSize, SystemClock.elapsedRealtimeNanos());
+                    notifyUiUpdate();
+                });
+            }
+
+            @Override
+            public void onDisarmed(boolean failed) {
+                mainHandler.post(() -> {
+                    lastArmedSummary = self[0].summary();
+                    if (armedRecorder == self[0]) {
+                        armedRecorder = null; // 读错误，不是用户解除
+                    }
+                    if (!isRecording) {
+                        stopForeground(true);
+                        if (!isPlaying()) {
+                            stopSelf();
+                        }
+                    }
+                    notifyUiUpdate();
+                });
+            }
+        });
+        armedRecorder = self[0];
+        armedRecorder.start();
+        Log.d(TAG, "声控录音已布防: " + config);
+        notifyUiUpdate();
+    }
+
+    public void disarm() {
+        if (armedRecorder == null) return;
+        ArmedRecorder recorder = armedRecorder;
+        armedRecorder = null;
+        recorder.disarm();
+    }
+
+    public boolean isArmed() {
+        return armedRecorder != null;
     }
 
-    private void playTrack (int index) {
-        if(index < 0 || index > playlist.size())
+    // 只录到内存的短片段，停止仍然用 stopRecordingAsync；录完可以 playQuickClip，然后 keepQuickClip 或 discardQuickClip
+    public void startQuickClip(int sampleRate, int channelConfig, int audioFormat, int bufferSize) {
+        if (isRecording || armedRecorder != null) return;
+        if (!prepareCapture("正在录制片段...")) return;
+        discardQuickClip();
+        AudioRecord record = takePrewarmedRecord(sampleRate, channelConfig, audioFormat, bufferSize);
+        if (record == null) {
+            record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, bufferSize);
+        }
+        AudioRecordSource source = new AudioRecordSource(record, channelConfig, audioFormat);
+        if (!source.isInitialized()) {
+            source.release();
+            stopForeground(true);
             return;
-        else {
-            this.currentIndex = index;
-            Uri uri = playlist.get(index);
-            playAudio(uri);
+        }
+        QuickClip clip = new QuickClip(source.sampleRate(), source.channels(), source.bitsPerSample(), QuickClip.MAX_BYTES);
+        isRecording = true;
+        clipRecorder = new QuickClip.Recorder(source, clip, bufferSize, new QuickClip.Recorder.Listener() {
+            @Override
+            public void onLevel(int level) {
+                notifyVolumeUpdate(level);
+            }
+
+            @Override
+            public void onFinished(QuickClip finished, boolean failed) {
+                mainHandler.post(() -> {
+                    clipRecorder = null;
+                    isRecording = false;
+                    if (failed || finished.dataBytes() == 0) {
+                        finished.release();
+                    } else {
+                        quickClip = finished;
+                    }
+                    stopForeground(true);
+                    notifyUiUpdate();
+                });
+            }
+        });
+        clipRecorder.start();
+    }
+
+    public boolean hasQuickClip() {
+        return quickClip != null;
+    }
+
+    // 直接从内存播放刚录的片段，再次调用从头开始
+    public void playQuickClip() {
+        if (quickClip == null) return;
+        stopQuickClipPlayback();
+        QuickClip.Player player = new QuickClip.Player(quickClip);
+        if (player.start()) {
+            clipPlayer = player;
         }
     }
 
-    public void playnext() {
-        if (playlist != null && currentIndex < playlist.size() - 1) {
-            playTrack(currentIndex+1);
+    // 播完的 player 再 requestStop 没有副作用
+    private void stopQuickClipPlayback() {
+        if (clipPlayer != null) {
+            clipPlayer.requestStop();
+            clipPlayer = null;
         }
-        else {
-            abandonFocus();
-            stopForeground(true);
-            if (!isRecording) {
-                stopSelf();
+    }
+
+    // 保留：在后台把片段一次写成新 take，写完块还回池子（正在播放时等播放线程退出后再还）
+    public void keepQuickClip() {
+        QuickClip clip = quickClip;
+        if (clip == null) return;
+        quickClip = null;
+        stopQuickClipPlayback();
+        editExecutor().execute(() -> {
+            Take take = takeLibrary().createTake(clip.sampleRate, clip.channels, clip.bitsPerSample);
+            long bytes = 0;
+            try {
+                bytes = clip.writeTo(new File(take.path));
+            } catch (IOException e) {
+                Log.e(TAG, "保存片段失败: " + take.path, e);
+            } finally {
+                clip.release();
+            }
+            takeLibrary().finishTake(take, bytes);
+        });
+    }
+
+    // 丢弃：不写盘，块还回池子（正在播放时等播放线程退出后再还）
+    public void discardQuickClip() {
+        stopQuickClipPlayback();
+        if (quickClip != null) {
+            quickClip.release();
+            quickClip = null;
+        }
+    }
+
+    // 当前 take 的 content:// 地址，分享给其它应用时需附带 FLAG_GRANT_READ_URI_PERMISSION
+    public Uri getLiveTapUri() {
+        Take take = getCurrentTake();
+        return take != null ? LiveTapProvider.uriForTake(take.id) : null;
+    }
+
+    // 正在录制的 take，没有录音时返回最近一次结束的 take
+    public Take getCurrentTake() {
+        Take take = currentTake;
+        return take != null ? take : lastTake;
+    }
+
+    // 开头静音的阈值约 -50 dBFS，最多去掉 30 秒，避免整段都是底噪时把 take 裁空
+    private static final int SILENCE_THRESHOLD = 100;
+    private static final long MAX_SILENT_START_MS = 30_000;
+
+    // 任意线程调用：只读 take 开头的静音部分，然后一次 transferTo 生成新 take，原 take 保留
+    public void trimSilentStart(long takeId) {
+        editExecutor().execute(() -> {
+            Take take = takeLibrary().getTake(takeId);
+            if (take == null || take.state != Take.STATE_READY) {
+                Log.w(TAG, "take 不存在或还没整理完，不能裁剪: " + takeId);
+                return;
+            }
+            try {
+                WavEditor.EditList edit = WavEditor.open(take);
+                long silent = WavEditor.leadingSilenceFrames(edit, SILENCE_THRESHOLD, edit.msToFrame(MAX_SILENT_START_MS));
+                if (silent == 0 || silent >= edit.frames()) {
+                    Log.d(TAG, "take " + takeId + " 开头没有可裁掉的静音");
+                    return;
+                }
+                Take trimmed = takeLibrary().saveEdit(edit.trim(silent, edit.frames()), null);
+                Log.d(TAG, "take " + takeId + " 去掉开头 " + silent * 1000 / edit.sampleRate + " ms 静音 -> " + trimmed);
+            } catch (IOException e) {
+                Log.e(TAG, "裁剪 take 失败: " + take.path, e);
+            }
+        });
+    }
+
+    // 频谱瓦片缓存，系统清理缓存目录后下次重新生成
+    public File spectrogramCacheFile(long takeId) {
+        return new File(new File(getCacheDir(), "spectrogram"), "take_" + takeId + ".spg");
+    }
+
+    // 任意线程调用：取消正在生成的频谱图，生成这个 take 的；已经生成过的部分直接沿用
+    public void buildSpectrogram(long takeId) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        spectrogramCancelled.getAndSet(cancelled).set(true);
+        spectrogramExecutor().execute(() -> {
+            if (cancelled.get()) return;
+            Take take = takeLibrary().getTake(takeId);
+            if (take == null || take.state != Take.STATE_READY) {
+                Log.w(TAG, "take 不存在或还没整理完，不能生成频谱图: " + takeId);
+                return;
+            }
+            File cacheFile = spectrogramCacheFile(takeId);
+            File dir = cacheFile.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.e(TAG, "无法创建频谱缓存目录: " + dir);
+                return;
+            }
+            try (SpectrogramTiles tiles = SpectrogramTiles.open(cacheFile, new File(take.path))) {
+                spectrogram = tiles;
+                tiles.generate(spectrogramPool(), cancelled, null);
+                lastSpectrogramSummary = "take " + takeId + ", " + tiles.summary();
+            } catch (IOException e) {
+                Log.e(TAG, "生成频谱图失败: " + take.path, e);
+            } finally {
+                spectrogram = null;
+            }
+        });
+    }
+
+    public void cancelSpectrogram() {
+        spectrogramCancelled.get().set(true);
+    }
+
+    private synchronized ExecutorService spectrogramExecutor() {
+        if (spectrogramExecutor == null) {
+            spectrogramExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Spectrogram"));
+        }
+        return spectrogramExecutor;
+    }
+
+    // 每个核一个工作线程，优先级最低，录音线程不受影响
+    private synchronized ForkJoinPool spectrogramPool() {
+        if (spectrogramPool == null) {
+            spectrogramPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("Spectrogram-" + t.getPoolIndex());
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }, null, false);
+        }
+        return spectrogramPool;
+    }
+
+    private synchronized ExecutorService editExecutor() {
+        if (editExecutor == null) {
+            editExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "WavEditor"));
+        }
+        return editExecutor;
+    }
+
+    // 把今天已整理完成的 take 批量导出到 exports/yyyyMMdd/，进度通过广播发给 Activity
+    public void exportTodayTakes() {
+        if (isExporting) return;
+        exportCancelPending = false;
+        isExporting = true;
+        if (batchExporter == null) {
+            batchExporter = new BatchExporter();
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long since = calendar.getTimeInMillis();
+        String day = new SimpleDateFormat("yyyyMMdd", Locale.US).format(calendar.getTime());
+        File targetDir = new File(getExternalFilesDir(null), "exports/" + day);
+
+        // 查询数据库也放到子线程，避免阻塞主线程
+        new Thread(() -> {
+            List<BatchExporter.Item> items = new ArrayList<>();
+            for (Take take : takeLibrary().listReadyTakesSince(since)) {
+                items.add(BatchExporter.Item.fromTake(take, targetDir));
+            }
+            BatchExporter.Job job = batchExporter.createJob(items, new BatchExporter.Listener() {
+                @Override
+                public void onProgress(int filesDone, int filesTotal, long bytesDone, long bytesTotal) {
+                    notifyExportProgress(filesDone, filesTotal, false, false);
+                }
+
+                @Override
+                public void onFileExported(BatchExporter.FileStats stats) {
+                }
+
+                @Override
+                public void onFinished(List<BatchExporter.FileStats> results, boolean cancelled) {
+                    exportJob = null;
+                    isExporting = false;
+                    notifyExportProgress(results.size(), items.size(), true, cancelled);
+                }
+            });
+            exportJob = job;
+            // 先发布 exportJob 再检查标志，和 cancelExport 的顺序相反，两边至少有一边能看到对方
+            if (exportCancelPending) {
+                job.cancel();
+                return;
+            }
+            job.start();
+        }, "ExportQuery").start();
+    }
+
+    public void cancelExport() {
+        if (!isExporting) return;
+        exportCancelPending = true;
+        BatchExporter.Job job = exportJob;
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    public boolean isExporting() {
+        return isExporting;
+    }
+
+    private void notifyExportProgress(int filesDone, int filesTotal, boolean finished, boolean cancelled) {
+        Intent intent = new Intent("com.example.mediademo.EXPORT_PROGRESS");
+        intent.putExtra("done", filesDone);
+        intent.putExtra("total", filesTotal);
+        intent.putExtra("finished", finished);
+        intent.putExtra("cancelled", cancelled);
+        intent.setPackage(getPackageName());
+        sendBroadcast(intent);
+    }
+
+    private File uploadLedgerDir() {
+        return new File(getFilesDir(), "uploads");
+    }
+
+    private synchronized TakeUploader uploader() {
+        if (uploader == null) {
+            uploader = new TakeUploader(uploadLedgerDir());
+        }
+        return uploader;
+    }
+
+    // 任意线程调用：排队把 take 上传到 endpoint，进度通过 UPLOAD_PROGRESS 广播发给 Activity
+    // take 在上传的协调线程上才查，调用线程不碰数据库
+    public void uploadTake(long takeId, String endpoint) {
+        uploader().upload(takeId, this::uploadableTakeFile, endpoint, uploadListener);
+    }
+
+    // 上传协调线程调用
+    private File uploadableTakeFile(long takeId) {
+        Take take = takeLibrary().getTake(takeId);
+        if (take == null || take.state != Take.STATE_READY) {
+            Log.w(TAG, "take 不存在或还没整理完，不能上传: " + takeId);
+            return null;
+        }
+        return new File(take.path);
+    }
+
+    // 取消当前和排队中的上传；已传完的块记在 ledger 里，下次启动服务时接着传
+    public void cancelUpload() {
+        TakeUploader up;
+        synchronized (this) {
+            up = uploader;
+        }
+        if (up != null) {
+            up.cancelAll();
+        }
+    }
+
+    // 后台线程调用：上次进程被杀时没传完的 take 按 ledger 里的地址继续
+    private void resumeUploads() {
+        List<Long> pending = TakeUploader.pendingTakeIds(uploadLedgerDir());
+        for (long takeId : pending) {
+            Take take = takeLibrary().getTake(takeId);
+            if (take == null || take.state != Take.STATE_READY) {
+                Log.w(TAG, "take 已经不存在，放弃上传: " + takeId);
+                if (!TakeUploader.ledgerFile(uploadLedgerDir(), takeId).delete()) {
+                    Log.w(TAG, "无法删除 ledger: " + takeId);
+                }
+                continue;
             }
+            Log.d(TAG, "继续上传 take " + takeId);
+            uploader().upload(takeId, new File(take.path), null, uploadListener);
+        }
+    }
+
+    private final TakeUploader.Listener uploadListener = new TakeUploader.Listener() {
+        @Override
+        public void onProgress(long takeId, int chunksDone, int chunksTotal) {
+            notifyUploadProgress(takeId, chunksDone, chunksTotal, false, false);
+        }
+
+        @Override
+        public void onFinished(long takeId, boolean success, boolean cancelled) {
+            notifyUploadProgress(takeId, 0, 0, true, success);
+        }
+    };
+
+    private void notifyUploadProgress(long takeId, int chunksDone, int chunksTotal, boolean finished, boolean success) {
+        Intent intent = new Intent("com.example.mediademo.UPLOAD_PROGRESS");
+        intent.putExtra(TakeLibrary.EXTRA_TAKE_ID, takeId);
+        intent.putExtra("done", chunksDone);
+        intent.putExtra("total", chunksTotal);
+        intent.putExtra("finished", finished);
+        intent.putExtra("success", success);
+        intent.setPackage(getPackageName());
+        sendBroadcast(intent);
+    }
+
+    public void setPlaylist (List<Uri> uri) {
+        queueTouched = true;
+        queue.setAll(uri);
+        queueStore.save(queue);
+        if (!queue.isEmpty())
+            playCurrent();
+    }
+
+    // 插到当前曲目之后播放
+    public void insertNext(Uri uri) {
+        queueTouched = true;
+        queue.insertNext(uri);
+        queueStore.save(queue);
+    }
+
+    // 从队列里删掉当前曲目并播放原来的下一首
+    public void removeCurrent() {
+        int slot = queue.current();
+        if (slot == PlayQueue.NONE) return;
+        queueTouched = true;
+        queue.remove(slot);
+        queueStore.save(queue);
+        playnext();
+    }
+
+    public void setShuffle(boolean enabled) {
+        queueTouched = true;
+        queue.setShuffle(enabled);
+        queueStore.save(queue);
+    }
+
+    public boolean isShuffle() {
+        return queue.isShuffle();
+    }
+
+    private void playCurrent() {
+        Uri uri = queue.currentUri();
+        if (uri == null) return;
+        // 以新的当前曲目为中心重新排队预取，下一首切换时大概率已经在缓存里；随机模式下按随机顺序预取
+        int index = queue.window(prefetchWindow, 5, 5);
+        metadataLoader().prefetch(prefetchWindow, index);
+        loudnessScanner().prefetch(prefetchWindow, index);
+        queueStore.save(queue);
+        playAudio(uri);
+    }
+
+    // 已经是第一首时从头重播当前曲目
+    public void playPrevious() {
+        queueTouched = true;
+        queue.moveToPrevious();
+        playCurrent();
+    }
+
+    public void playnext() {
+        boolean t = AudioTrace.begin("playback.next");
+        try {
+            queueTouched = true;
+            if (queue.moveToNext() != PlayQueue.NONE) {
+                playCurrent();
+            }
+            else {
+                abandonFocus();
+                if (armedRecorder == null) {
+                    stopForeground(true);
+                    if (!isRecording) {
+                        stopSelf();
+                    }
+                }
+            }
+        } finally {
+            AudioTrace.end(t);
         }
     }
 
@@ -409,18 +1831,33 @@ public class AudioRecordService extends Service {
             return;
         }
 
+        ensureNoisyReceiver();
+        ensureMediaSession();
         try {
             if (mediaPlayer != null) {
                 mediaPlayer.release();
             }
+            playerPaused = false;
+            releaseLoudnessEnhancer();
+            currentUri = uri;
+            // prepareAsync 到 onPrepared 跨越回调，用异步切片表示，每个 MediaPlayer 一个 cookie
+            int cookie = ++playerCookie;
             mediaPlayer = new MediaPlayer();
             mediaPlayer.setDataSource(this, uri);
+            AudioTrace.beginAsync("playback.prepare", cookie);
             mediaPlayer.prepareAsync();
             mediaPlayer.setOnPreparedListener(mp -> {
-                mp.start();
-                startForeground(1, getNotification("正在播放音频..."));
-                updatePlaybackState(PlaybackState.STATE_PLAYING);
-                updateMetadata(uri);
+                AudioTrace.endAsync("playback.prepare", cookie);
+                boolean t = AudioTrace.begin("playback.start");
+                try {
+                    applyTrackGain(uri);
+                    mp.start();
+                    startForeground(1, getNotification("正在播放音频..."));
+                    updatePlaybackState(PlaybackState.STATE_PLAYING);
+                    updateMetadata(uri);
+                } finally {
+                    AudioTrace.end(t);
+                }
             });
             mediaPlayer.setOnCompletionListener(mp -> {
                 playnext();
@@ -438,14 +1875,60 @@ public class AudioRecordService extends Service {
             }
             mediaPlayer.release();
             mediaPlayer = null;
+            playerPaused = false;
+            releaseLoudnessEnhancer();
+            currentUri = null;
             // 释放焦点
             abandonFocus();
-            stopForeground(true);
+            if (armedRecorder == null) {
+                stopForeground(true);
+            }
             updatePlaybackState(PlaybackState.STATE_STOPPED);
             notifyUiUpdate();
         }
     }
 
+    // 按缓存的响度结果计算当前曲目的增益，还没分析出来时保持原音量，分析完成后由 LoudnessScanner 回调再应用
+    private void applyTrackGain(Uri uri) {
+        if (mediaPlayer == null) return;
+        LoudnessStore.Result result = loudnessStore.getCached(uri.toString());
+        double gainDb = result != null ? result.gainDb(LoudnessStore.TARGET_LUFS) : 0;
+        if (gainDb > 0) {
+            // MediaPlayer 的音量只能衰减，提升交给 LoudnessEnhancer（单位 mB）
+            trackGain = 1.0f;
+            try {
+                if (loudnessEnhancer == null) {
+                    loudnessEnhancer = new LoudnessEnhancer(mediaPlayer.getAudioSessionId());
+                }
+                loudnessEnhancer.setTargetGain((int) Math.round(gainDb * 100));
+                loudnessEnhancer.setEnabled(true);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "LoudnessEnhancer 不可用", e);
+            }
+        } else {
+            trackGain = (float) Math.pow(10.0, gainDb / 20.0);
+            if (loudnessEnhancer != null) {
+                loudnessEnhancer.setEnabled(false);
+            }
+        }
+        Log.d(TAG, "响度归一化增益: " + gainDb + " dB");
+        applyVolume();
+    }
+
+    // 曲目增益与焦点 duck 叠加
+    private void applyVolume() {
+        if (mediaPlayer == null) return;
+        float volume = trackGain * (ducked ? DUCK_VOLUME : 1.0f);
+        mediaPlayer.setVolume(volume, volume);
+    }
+
+    private void releaseLoudnessEnhancer() {
+        if (loudnessEnhancer != null) {
+            loudnessEnhancer.release();
+            loudnessEnhancer = null;
+        }
+    }
+
     private void abandonFocus() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             if (focusRequest != null) {
@@ -460,6 +1943,44 @@ public class AudioRecordService extends Service {
         return mediaPlayer != null && mediaPlayer.isPlaying();
     }
 
+    // adb shell dumpsys activity service com.example.mediademo/.AudioRecordService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("进程: " + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? Application.getProcessName() : android.os.Process.myPid()));
+        writer.println("录音: " + (isRecording ? "进行中" : "空闲"));
+        writer.println("启动预算: 第一帧 " + StartupMetrics.firstFrameMs() + " ms, 第一个采样 "
+                + StartupMetrics.lastFirstSampleMs() + " ms, 停止 " + StartupMetrics.lastStopMs()
+                + " ms, 整理 " + StartupMetrics.lastFinalizeMs() + " ms, 超预算 "
+                + StartupMetrics.budgetViolations() + " 次");
+        writer.println("写盘策略: " + writerConfig);
+        if (lastWriterSummary != null) {
+            writer.println("上一个 take 写盘: " + lastWriterSummary);
+        }
+        if (lastCaptureStats != null) {
+            writer.println("上一个 take 采集: " + lastCaptureStats);
+        }
+        ArmedRecorder armed = armedRecorder;
+        String armedSummary = armed != null ? armed.summary() : lastArmedSummary;
+        writer.println("声控录音: " + (armed != null ? "布防中" : "未布防") + (armedSummary != null ? ", " + armedSummary : ""));
+        InputMonitor monitor = inputMonitor;
+        String monitorSummary = monitor != null ? monitor.summary() : lastMonitorSummary;
+        writer.println("耳返: " + (monitorEnabled ? "开" : "关") + (monitorSummary != null ? ", " + monitorSummary : ""));
+        QuickClip clip = quickClip;
+        writer.println("内存片段: " + (clipRecorder != null ? "录制中" : clip != null ? clip.durationMs() + " ms 待保留/丢弃" : "无")
+                + ", " + QuickClip.poolSummary());
+        SpectrogramTiles tiles = spectrogram;
+        String spectrogramSummary = tiles != null ? "生成中, " + tiles.summary() : lastSpectrogramSummary;
+        writer.println("频谱图: " + (spectrogramSummary != null ? spectrogramSummary : "无"));
+        TakeUploader up = uploader;
+        String uploadSummary = up != null ? up.summary() : null;
+        writer.println("上传: " + (uploadSummary != null ? uploadSummary : "无"));
+        writer.println("过热时降到: " + (fallbackSampleRate > 0 ? fallbackSampleRate + " Hz" : "不换采样率"));
+        if (qualityGovernor != null) {
+            qualityGovernor.dump(writer);
+        }
+        MemoryGovernor.get().dump(writer);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -469,18 +1990,68 @@ public class AudioRecordService extends Service {
             mediaSession.release();
         }
         // 注销广播接收器
-        if (noisyReceiver != null) {
+        if (noisyReceiverRegistered) {
             unregisterReceiver(noisyReceiver);
         }
-        if (audioRecord != null) {
-            audioRecord.release();
+        if (qualityGovernor != null) {
+            qualityGovernor.stop();
+        }
+        if (captureEngine != null) {
+            captureEngine.requestStop();
         }
         if (mediaPlayer != null) {
             mediaPlayer.release();
         }
+        if (batchExporter != null) {
+            batchExporter.shutdown();
+        }
+        if (monitorEngine != null) {
+            detachMonitor(monitorEngine);
+        }
+        disarm();
+        if (clipRecorder != null) {
+            clipRecorder.requestStop();
+        }
+        discardQuickClip();
+        synchronized (this) {
+            if (editExecutor != null) {
+                editExecutor.shutdown(); // 已经开始的导出会做完
+            }
+            spectrogramCancelled.get().set(true); // 已完成的瓦片会在 checkpoint 后保留，下次接着算
+            if (spectrogramExecutor != null) {
+                spectrogramExecutor.shutdown();
+            }
+            if (spectrogramPool != null) {
+                spectrogramPool.shutdown();
+            }
+            if (uploader != null) {
+                uploader.shutdown(); // 没传完的块留在 ledger 里
+            }
+        }
+        queueStore.save(queue);
+        queueStore.shutdown();
+        if (metadataLoader != null) {
+            metadataLoader.setListener(null);
+            metadataLoader.shutdown();
+        }
+        if (loudnessScanner != null) {
+            loudnessScanner.setListener(null);
+            loudnessScanner.shutdown();
+        }
+        MemoryGovernor.get().unregister("预热 AudioRecord");
+        MemoryGovernor.get().unregister("暂停的播放器");
+        MemoryGovernor.get().unregister("录音缓冲");
+        releasePrewarmedRecord();
+        releaseLoudnessEnhancer();
+        if (meterRing != null) {
+            meterRing.close();
+        }
     }
 
-    private void createNotificationChannel() {
+    // 后台预热和第一次 startForeground 都会调用，只创建一次
+    private synchronized void ensureNotificationChannel() {
+        if (notificationChannelCreated) return;
+        notificationChannelCreated = true;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel serviceChannel = new NotificationChannel(CHANNEL_ID, "录音服务", NotificationManager.IMPORTANCE_LOW);
             NotificationManager manager = getSystemService(NotificationManager.class);
@@ -489,6 +2060,7 @@ public class AudioRecordService extends Service {
     }
 
     private Notification getNotification(String content) {
+        ensureNotificationChannel();
         return new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("MediaDemo")
                 .setContentText(content)
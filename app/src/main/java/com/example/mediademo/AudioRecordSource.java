@@ -0,0 +1,84 @@
+package com.example.mediademo;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.util.Log;
+
+import java.io.IOException;
+
+// 真实麦克风：对 AudioRecord 的一层包装，实例可以来自预热
+public class AudioRecordSource implements AudioSource {
+    private static final String TAG = "AudioRecordSource";
+
+    private final AudioRecord record;
+    private final int channels;
+    private final int bitsPerSample;
+    private final AudioTimestamp audioTimestamp = new AudioTimestamp();
+
+    public AudioRecordSource(AudioRecord record, int channelConfig, int audioFormat) {
+        this.record = record;
+        this.channels = channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        this.bitsPerSample = audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 8 : 16;
+    }
+
+    public boolean isInitialized() {
+        return record.getState() == AudioRecord.STATE_INITIALIZED;
+    }
+
+    @Override
+    public int sampleRate() {
+        return record.getSampleRate();
+    }
+
+    @Override
+    public int channels() {
+        return channels;
+    }
+
+    @Override
+    public int bitsPerSample() {
+        return bitsPerSample;
+    }
+
+    @Override
+    public void start() throws IOException {
+        try {
+            record.startRecording();
+        } catch (IllegalStateException e) {
+            throw new IOException("AudioRecord 无法开始录音", e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        return record.read(buffer, offset, length);
+    }
+
+    // CLOCK_MONOTONIC 与 System.nanoTime 是同一个时钟
+    @Override
+    public boolean timestamp(long[] out) {
+        if (record.getTimestamp(audioTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            return false;
+        }
+        out[0] = audioTimestamp.framePosition;
+        out[1] = audioTimestamp.nanoTime;
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                record.stop();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping audioRecord", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        record.release();
+    }
+}
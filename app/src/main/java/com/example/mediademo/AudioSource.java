@@ -0,0 +1,45 @@
+package com.example.mediademo;
+
+import java.io.IOException;
+
+/*
+ * 录音引擎的数据来源
+ *
+ * CaptureEngine 只和这个接口打交道，真实麦克风(AudioRecordSource)、文件回放(FileAudioSource)、
+ * 信号发生器(SignalAudioSource)可以互相替换，没有设备时也能把整条链路（电平、写盘、响度分析）跑起来
+ * 语义与 AudioRecord.read 保持一致：返回读到的字节数，可能为 0；负数表示出错或数据结束
+ */
+public interface AudioSource {
+    int END_OF_STREAM = -1000; // 文件/信号读完，和 AudioRecord 的错误码区分开
+    int ERROR_IO = -1001; // 合成数据源自身的读取错误
+
+    int sampleRate();
+
+    int channels();
+
+    int bitsPerSample();
+
+    void start() throws IOException;
+
+    int read(byte[] buffer, int offset, int length);
+
+    // 在录音线程上调用：停止采集，之后 read 仍可以取出已经缓冲的数据，直到返回 0 或负数
+    void stop();
+
+    // 可以从任意线程（包括主线程）调用：让阻塞中的 read 尽快返回，不能碰音频硬件或做耗时操作
+    default void interrupt() {
+    }
+
+    // 某一帧的采集时间（System.nanoTime 时基），多路录音按它对齐：
+    // out[0] 是自 start 以来的帧序号，out[1] 是这一帧的时间；拿不到时返回 false，调用方退回到 read 返回的时间
+    default boolean timestamp(long[] out) {
+        return false;
+    }
+
+    // 实时数据源（麦克风）不能等，消费者跟不上只能丢数据；非实时数据源可以让生产者等消费者
+    default boolean isRealtime() {
+        return true;
+    }
+
+    void release();
+}
@@ -0,0 +1,73 @@
+package com.example.mediademo;
+
+import android.os.Build;
+import android.os.Trace;
+
+/*
+ * android.os.Trace 的薄封装，用于在 Perfetto/systrace 里把录音、播放和 UI 更新放在同一条时间线上
+ *
+ * Android 10+ 上只有在抓取 trace 时 Trace.isEnabled() 才为 true，平时每个埋点只多一次 volatile 读和一次判断
+ * Android 10 以下没有 isEnabled/异步切片/计数器接口，只有 setForceOnLegacy(true) 时才打同步区间
+ * 两个开关由 MainActivity 的启动参数经 AudioEngineClient.setTraceOptions 同时设置界面进程和 :audio 进程，例如
+ *   adb shell am start -n com.example.mediademo/.MainActivity --ez traceLegacy true
+ *
+ * 同步区间必须成对：begin 返回是否真的开始了，end 时把它传回来，避免中途开关导致 begin/end 不匹配
+ *   boolean t = AudioTrace.begin("capture.read");
+ *   try { ... } finally { AudioTrace.end(t); }
+ */
+public final class AudioTrace {
+    private static volatile boolean enabled = true; // 总开关，关掉后所有埋点直接返回
+    private static volatile boolean forceOnLegacy = false; // Android 10 以下需要手动打开
+
+    private AudioTrace() {
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static void setForceOnLegacy(boolean on) {
+        forceOnLegacy = on;
+    }
+
+    public static boolean isActive() {
+        if (!enabled) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return Trace.isEnabled();
+        }
+        return forceOnLegacy;
+    }
+
+    public static boolean begin(String name) {
+        if (!isActive()) return false;
+        Trace.beginSection(name);
+        return true;
+    }
+
+    public static void end(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    // 异步切片可以跨线程、跨回调，例如 prepareAsync 到 onPrepared
+    public static void beginAsync(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && isActive()) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    public static void endAsync(String name, int cookie) {
+        // 结束时不判断开关，避免抓取期间开始、停止后结束的切片一直挂着
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && enabled) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+
+    // 计数器轨道，例如缓冲区水位、电平发布频率
+    public static void counter(String name, long value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && isActive()) {
+            Trace.setCounter(name, value);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.mediademo;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * 批量导出/转换录音
+ *
+ * 原来的 pcmToWav 在主线程上用 1KB 堆缓冲区逐块 read/write，一次只能转换一个文件
+ * 这里每个文件只写 44 字节的新 wav 头，音频数据用 FileChannel.transferTo 交给内核直接在两个文件之间搬运（零拷贝）
+ * 多个文件在与 CPU 核数相同的固定线程池上并行，瓶颈只剩存储 I/O
+ */
+public class BatchExporter {
+    private static final String TAG = "BatchExporter";
+    // 每次 transferTo 最多搬运的字节数，切片是为了能及时响应取消和上报进度
+    private static final long TRANSFER_SLICE = 8L * 1024 * 1024;
+
+    // 一个导出条目：源文件中 [dataOffset, dataOffset + dataLength) 是裸 pcm 数据
+    public static class Item {
+        public final File source;
+        public final File target;
+        public final long dataOffset;
+        public final long dataLength;
+        public final int sampleRate;
+        public final int channels;
+        public final int bitsPerSample;
+
+        public Item(File source, File target, long dataOffset, long dataLength, int sampleRate, int channels, int bitsPerSample) {
+            this.source = source;
+            this.target = target;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bitsPerSample = bitsPerSample;
+        }
+
+        // 已整理好的 take 本身就是 wav，跳过 44 字节的头部，按数据库里的长度导出
+        public static Item fromTake(Take take, File targetDir) {
+            File source = new File(take.path);
+            return new Item(source, new File(targetDir, source.getName()), WavHeader.HEADER_SIZE, take.dataBytes,
+                    take.sampleRate, take.channels, take.bitsPerSample);
+        }
+
+        // 裸 pcm 文件（例如旧版的 record.pcm）整个文件都是数据
+        public static Item fromPcm(File pcm, File target, int sampleRate, int channels, int bitsPerSample) {
+            return new Item(pcm, target, 0, -1, sampleRate, channels, bitsPerSample);
+        }
+    }
+
+    // 单个文件的吞吐统计
+    public static class FileStats {
+        public final Item item;
+        public final long bytes;
+        public final long elapsedNanos;
+        public final boolean success;
+
+        FileStats(Item item, long bytes, long elapsedNanos, boolean success) {
+            this.item = item;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.success = success;
+        }
+
+        public double megabytesPerSecond() {
+            return elapsedNanos > 0 ? bytes / 1048576.0 / (elapsedNanos / 1e9) : 0;
+        }
+    }
+
+    // 回调在工作线程上执行，调用方自行切换线程
+    public interface Listener {
+        void onProgress(int filesDone, int filesTotal, long bytesDone, long bytesTotal);
+
+        void onFileExported(FileStats stats);
+
+        void onFinished(List<FileStats> results, boolean cancelled);
+    }
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "BatchExporter");
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+
+    // 先拿到 Job 引用再 start，调用方可以在任何回调到来之前保存它用于取消
+    public Job createJob(List<Item> items, Listener listener) {
+        return new Job(items, listener);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public class Job {
+        private final List<Item> items;
+        private final Listener listener;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final AtomicBoolean finished = new AtomicBoolean(false); // onFinished 只回调一次
+        private final AtomicInteger filesDone = new AtomicInteger();
+        private final AtomicLong bytesDone = new AtomicLong();
+        private final List<FileStats> results = new ArrayList<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private long bytesTotal;
+
+        Job(List<Item> items, Listener listener) {
+            this.items = items;
+            this.listener = listener;
+        }
+
+        public void start() {
+            for (Item item : items) {
+                bytesTotal += item.dataLength >= 0 ? item.dataLength : item.source.length() - item.dataOffset;
+            }
+            if (items.isEmpty()) {
+                if (finished.compareAndSet(false, true)) {
+                    listener.onFinished(results, false);
+                }
+                return;
+            }
+            synchronized (futures) {
+                // start 之前已经 cancel：onFinished 已经回调过，不再提交
+                if (cancelled.get()) return;
+                for (Item item : items) {
+                    futures.add(pool.submit(() -> runItem(item)));
+                }
+            }
+        }
+
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                // 排队中的条目直接取消；正在传输的条目在下一个切片边界退出并删除半成品
+                synchronized (futures) {
+                    for (Future<?> future : futures) {
+                        future.cancel(false);
+                    }
+                }
+                if (finished.compareAndSet(false, true)) {
+                    listener.onFinished(snapshotResults(), true);
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private void runItem(Item item) {
+            if (cancelled.get()) return;
+            long start = System.nanoTime();
+            long copied = 0;
+            boolean success = false;
+            try {
+                copied = exportOne(item, cancelled, bytesDone);
+                success = !cancelled.get();
+            } catch (IOException e) {
+                Log.e(TAG, "导出失败: " + item.source, e);
+            }
+            if (!success && item.target.exists() && !item.target.delete()) {
+                Log.w(TAG, "无法删除未完成的导出文件: " + item.target);
+            }
+            if (cancelled.get()) return;
+
+            FileStats stats = new FileStats(item, copied, System.nanoTime() - start, success);
+            Log.d(TAG, String.format(java.util.Locale.US, "%s: %d 字节, %.1f MB/s",
+                    item.target.getName(), copied, stats.megabytesPerSecond()));
+            int done;
+            synchronized (results) {
+                results.add(stats);
+                done = filesDone.incrementAndGet();
+            }
+            listener.onFileExported(stats);
+            listener.onProgress(done, items.size(), bytesDone.get(), bytesTotal);
+            if (done == items.size() && finished.compareAndSet(false, true)) {
+                listener.onFinished(snapshotResults(), false);
+            }
+        }
+
+        private List<FileStats> snapshotResults() {
+            synchronized (results) {
+                return new ArrayList<>(results);
+            }
+        }
+    }
+
+    // 写新头部，然后把源文件的数据区间整段 transferTo 到目标文件，返回搬运的字节数
+    public static long exportOne(Item item, AtomicBoolean cancelled, AtomicLong bytesDone) throws IOException {
+        File parent = item.target.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建导出目录: " + parent);
+        }
+        try (FileInputStream in = new FileInputStream(item.source);
+             FileOutputStream out = new FileOutputStream(item.target);
+             FileChannel src = in.getChannel();
+             FileChannel dst = out.getChannel()) {
+            long available = Math.max(0, src.size() - item.dataOffset);
+            long length = item.dataLength >= 0 ? Math.min(item.dataLength, available) : available;
+            dst.write(WavHeader.build(length, item.sampleRate, item.channels, item.bitsPerSample));
+
+            long position = item.dataOffset;
+            long end = item.dataOffset + length;
+            while (position < end) {
+                if (cancelled != null && cancelled.get()) {
+                    break;
+                }
+                long n = src.transferTo(position, Math.min(TRANSFER_SLICE, end - position), dst);
+                if (n <= 0) break;
+                position += n;
+                if (bytesDone != null) bytesDone.addAndGet(n);
+            }
+            return position - item.dataOffset;
+        }
+    }
+}
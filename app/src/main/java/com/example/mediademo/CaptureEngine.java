@@ -0,0 +1,346 @@
+package com.example.mediademo;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 录音主循环：从 AudioSource 读数据，写入 take 文件，发布给 LiveTap，计算电平和响度
+ *
+ * 原来写在 AudioRecordService.startRecording 的匿名线程里，和 AudioRecord 绑死，只能在真机上实时跑
+ * 抽出来之后数据源可以换成 FileAudioSource / SignalAudioSource，非实时模式下几小时的音频几秒就能跑完，
+ * 结束时的日志给出实时倍率和最大读间隔，用来检查吞吐与延迟
+ * 一个引擎只负责一个 take，回调都在录音线程上执行
+ * 写盘交给 TakeWriter：数据攒成整块后交给它自己的写盘线程，何时 force 由 TakeWriter.Config 决定，录音线程不等存储
+ *
+ * 停止是异步的：requestStop 只置标志并唤醒 read，可以在主线程调用；
+ * 录音线程随后自己调用 source.stop()，把数据源里已经缓冲的数据读完（最多 DRAIN_TIMEOUT），再关闭文件、回调 onFinished
+ */
+public class CaptureEngine implements Runnable {
+    private static final String TAG = "CaptureEngine";
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int GAP_HISTOGRAM_MS = 256; // 读间隔直方图，1 ms 一格，更长的都记在最后一格
+
+    public interface Listener {
+        void onFirstSample();
+
+        // 0-100 的电平，已经限频
+        void onLevel(int level);
+
+        // 文件已关闭、数据源已释放；failed 表示不是正常停止（读错误、写错误）
+        // requestStop 之后结束时 stopLatencyMs() 给出停止命令到文件关闭的耗时
+        void onFinished(CaptureEngine engine, boolean failed);
+    }
+
+    private final AudioSource source;
+    private final Take take;
+    private final int bufferSize;
+    private final Listener listener;
+    private final LoudnessAnalyzer loudness;
+    private final TakeWriter.Config writerConfig;
+
+    private volatile boolean running;
+    private volatile boolean stopRequested;
+    private volatile long stopRequestedAtNanos;
+    private long stopLatencyNanos = -1;
+    private boolean sourceStopped; // 只在录音线程上使用
+    private volatile long dataBytes;
+    private long readCount;
+    private long maxReadGapNanos;
+    private final int[] gapHistogram = new int[GAP_HISTOGRAM_MS + 1];
+    private long elapsedNanos;
+    private volatile String writerSummary;
+    private volatile TakeWriter activeWriter; // 录制中才有，结束时清掉
+    // 以下由 CaptureQualityGovernor 在主线程上调整，录音线程每次读完检查
+    private volatile long levelIntervalNanos = TimeUnit.MILLISECONDS.toNanos(50); // 默认电平最多 20 次/秒
+    private volatile boolean loudnessEnabled = true;
+    private volatile boolean truePeakEnabled = true;
+    private boolean loudnessSkipped; // 有数据块没做响度分析，只在录音线程上写
+    // 耳返：开启时每次读得更少，读到的数据原样送给 InputMonitor
+    private volatile InputMonitor monitor;
+    private volatile int readSize;
+
+    public CaptureEngine(AudioSource source, Take take, int bufferSize, Listener listener) {
+        this(source, take, bufferSize, TakeWriter.Config.periodic(TakeWriter.DEFAULT_CHUNK_SIZE, 2000), listener);
+    }
+
+    public CaptureEngine(AudioSource source, Take take, int bufferSize, TakeWriter.Config writerConfig, Listener listener) {
+        this.source = source;
+        this.writerConfig = writerConfig;
+        this.take = take;
+        this.bufferSize = bufferSize;
+        this.readSize = bufferSize;
+        this.listener = listener;
+        // 边录边分析响度，停止时结果已经就绪，回放自己的 take 时可以直接归一化
+        this.loudness = new LoudnessAnalyzer(source.sampleRate(), source.channels());
+    }
+
+    public void start() {
+        running = true;
+        new Thread(this, "CaptureEngine-" + take.id).start();
+    }
+
+    // 任意线程调用，立即返回：不碰音频硬件也不碰磁盘，录音线程随后排空、关闭文件并回调 onFinished
+    public void requestStop() {
+        if (stopRequested) return;
+        stopRequestedAtNanos = System.nanoTime();
+        stopRequested = true;
+        source.interrupt();
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    // 停止命令到文件关闭的耗时，没有经过 requestStop 时为 -1
+    public long stopLatencyMs() {
+        return stopLatencyNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(stopLatencyNanos);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Take take() {
+        return take;
+    }
+
+    public long dataBytes() {
+        return dataBytes;
+    }
+
+    public long readCount() {
+        return readCount;
+    }
+
+    public long maxReadGapMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxReadGapNanos);
+    }
+
+    // 读间隔的百分位（毫秒），p99 - p50 就是录音线程的调度抖动；用来对比独立进程与界面同进程
+    public int readGapPercentileMs(double percentile) {
+        long total = 0;
+        for (int count : gapHistogram) total += count;
+        if (total == 0) return 0;
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int ms = 0; ms < gapHistogram.length; ms++) {
+            seen += gapHistogram[ms];
+            if (seen >= target) return ms;
+        }
+        return GAP_HISTOGRAM_MS;
+    }
+
+    // 音频时长 / 实际用时，实时数据源约等于 1
+    public double realtimeFactor() {
+        long audioMs = take.computeDurationMs(dataBytes);
+        return elapsedNanos > 0 ? audioMs * 1e6 / elapsedNanos : 0;
+    }
+
+    // 结束后 TakeWriter 的统计（write/force 次数、写放大、风险数据量），结束前为 null
+    public String writerSummary() {
+        return writerSummary;
+    }
+
+    // 任意线程调用：录制中 TakeWriter 的块缓冲和写盘积压，不在录制时为 0
+    public long writerBufferBytes() {
+        TakeWriter w = activeWriter;
+        return w != null ? w.bufferBytes() : 0;
+    }
+
+    // 任意线程调用，null 表示关闭耳返、恢复原来的读取大小；旧的 monitor 由调用方释放
+    public void setMonitor(InputMonitor monitor) {
+        int blockAlign = source.channels() * source.bitsPerSample() / 8;
+        if (monitor != null) {
+            int size = Math.min(bufferSize, monitor.preferredReadBytes());
+            readSize = Math.max(blockAlign, size - size % blockAlign);
+        } else {
+            readSize = bufferSize;
+        }
+        this.monitor = monitor;
+    }
+
+    // 任意线程调用，从下一个数据块开始生效
+    public void applyQuality(CaptureQualityGovernor.Level level) {
+        levelIntervalNanos = TimeUnit.MILLISECONDS.toNanos(level.meterIntervalMs);
+        loudnessEnabled = level.loudness;
+        truePeakEnabled = level.truePeak;
+    }
+
+    // 没有处理过数据、或中途关过响度分析时返回 null（整体响度不完整，交给播放时的 LoudnessScanner 重新扫描）
+    public LoudnessStore.Result loudnessResult() {
+        if (loudness.framesProcessed() == 0 || loudnessSkipped) return null;
+        return new LoudnessStore.Result(loudness.integratedLufs(), loudness.truePeakDbtp());
+    }
+
+    // start() 会在新线程上执行；测试和压测可以直接在当前线程调用
+    @Override
+    public void run() {
+        running = true;
+        boolean failed = false;
+        long bytes = 0;
+        int bitsPerSample = source.bitsPerSample();
+        int blockAlign = source.channels() * bitsPerSample / 8;
+        long[] timestamp = new long[2];
+        // 其它应用可以通过 LiveTapProvider 边录边读，这里只负责发布已写入的长度
+        LiveTapHub.LiveTake liveTap = LiveTapHub.get().begin(take);
+        long startNanos = System.nanoTime();
+        TakeWriter writer = null;
+        // 直接写 wav：先写长度为 0 的占位头，结束后由 TakeLibrary 在后台回填
+        try (TakeWriter w = new TakeWriter(new File(take.path),
+                WavHeader.build(0, source.sampleRate(), source.channels(), bitsPerSample), writerConfig)) {
+            writer = w;
+            activeWriter = w;
+            // 读者只能看到已经交给内核的部分，由写盘线程每写出一段发布一次
+            w.setWrittenListener(liveTap::publish);
+            source.start();
+            byte[] data = new byte[bufferSize];
+            boolean firstSample = true;
+            long lastLevelNanos = 0;
+            long lastReadNanos = System.nanoTime();
+            int publishCount = 0;
+            long publishWindowStart = lastReadNanos;
+            boolean draining = false;
+            long drainDeadline = 0;
+            while (true) {
+                if (stopRequested && !draining) {
+                    // 停止采集，但已经进入缓冲区的数据照常写完
+                    draining = true;
+                    drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+                    boolean t = AudioTrace.begin("capture.stop");
+                    try {
+                        source.stop();
+                        sourceStopped = true;
+                    } finally {
+                        AudioTrace.end(t);
+                    }
+                } else if (draining && System.nanoTime() > drainDeadline) {
+                    break;
+                }
+                boolean t = AudioTrace.begin("capture.read");
+                int read;
+                int size = readSize;
+                try {
+                    read = source.read(data, 0, size);
+                } finally {
+                    AudioTrace.end(t);
+                }
+                long now = System.nanoTime();
+                if (read < 0) {
+                    if (read != AudioSource.END_OF_STREAM && !draining) {
+                        Log.e(TAG, "读取音频数据失败，错误码: " + read);
+                        failed = true;
+                    }
+                    break;
+                }
+                if (read == 0) {
+                    if (draining) break; // 缓冲区已经读空
+                    continue;
+                }
+                readCount++;
+                long gapNanos = now - lastReadNanos;
+                maxReadGapNanos = Math.max(maxReadGapNanos, gapNanos);
+                if (readCount > 1) {
+                    gapHistogram[(int) Math.min(GAP_HISTOGRAM_MS, gapNanos / 1_000_000)]++;
+                }
+                lastReadNanos = now;
+                if (firstSample) {
+                    firstSample = false;
+                    listener.onFirstSample();
+                }
+                // 一次 read 填满了多少缓冲区：长期接近 100% 说明读得不够快，底层环形缓冲区在堆积
+                AudioTrace.counter("capture.readFill%", read * 100L / size);
+
+                // 耳返在写盘之前，尽早把数据送到耳机
+                InputMonitor m = monitor;
+                if (m != null) {
+                    long lastFrame = (bytes + read) / blockAlign - 1;
+                    long captureNanos = now;
+                    if (source.timestamp(timestamp)) {
+                        captureNanos = timestamp[1] + (lastFrame - timestamp[0]) * 1_000_000_000L / source.sampleRate();
+                    }
+                    m.write(data, 0, read, captureNanos);
+                }
+
+                t = AudioTrace.begin("capture.write");
+                try {
+                    w.append(data, 0, read);
+                    if (liveTap.hasWaiters()) {
+                        w.flush();
+                    }
+                } finally {
+                    AudioTrace.end(t);
+                }
+                bytes += read;
+                dataBytes = bytes;
+                AudioTrace.counter("writer.atRiskKB", w.atRiskBytes() / 1024);
+
+                t = AudioTrace.begin("capture.meter");
+                try {
+                    if (bitsPerSample == 16) {
+                        if (loudnessEnabled) {
+                            loudness.setTruePeakEnabled(truePeakEnabled);
+                            loudness.processPcm16(data, 0, read);
+                        } else {
+                            loudnessSkipped = true;
+                        }
+                    }
+                    if (now - lastLevelNanos > levelIntervalNanos) {
+                        listener.onLevel(computeLevel(data, read));
+                        lastLevelNanos = now;
+                        publishCount++;
+                    }
+                } finally {
+                    AudioTrace.end(t);
+                }
+
+                // 电平发布频率，每秒结算一次
+                if (now - publishWindowStart >= 1_000_000_000L) {
+                    AudioTrace.counter("meter.publishPerSec", publishCount * 1_000_000_000L / (now - publishWindowStart));
+                    publishCount = 0;
+                    publishWindowStart = now;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "录音写入失败: " + take.path, e);
+            failed = true;
+        } finally {
+            // 文件已经由 try-with-resources 关闭
+            if (stopRequested) {
+                stopLatencyNanos = System.nanoTime() - stopRequestedAtNanos;
+            }
+            running = false;
+            elapsedNanos = System.nanoTime() - startNanos;
+            if (!sourceStopped) {
+                source.stop();
+            }
+            source.release();
+            LiveTapHub.get().finish(liveTap, bytes);
+            Log.d(TAG, String.format(java.util.Locale.US, "take %d 结束: %d ms 音频, 实时倍率 %.1fx, %d 次读取, 读间隔 p50/p99/max %d/%d/%d ms",
+                    take.id, take.computeDurationMs(bytes), realtimeFactor(), readCount,
+                    readGapPercentileMs(50), readGapPercentileMs(99), maxReadGapMs()));
+            activeWriter = null;
+            if (writer != null) {
+                writerSummary = writer.summary();
+                Log.d(TAG, "take " + take.id + " 写盘: " + writerSummary);
+            }
+            listener.onFinished(this, failed);
+        }
+    }
+
+    // 计算 RMS 音量，映射到 0-100
+    // 16 位 pcm 的 0-100 电平，QuickClip 的录音线程也用它
+    static int computeLevel(byte[] data, int read) {
+        long sum = 0;
+        for (int i = 0; i < read - 1; i += 2) {
+            short sample = (short) ((data[i] & 0xff) | (data[i + 1] << 8));
+            sum += (long) sample * sample;
+        }
+        double rms = Math.sqrt(sum / (read / 2.0));
+        // 这里的 90 是一个经验参考值，代表最大振幅的对数映射
+        int level = (int) (20 * Math.log10(rms / 32768.0) + 90);
+        return Math.max(0, Math.min(100, level));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.mediademo;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/*
+ * 按温度和省电模式分级降低录音时的计算量
+ *
+ * 长时间录音时机身发热，系统降频后录音线程开始错过读取时机；这里监听 PowerManager 的温控状态（API 29+）和省电模式，
+ * 压力越大，关掉的可选处理越多：
+ *   NORMAL   电平 20 次/秒，完整响度分析（含 4 倍过采样真峰值）
+ *   REDUCED  电平 10 次/秒，关掉真峰值过采样（省电模式或温控 MODERATE）
+ *   MINIMAL  电平 4 次/秒，录音时不做响度分析，留给播放时的 LoudnessScanner（温控 SEVERE）
+ *   FALLBACK 同 MINIMAL，并且当前 take 收尾后换更低的采样率开新 take 接着录（温控 CRITICAL 及以上，可配置关闭）
+ * 每次变化都打日志、写 trace 计数器，并保留最近的变化记录给 service dump
+ * 只在主线程使用
+ */
+public class CaptureQualityGovernor {
+    private static final String TAG = "QualityGovernor";
+    private static final int HISTORY_SIZE = 16;
+
+    public enum Level {
+        NORMAL(50, true, true),
+        REDUCED(100, true, false),
+        MINIMAL(250, false, false),
+        FALLBACK(250, false, false);
+
+        public final long meterIntervalMs;
+        public final boolean loudness;
+        public final boolean truePeak;
+
+        Level(long meterIntervalMs, boolean loudness, boolean truePeak) {
+            this.meterIntervalMs = meterIntervalMs;
+            this.loudness = loudness;
+            this.truePeak = truePeak;
+        }
+    }
+
+    public interface Listener {
+        // 主线程回调
+        void onLevelChanged(Level from, Level to, String reason);
+    }
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final Listener listener;
+    private final ArrayDeque<String> history = new ArrayDeque<>();
+    private Level level = Level.NORMAL;
+    private int thermalStatus;
+    private boolean powerSave;
+    private boolean started;
+    private int changes;
+    private final long[] timeInLevelMs = new long[Level.values().length];
+    private long levelSinceMs = SystemClock.elapsedRealtime();
+
+    private final BroadcastReceiver powerSaveReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context c, Intent intent) {
+            powerSave = powerManager.isPowerSaveMode();
+            evaluate(powerSave ? "省电模式开启" : "省电模式关闭");
+        }
+    };
+
+    private PowerManager.OnThermalStatusChangedListener thermalListener; // API 29+，在 start 里创建
+
+    public CaptureQualityGovernor(Context context, Listener listener) {
+        this.context = context;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.listener = listener;
+    }
+
+    // 录音开始时调用；重复调用无副作用
+    public void start() {
+        if (started || powerManager == null) return;
+        started = true;
+        context.registerReceiver(powerSaveReceiver, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        powerSave = powerManager.isPowerSaveMode();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (thermalListener == null) {
+                thermalListener = status -> {
+                    thermalStatus = status;
+                    evaluate("温控状态 " + thermalName(status));
+                };
+            }
+            // 注册时会立即回调一次当前状态
+            powerManager.addThermalStatusListener(thermalListener);
+            thermalStatus = powerManager.getCurrentThermalStatus();
+        }
+        evaluate("开始监听");
+    }
+
+    // 录音结束时调用，级别回到 NORMAL，下次录音重新评估
+    public void stop() {
+        if (!started) return;
+        started = false;
+        context.unregisterReceiver(powerSaveReceiver);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            powerManager.removeThermalStatusListener(thermalListener);
+        }
+        setLevel(Level.NORMAL, "停止监听");
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    private void evaluate(String reason) {
+        Level target;
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_CRITICAL) {
+            target = Level.FALLBACK;
+        } else if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+            target = Level.MINIMAL;
+        } else if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE || powerSave) {
+            target = Level.REDUCED;
+        } else {
+            target = Level.NORMAL;
+        }
+        setLevel(target, reason);
+    }
+
+    private void setLevel(Level target, String reason) {
+        if (target == level) return;
+        Level from = level;
+        long now = SystemClock.elapsedRealtime();
+        timeInLevelMs[from.ordinal()] += now - levelSinceMs;
+        levelSinceMs = now;
+        level = target;
+        changes++;
+        String entry = String.format(Locale.US, "%tT %s -> %s（%s）", System.currentTimeMillis(), from, target, reason);
+        if (history.size() == HISTORY_SIZE) history.removeFirst();
+        history.addLast(entry);
+        Log.i(TAG, "录音质量 " + entry);
+        AudioTrace.counter("quality.level", target.ordinal());
+        listener.onLevelChanged(from, target, reason);
+    }
+
+    public void dump(PrintWriter writer) {
+        long now = SystemClock.elapsedRealtime();
+        writer.println("录音质量: " + level + ", 温控 " + thermalName(thermalStatus) + ", 省电模式 " + (powerSave ? "开" : "关")
+                + ", 共变化 " + changes + " 次");
+        StringBuilder time = new StringBuilder("  各级别累计时长:");
+        for (Level l : Level.values()) {
+            long ms = timeInLevelMs[l.ordinal()] + (l == level ? now - levelSinceMs : 0);
+            time.append(' ').append(l).append('=').append(ms / 1000).append('s');
+        }
+        writer.println(time);
+        for (String entry : history) {
+            writer.println("  " + entry);
+        }
+    }
+
+    private static String thermalName(int status) {
+        switch (status) {
+            case PowerManager.THERMAL_STATUS_NONE:
+                return "NONE";
+            case PowerManager.THERMAL_STATUS_LIGHT:
+                return "LIGHT";
+            case PowerManager.THERMAL_STATUS_MODERATE:
+                return "MODERATE";
+            case PowerManager.THERMAL_STATUS_SEVERE:
+                return "SEVERE";
+            case PowerManager.THERMAL_STATUS_CRITICAL:
+                return "CRITICAL";
+            case PowerManager.THERMAL_STATUS_EMERGENCY:
+                return "EMERGENCY";
+            default:
+                return "SHUTDOWN";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.mediademo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * 把 wav 或裸 pcm 文件当作麦克风回放
+ * 可以按实时速度播放，也可以不等待尽快读完；loop 为 true 时读到结尾从头再来，用来做长时间的压力测试
+ */
+public class FileAudioSource implements AudioSource {
+    private final File file;
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final long dataOffset;
+    private final long dataLength;
+    private final boolean loop;
+    private final SourcePacer pacer;
+
+    private FileInputStream in;
+    private FileChannel channel;
+    private long position; // 相对于数据区起点
+    private long delivered;
+
+    // wav 文件：格式从头部读取
+    public static FileAudioSource wav(File file, boolean realtime, boolean loop) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            WavHeader.Info info = WavHeader.parse(in.getChannel());
+            return new FileAudioSource(file, info.sampleRate, info.channels, info.bitsPerSample,
+                    info.dataOffset, info.dataLength, realtime, loop);
+        }
+    }
+
+    // 裸 pcm 文件：格式由调用方给出
+    public static FileAudioSource pcm(File file, int sampleRate, int channels, int bitsPerSample, boolean realtime, boolean loop) {
+        return new FileAudioSource(file, sampleRate, channels, bitsPerSample, 0, file.length(), realtime, loop);
+    }
+
+    private FileAudioSource(File file, int sampleRate, int channels, int bitsPerSample,
+                            long dataOffset, long dataLength, boolean realtime, boolean loop) {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+        this.loop = loop;
+        this.pacer = new SourcePacer(sampleRate * channels * bitsPerSample / 8, realtime);
+    }
+
+    public FileAudioSource setJitter(long jitterMs) {
+        pacer.setJitter(jitterMs);
+        return this;
+    }
+
+    public FileAudioSource setStalls(long everyMs, long durationMs) {
+        pacer.setStalls(everyMs, durationMs);
+        return this;
+    }
+
+    @Override
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int channels() {
+        return channels;
+    }
+
+    @Override
+    public int bitsPerSample() {
+        return bitsPerSample;
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (dataLength <= 0) throw new IOException("文件没有音频数据: " + file);
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+        position = 0;
+        delivered = 0;
+        pacer.start();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (channel == null || pacer.isStopped()) return END_OF_STREAM;
+        if (position >= dataLength) {
+            if (!loop) return END_OF_STREAM;
+            position = 0;
+        }
+        int n = (int) Math.min(length, dataLength - position);
+        if (!pacer.await(delivered, n)) return END_OF_STREAM;
+        try {
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, n);
+            while (target.hasRemaining()) {
+                int r = channel.read(target, dataOffset + position + target.position() - offset);
+                if (r < 0) break;
+            }
+            int got = target.position() - offset;
+            position += got;
+            delivered += got;
+            return got > 0 ? got : END_OF_STREAM;
+        } catch (IOException e) {
+            return ERROR_IO;
+        }
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return pacer.isRealtime();
+    }
+
+    @Override
+    public boolean timestamp(long[] out) {
+        int frameBytes = channels * bitsPerSample / 8;
+        out[0] = delivered / frameBytes;
+        out[1] = pacer.nanosForByte(delivered);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        pacer.stop();
+    }
+
+    @Override
+    public void interrupt() {
+        pacer.stop();
+    }
+
+    @Override
+    public void release() {
+        pacer.stop();
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            in = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.mediademo;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 录音时的耳返：把录音线程刚读到的数据直接送进一个低延迟 AudioTrack
+ *
+ * 不另开线程也不另建缓冲区，CaptureEngine 读到的同一个 byte[] 用 WRITE_NON_BLOCKING 写进去，
+ * 播放侧跟不上时宁可丢一段耳返，也不能让录音线程等（丢弃计入 droppedFrames）
+ * 缓冲区从两个 burst 起步，每发现一次新的 underrun 就加一个 burst，直到 AudioTrack 的容量上限
+ * 往返延迟 = 某一帧从 AudioTrack 播出的时间 - 这一帧被麦克风采集的时间，两端都用 getTimestamp 推算；
+ * 目标 TARGET_LATENCY_MS，超出时只记录，不自动关闭
+ * write/measure 在录音线程上，release 可能在主线程上，用对象锁互斥（录音线程上几乎不会竞争）
+ */
+public final class InputMonitor {
+    private static final String TAG = "InputMonitor";
+    public static final int TARGET_LATENCY_MS = 30;
+    private static final long MEASURE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int DEFAULT_FRAMES_PER_BURST = 192; // 拿不到 PROPERTY_OUTPUT_FRAMES_PER_BUFFER 时用 4ms@48k
+
+    private final AudioTrack track;
+    private final int sampleRate;
+    private final int blockAlign;
+    private final int framesPerBurst;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private int bufferFrames;
+    private int lastUnderruns;
+    private long framesWritten;
+    private long droppedFrames;
+    private long lastMeasureNanos;
+    private int lastLatencyMs = -1;
+    private int maxLatencyMs = -1;
+    private int growths;
+    private boolean released;
+
+    private InputMonitor(AudioTrack track, int sampleRate, int blockAlign, int framesPerBurst) {
+        this.track = track;
+        this.sampleRate = sampleRate;
+        this.blockAlign = blockAlign;
+        this.framesPerBurst = framesPerBurst;
+    }
+
+    // 只支持 16 位单声道/立体声；创建失败返回 null
+    public static InputMonitor create(AudioManager audioManager, int sampleRate, int channels) {
+        if (channels < 1 || channels > 2) return null;
+        int channelMask = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBuffer = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) return null;
+        int framesPerBurst = DEFAULT_FRAMES_PER_BURST;
+        try {
+            String value = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+            if (value != null) framesPerBurst = Integer.parseInt(value);
+        } catch (NumberFormatException ignored) {
+        }
+        AudioTrack.Builder builder = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(channelMask)
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .build())
+                .setBufferSizeInBytes(minBuffer)
+                .setTransferMode(AudioTrack.MODE_STREAM);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+        }
+        AudioTrack track = builder.build();
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            return null;
+        }
+        InputMonitor monitor = new InputMonitor(track, sampleRate, channels * 2, framesPerBurst);
+        // 从最小的稳定值开始：两个 burst（双缓冲），以后按 underrun 增长
+        monitor.bufferFrames = track.setBufferSizeInFrames(framesPerBurst * 2);
+        monitor.lastUnderruns = track.getUnderrunCount();
+        track.play();
+        Log.d(TAG, "耳返开始: " + sampleRate + " Hz, burst " + framesPerBurst + " 帧, 缓冲 " + monitor.bufferFrames
+                + "/" + track.getBufferCapacityInFrames() + " 帧");
+        return monitor;
+    }
+
+    // 耳返开启时录音每次读多少字节：读得越小，数据越早送到耳机
+    public int preferredReadBytes() {
+        return framesPerBurst * blockAlign;
+    }
+
+    // 录音线程调用；captureNanos 是这段数据最后一帧的采集时间（System.nanoTime 时基）
+    public synchronized void write(byte[] data, int offset, int length, long captureNanos) {
+        if (released) return;
+        int n = track.write(data, offset, length, AudioTrack.WRITE_NON_BLOCKING);
+        if (n < 0) {
+            Log.w(TAG, "耳返写入失败: " + n);
+            return;
+        }
+        framesWritten += n / blockAlign;
+        droppedFrames += (length - n) / blockAlign;
+
+        int underruns = track.getUnderrunCount();
+        if (underruns > lastUnderruns) {
+            lastUnderruns = underruns;
+            int before = bufferFrames;
+            bufferFrames = track.setBufferSizeInFrames(bufferFrames + framesPerBurst);
+            if (bufferFrames > before) {
+                growths++;
+                Log.d(TAG, "耳返欠载 " + underruns + " 次，缓冲增加到 " + bufferFrames + " 帧");
+                AudioTrace.counter("monitor.bufferFrames", bufferFrames);
+            }
+        }
+
+        long now = System.nanoTime();
+        if (n == length && now - lastMeasureNanos >= MEASURE_INTERVAL_NANOS) {
+            lastMeasureNanos = now;
+            measure(captureNanos);
+        }
+    }
+
+    // 刚写入的最后一帧什么时候播出：用输出时间戳外推
+    private void measure(long captureNanos) {
+        if (!track.getTimestamp(timestamp)) return;
+        long lastFrame = framesWritten - 1;
+        long presentNanos = timestamp.nanoTime + (lastFrame - timestamp.framePosition) * 1_000_000_000L / sampleRate;
+        int latencyMs = (int) TimeUnit.NANOSECONDS.toMillis(presentNanos - captureNanos);
+        if (latencyMs < 0) return; // 时间戳还没稳定
+        lastLatencyMs = latencyMs;
+        if (latencyMs > maxLatencyMs) {
+            maxLatencyMs = latencyMs;
+            if (latencyMs > TARGET_LATENCY_MS) {
+                Log.w(TAG, "耳返往返延迟 " + latencyMs + " ms，超过目标 " + TARGET_LATENCY_MS + " ms");
+            }
+        }
+        AudioTrace.counter("monitor.latencyMs", latencyMs);
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "往返延迟 %d ms（最大 %d，目标 %d）, 缓冲 %d 帧（增长 %d 次）, 欠载 %d, 丢弃 %d 帧",
+                lastLatencyMs, maxLatencyMs, TARGET_LATENCY_MS, bufferFrames, growths, lastUnderruns, droppedFrames);
+    }
+
+    public synchronized void release() {
+        if (released) return;
+        released = true;
+        Log.d(TAG, "耳返结束: " + summary());
+        track.pause();
+        track.flush();
+        track.release();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.mediademo;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * 正在录制的 take 的“已写入长度”发布点
+ *
+ * 写盘线程每次 write 之后只更新一个 volatile 长度并 unpark 等待中的读者，不加锁、不等待，
+ * 读者各自持有文件偏移（游标），直接从正在增长的 take 文件里读，磁盘上不会多出任何副本
+ * 读者慢只会让它自己的管道写阻塞（反压），不会影响录音和写盘线程
+ */
+public final class LiveTapHub {
+    private static final LiveTapHub INSTANCE = new LiveTapHub();
+
+    private final Map<Long, LiveTake> live = new ConcurrentHashMap<>();
+
+    public static LiveTapHub get() {
+        return INSTANCE;
+    }
+
+    private LiveTapHub() {
+    }
+
+    public static final class LiveTake {
+        public final long id;
+        public final File file;
+        public final int sampleRate;
+        public final int channels;
+        public final int bitsPerSample;
+        private volatile long dataBytes;
+        private volatile boolean finished;
+        private final CopyOnWriteArrayList<Thread> waiters = new CopyOnWriteArrayList<>();
+
+        LiveTake(Take take) {
+            id = take.id;
+            file = new File(take.path);
+            sampleRate = take.sampleRate;
+            channels = take.channels;
+            bitsPerSample = take.bitsPerSample;
+        }
+
+        public long dataBytes() {
+            return dataBytes;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        // 有读者正在等新数据：录音线程据此提前把缓冲中的数据写出，而不是等块写满
+        public boolean hasWaiters() {
+            return !waiters.isEmpty();
+        }
+
+        // 写盘线程调用：只写 volatile 并唤醒读者
+        public void publish(long dataBytes) {
+            this.dataBytes = dataBytes;
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        // 读者调用：等到有比 cursor 更多的数据、录音结束或超时
+        public void awaitBeyond(long cursor, long timeoutMs) {
+            Thread self = Thread.currentThread();
+            waiters.add(self);
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                while (dataBytes <= cursor && !finished && !self.isInterrupted()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waiters.remove(self);
+            }
+        }
+    }
+
+    public LiveTake begin(Take take) {
+        LiveTake liveTake = new LiveTake(take);
+        live.put(take.id, liveTake);
+        return liveTake;
+    }
+
+    // 录音结束：已经打开的读者读完剩余数据后退出，之后新的读者直接读文件
+    public void finish(LiveTake liveTake, long dataBytes) {
+        // 先发布最终长度再置结束标志，读者看到 finished 时一定也能看到完整长度
+        liveTake.dataBytes = dataBytes;
+        liveTake.finished = true;
+        liveTake.publish(dataBytes);
+        live.remove(liveTake.id);
+    }
+
+    public LiveTake find(long takeId) {
+        return live.get(takeId);
+    }
+}
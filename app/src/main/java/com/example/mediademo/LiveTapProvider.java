@@ -0,0 +1,151 @@
+package com.example.mediademo;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * 让同一台设备上的其它应用（转写、上传等）边录边读正在进行的 take
+ *
+ * content://com.example.mediademo.livetap/take/<id>
+ *   - take 还在录制：openFile 返回管道的读端，每个读者一个线程、一个文件游标，
+ *     先写一个长度字段为 0xFFFFFFFF 的流式 wav 头，然后从正在增长的 take 文件里 transferTo 到管道
+ *     管道满了只阻塞该读者自己的线程（反压），录音线程永远不会等待读者
+ *   - take 已经结束：等后台整理成 READY（wav 头已回填）后返回文件本身的只读描述符
+ * 本 Provider 不导出，外部应用需要通过带 FLAG_GRANT_READ_URI_PERMISSION 的 Intent 获得授权：
+ * 界面通过 IAudioEngine.getLiveTapUri 拿到 Uri，长按导出按钮用 ACTION_SEND 分享出去
+ */
+public class LiveTapProvider extends ContentProvider {
+    private static final String TAG = "LiveTapProvider";
+    public static final String AUTHORITY = "com.example.mediademo.livetap";
+    private static final long POLL_TIMEOUT_MS = 50; // 没有唤醒时的兜底轮询间隔
+    private static final long MAX_TRANSFER = 256 * 1024;
+    private static final long FINALIZE_TIMEOUT_MS = 10_000; // 停止后等后台整理完成的上限
+
+    private final AtomicInteger readerCount = new AtomicInteger();
+
+    public static Uri uriForTake(long takeId) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY)
+                .appendPath("take").appendPath(String.valueOf(takeId)).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("只支持只读打开: " + uri);
+        }
+        long takeId = parseTakeId(uri);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FINALIZE_TIMEOUT_MS);
+        LiveTapHub.LiveTake liveTake;
+        while ((liveTake = LiveTapHub.get().find(takeId)) == null) {
+            // 已经录完的 take：等后台回填完 wav 头、状态变成 READY 再把文件交出去，否则读者会拿到长度为 0 的头
+            Take take = TakeLibrary.get(getContext()).getTake(takeId);
+            if (take == null) throw new FileNotFoundException("没有这个 take: " + uri);
+            if (take.state == Take.STATE_READY) {
+                return ParcelFileDescriptor.open(new File(take.path), ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+            if (take.state == Take.STATE_BROKEN) throw new FileNotFoundException("take 已损坏: " + uri);
+            if (System.nanoTime() > deadline) throw new FileNotFoundException("take 还在整理: " + uri);
+            try {
+                Thread.sleep(POLL_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileNotFoundException("等待 take 整理时被中断: " + uri);
+            }
+        }
+
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("无法创建管道: " + e.getMessage());
+        }
+        ParcelFileDescriptor writeSide = pipe[1];
+        LiveTapHub.LiveTake live = liveTake;
+        Thread reader = new Thread(() -> pump(live, writeSide),
+                "LiveTapReader-" + readerCount.incrementAndGet());
+        reader.start();
+        return pipe[0];
+    }
+
+    // 每个读者独立的游标：从文件头开始，追到录音线程发布的长度为止，然后等待新数据
+    private void pump(LiveTapHub.LiveTake liveTake, ParcelFileDescriptor writeSide) {
+        try (ParcelFileDescriptor.AutoCloseOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(writeSide);
+             FileInputStream in = new FileInputStream(liveTake.file);
+             FileChannel source = in.getChannel();
+             FileChannel sink = out.getChannel()) {
+            // 总长度未知，按流式 wav 的惯例把长度字段写成最大值
+            sink.write(WavHeader.build(0xFFFFFFFFL - 36, liveTake.sampleRate, liveTake.channels, liveTake.bitsPerSample));
+            long cursor = 0; // 相对于数据区起点
+            while (true) {
+                long available = liveTake.dataBytes() - cursor;
+                if (available > 0) {
+                    long n = source.transferTo(WavHeader.HEADER_SIZE + cursor, Math.min(available, MAX_TRANSFER), sink);
+                    if (n <= 0) break;
+                    cursor += n;
+                } else if (liveTake.isFinished()) {
+                    break;
+                } else {
+                    liveTake.awaitBeyond(cursor, POLL_TIMEOUT_MS);
+                }
+            }
+        } catch (IOException e) {
+            // 读者关闭管道是正常结束
+            Log.d(TAG, "读者已断开: " + e.getMessage());
+        }
+    }
+
+    private static long parseTakeId(Uri uri) throws FileNotFoundException {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !"take".equals(segments.get(0))) {
+            throw new FileNotFoundException("不支持的 Uri: " + uri);
+        }
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            throw new FileNotFoundException("不支持的 Uri: " + uri);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "audio/wav";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.mediademo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * 流式响度分析（ITU-R BS.1770-4 / EBU R128）
+ *
+ * K 计权滤波（高架 + 高通两个双二阶）之后，每 100ms 累积一个子块的均方值：
+ *   - 4 个子块组成 400ms 门限块（75% 重叠），得到瞬时响度并计入积分响度
+ *   - 30 个子块组成 3s 窗口，得到短期响度
+ * 积分响度需要 -70 LUFS 绝对门限和 -10 LU 相对门限，这里把门限块能量按 0.1 LU 分箱累加到直方图里，
+ * 无论分析多长的文件，内存都是常数
+ * 真峰值按 BS.1770 附录 2 用 4 倍过采样的 48 阶多相 FIR 估计，这是最耗时的部分，
+ * 设备过热时可以关掉（setTruePeakEnabled），期间只记采样峰值，结果按采样峰值 + 3 dB 保守估计
+ */
+public class LoudnessAnalyzer {
+    private static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+    private static final double HISTOGRAM_MIN_LUFS = -70.0;
+    private static final double HISTOGRAM_STEP_LU = 0.1;
+    private static final int HISTOGRAM_BINS = 1000; // -70 ~ +30 LUFS
+    private static final int SUBBLOCKS_PER_GATE = 4; // 400ms
+    private static final int SUBBLOCKS_SHORT_TERM = 30; // 3s
+
+    // BS.1770-4 附录 2 的 4 倍过采样滤波器，每个相位 12 阶
+    private static final double[][] TRUE_PEAK_PHASES = {
+            {0.0017089843750, 0.0109863281250, -0.0196533203125, 0.0332031250000, -0.0594482421875, 0.1373291015625,
+                    0.9721679687500, -0.1022949218750, 0.0476074218750, -0.0266113281250, 0.0148925781250, -0.0083007812500},
+            {-0.0291748046875, 0.0292968750000, -0.0517578125000, 0.0891113281250, -0.1665039062500, 0.4650878906250,
+                    0.7797851562500, -0.2003173828125, 0.1015625000000, -0.0582275390625, 0.0330810546875, -0.0189208984375},
+            {-0.0189208984375, 0.0330810546875, -0.0582275390625, 0.1015625000000, -0.2003173828125, 0.7797851562500,
+                    0.4650878906250, -0.1665039062500, 0.0891113281250, -0.0517578125000, 0.0292968750000, -0.0291748046875},
+            {-0.0083007812500, 0.0148925781250, -0.0266113281250, 0.0476074218750, -0.1022949218750, 0.9721679687500,
+                    0.1373291015625, -0.0594482421875, 0.0332031250000, -0.0196533203125, 0.0109863281250, 0.0017089843750}
+    };
+    private static final int TRUE_PEAK_TAPS = 12;
+
+    private final int channels;
+    private final int subblockFrames;
+
+    // K 计权系数（两个双二阶级联），按采样率计算
+    private final double b0, b1, b2, a1, a2; // 高架
+    private final double hb0, hb1, hb2, ha1, ha2; // 高通
+    // 每个声道的滤波器状态
+    private final double[] z1, z2, hz1, hz2;
+
+    private final double[] channelSum; // 当前子块每个声道的平方和
+    private int subblockFill;
+    private final double[] subblockEnergy = new double[SUBBLOCKS_SHORT_TERM]; // 最近 30 个子块的能量环
+    private int subblockCount;
+
+    private final long[] histogramCount = new long[HISTOGRAM_BINS];
+    private final double[] histogramEnergy = new double[HISTOGRAM_BINS];
+
+    private final double[][] truePeakHistory; // 每个声道最近 12 个采样
+    private int truePeakPos;
+    private double truePeak;
+    private double samplePeak;
+    private boolean truePeakEnabled = true;
+    private double skippedSamplePeak; // 关掉真峰值期间的采样峰值
+
+    private double momentaryLufs = Double.NEGATIVE_INFINITY;
+    private double shortTermLufs = Double.NEGATIVE_INFINITY;
+    private long framesProcessed;
+
+    public LoudnessAnalyzer(int sampleRate, int channels) {
+        this.channels = channels;
+        this.subblockFrames = sampleRate / 10;
+
+        // 第一级：高架滤波，模拟头部的声学效应
+        double f0 = 1681.974450955533;
+        double gainDb = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10.0, gainDb / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        b0 = (vh + vb * k / q + k * k) / a0;
+        b1 = 2.0 * (k * k - vh) / a0;
+        b2 = (vh - vb * k / q + k * k) / a0;
+        a1 = 2.0 * (k * k - 1.0) / a0;
+        a2 = (1.0 - k / q + k * k) / a0;
+
+        // 第二级：RLB 高通
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1.0 + k / q + k * k;
+        hb0 = 1.0;
+        hb1 = -2.0;
+        hb2 = 1.0;
+        ha1 = 2.0 * (k * k - 1.0) / a0;
+        ha2 = (1.0 - k / q + k * k) / a0;
+
+        z1 = new double[channels];
+        z2 = new double[channels];
+        hz1 = new double[channels];
+        hz2 = new double[channels];
+        channelSum = new double[channels];
+        truePeakHistory = new double[channels][TRUE_PEAK_TAPS];
+    }
+
+    // 交错的 16bit 小端 pcm，长度按字节
+    public void processPcm16(byte[] data, int offset, int length) {
+        int frames = length / (2 * channels);
+        int p = offset;
+        for (int f = 0; f < frames; f++) {
+            for (int ch = 0; ch < channels; ch++) {
+                short s = (short) ((data[p] & 0xff) | (data[p + 1] << 8));
+                p += 2;
+                processSample(ch, s / 32768.0);
+            }
+            endFrame();
+        }
+    }
+
+    // 解码器输出的 ByteBuffer，从 position 读到 limit，不改变 buffer 的位置
+    public void processPcm16(ByteBuffer buffer) {
+        ByteBuffer le = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int frames = le.remaining() / (2 * channels);
+        int p = le.position();
+        for (int f = 0; f < frames; f++) {
+            for (int ch = 0; ch < channels; ch++) {
+                processSample(ch, le.getShort(p) / 32768.0);
+                p += 2;
+            }
+            endFrame();
+        }
+    }
+
+    public void setTruePeakEnabled(boolean enabled) {
+        truePeakEnabled = enabled;
+    }
+
+    private void processSample(int ch, double x) {
+        // 采样峰值与真峰值
+        double ax = Math.abs(x);
+        if (ax > samplePeak) samplePeak = ax;
+        double[] history = truePeakHistory[ch];
+        history[truePeakPos] = x;
+        if (!truePeakEnabled) {
+            if (ax > skippedSamplePeak) skippedSamplePeak = ax;
+        } else for (double[] phase : TRUE_PEAK_PHASES) {
+            double acc = 0;
+            int idx = truePeakPos;
+            for (int t = 0; t < TRUE_PEAK_TAPS; t++) {
+                acc += phase[t] * history[idx];
+                idx = idx == 0 ? TRUE_PEAK_TAPS - 1 : idx - 1;
+            }
+            acc = Math.abs(acc);
+            if (acc > truePeak) truePeak = acc;
+        }
+
+        // K 计权：直接 II 型转置结构
+        double y = b0 * x + z1[ch];
+        z1[ch] = b1 * x - a1 * y + z2[ch];
+        z2[ch] = b2 * x - a2 * y;
+        double w = hb0 * y + hz1[ch];
+        hz1[ch] = hb1 * y - ha1 * w + hz2[ch];
+        hz2[ch] = hb2 * y - ha2 * w;
+        channelSum[ch] += w * w;
+    }
+
+    private void endFrame() {
+        truePeakPos = (truePeakPos + 1) % TRUE_PEAK_TAPS;
+        framesProcessed++;
+        if (++subblockFill < subblockFrames) return;
+
+        // 一个 100ms 子块结束：声道能量相加（单声道/立体声的声道权重都是 1）
+        double energy = 0;
+        for (int ch = 0; ch < channels; ch++) {
+            energy += channelSum[ch] / subblockFrames;
+            channelSum[ch] = 0;
+        }
+        subblockFill = 0;
+        subblockEnergy[subblockCount % SUBBLOCKS_SHORT_TERM] = energy;
+        subblockCount++;
+
+        if (subblockCount >= SUBBLOCKS_PER_GATE) {
+            double gateEnergy = averageLast(SUBBLOCKS_PER_GATE);
+            momentaryLufs = energyToLufs(gateEnergy);
+            addGatingBlock(gateEnergy, momentaryLufs);
+        }
+        if (subblockCount >= SUBBLOCKS_SHORT_TERM) {
+            shortTermLufs = energyToLufs(averageLast(SUBBLOCKS_SHORT_TERM));
+        }
+    }
+
+    private double averageLast(int n) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += subblockEnergy[(subblockCount - i) % SUBBLOCKS_SHORT_TERM];
+        }
+        return sum / n;
+    }
+
+    private void addGatingBlock(double energy, double lufs) {
+        if (lufs < ABSOLUTE_GATE_LUFS) return;
+        int bin = (int) ((lufs - HISTOGRAM_MIN_LUFS) / HISTOGRAM_STEP_LU);
+        bin = Math.min(HISTOGRAM_BINS - 1, Math.max(0, bin));
+        histogramCount[bin]++;
+        histogramEnergy[bin] += energy;
+    }
+
+    // 积分响度：先对过了绝对门限的块求平均，再去掉比平均低 10 LU 的块重新平均
+    public double integratedLufs() {
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            count += histogramCount[i];
+            sum += histogramEnergy[i];
+        }
+        if (count == 0) return Double.NEGATIVE_INFINITY;
+        double relativeGate = energyToLufs(sum / count) + RELATIVE_GATE_LU;
+        int startBin = (int) Math.ceil((relativeGate - HISTOGRAM_MIN_LUFS) / HISTOGRAM_STEP_LU);
+        count = 0;
+        sum = 0;
+        for (int i = Math.max(0, startBin); i < HISTOGRAM_BINS; i++) {
+            count += histogramCount[i];
+            sum += histogramEnergy[i];
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : energyToLufs(sum / count);
+    }
+
+    public double momentaryLufs() {
+        return momentaryLufs;
+    }
+
+    public double shortTermLufs() {
+        return shortTermLufs;
+    }
+
+    public double truePeakDbtp() {
+        // 采样之间的峰值一般比采样峰值高不到 3 dB
+        double peak = Math.max(truePeak, skippedSamplePeak * 1.4125);
+        return peak > 0 ? 20 * Math.log10(peak) : Double.NEGATIVE_INFINITY;
+    }
+
+    public double samplePeakDbfs() {
+        return samplePeak > 0 ? 20 * Math.log10(samplePeak) : Double.NEGATIVE_INFINITY;
+    }
+
+    public long framesProcessed() {
+        return framesProcessed;
+    }
+
+    private static double energyToLufs(double energy) {
+        return energy > 0 ? -0.691 + 10 * Math.log10(energy) : Double.NEGATIVE_INFINITY;
+    }
+}
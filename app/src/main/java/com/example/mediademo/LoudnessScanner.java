@@ -0,0 +1,232 @@
+package com.example.mediademo;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 播放列表文件的后台响度分析
+ *
+ * MediaExtractor + MediaCodec 把文件解码成 16bit pcm，解码器的输出 buffer 直接交给 LoudnessAnalyzer，
+ * 一遍扫描、内存常数，多长的文件都一样
+ * 只用一个低优先级线程，按离当前曲目的远近排队，结果写入 LoudnessStore
+ */
+public class LoudnessScanner {
+    private static final String TAG = "LoudnessScanner";
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    private static final int PREFETCH_AHEAD = 3;
+
+    public interface Listener {
+        // 在主线程回调
+        void onLoudnessReady(Uri uri, LoudnessStore.Result result);
+    }
+
+    private final Context appContext;
+    private final LoudnessStore store;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor worker;
+    private volatile Listener listener;
+
+    public LoudnessScanner(Context context) {
+        appContext = context.getApplicationContext();
+        store = LoudnessStore.get(appContext);
+        worker = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "LoudnessScanner");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        worker.allowCoreThreadTimeOut(true);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // 当前曲目优先，其次是接下来的几首
+    public void prefetch(List<Uri> playlist, int currentIndex) {
+        if (playlist == null || currentIndex < 0 || currentIndex >= playlist.size()) return;
+        List<Runnable> dropped = new ArrayList<>();
+        worker.getQueue().drainTo(dropped);
+        for (Runnable r : dropped) {
+            pending.remove(((ScanTask) r).key);
+        }
+        int to = Math.min(playlist.size() - 1, currentIndex + PREFETCH_AHEAD);
+        for (int i = currentIndex; i <= to; i++) {
+            Uri uri = playlist.get(i);
+            String key = uri.toString();
+            if (store.getCached(key) == null && pending.add(key)) {
+                worker.execute(new ScanTask(uri, key, i - currentIndex));
+            }
+        }
+    }
+
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private class ScanTask implements Runnable, Comparable<ScanTask> {
+        final Uri uri;
+        final String key;
+        final int priority;
+
+        ScanTask(Uri uri, String key, int priority) {
+            this.uri = uri;
+            this.key = key;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(ScanTask other) {
+            return Integer.compare(priority, other.priority);
+        }
+
+        @Override
+        public void run() {
+            try {
+                LoudnessStore.Result result = store.load(key);
+                if (result == null) {
+                    // 自己录的 take，录音时已经算过
+                    result = loadCaptured(uri);
+                    if (result != null) {
+                        store.save(key, result);
+                    }
+                }
+                if (result == null) {
+                    long start = System.currentTimeMillis();
+                    result = analyze(uri);
+                    if (result == null) return;
+                    store.save(key, result);
+                    Log.d(TAG, String.format(java.util.Locale.US, "%s: %.1f LUFS, %.1f dBTP (%d ms)",
+                            uri.getLastPathSegment(), result.integratedLufs, result.truePeakDbtp,
+                            System.currentTimeMillis() - start));
+                }
+                LoudnessStore.Result ready = result;
+                mainHandler.post(() -> {
+                    Listener l = listener;
+                    if (l != null) l.onLoudnessReady(uri, ready);
+                });
+            } finally {
+                pending.remove(key);
+            }
+        }
+    }
+
+    // 按文件名和长度找录音时保存的结果：file:// 直接看文件，content://（SAF、导出的副本）查 DISPLAY_NAME 和 SIZE
+    private LoudnessStore.Result loadCaptured(Uri uri) {
+        String name = null;
+        long size = -1;
+        if ("file".equals(uri.getScheme())) {
+            File file = new File(uri.getPath());
+            name = file.getName();
+            size = file.length();
+        } else if ("content".equals(uri.getScheme())) {
+            try (Cursor c = appContext.getContentResolver().query(uri,
+                    new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, null, null, null)) {
+                if (c != null && c.moveToFirst() && !c.isNull(1)) {
+                    name = c.getString(0);
+                    size = c.getLong(1);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "无法查询 " + uri, e);
+            }
+        }
+        if (name == null || size < 0) return null;
+        return store.loadForDocument(name, size);
+    }
+
+    private LoudnessStore.Result analyze(Uri uri) {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(appContext, uri, null);
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat f = extractor.getTrackFormat(i);
+                String mime = f.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = f;
+                    break;
+                }
+            }
+            if (format == null) return null;
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            LoudnessAnalyzer analyzer = new LoudnessAnalyzer(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!inputDone) {
+                    int in = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (in >= 0) {
+                        ByteBuffer buffer = codec.getInputBuffer(in);
+                        int size = extractor.readSampleData(buffer, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int out = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    // 解码器给出的实际输出格式才是准确的，数据还没开始时按它重建分析器
+                    MediaFormat outFormat = codec.getOutputFormat();
+                    if (analyzer.framesProcessed() == 0) {
+                        analyzer = new LoudnessAnalyzer(outFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                                outFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                    }
+                } else if (out >= 0) {
+                    if (info.size > 0) {
+                        ByteBuffer buffer = codec.getOutputBuffer(out);
+                        buffer.position(info.offset);
+                        buffer.limit(info.offset + info.size);
+                        analyzer.processPcm16(buffer);
+                    }
+                    codec.releaseOutputBuffer(out, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        return new LoudnessStore.Result(analyzer.integratedLufs(), analyzer.truePeakDbtp());
+                    }
+                }
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "响度分析失败: " + uri, e);
+            return null;
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (RuntimeException ignored) {
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
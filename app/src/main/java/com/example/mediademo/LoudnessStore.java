@@ -0,0 +1,149 @@
+package com.example.mediademo;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * 响度分析结果的缓存：key 是播放用的 Uri 字符串
+ * 自己录的 take 在录音时就算出了响度，那时还不知道以后会用哪个 Uri 播放（SAF 的 content://、导出的副本），
+ * 所以另存在 takeKey（文件名 + 文件长度）下；LoudnessScanner 遇到没分析过的 Uri 先按它的文件名和长度找这条结果，
+ * 找到就记到这个 Uri 下，不再重新解码
+ * 内存里保留已读取过的结果，主线程切歌时只查内存；数据库读写都在后台线程
+ */
+public class LoudnessStore {
+    private static final String DB_NAME = "loudness.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE = "loudness";
+    public static final double TARGET_LUFS = -16.0; // 移动端播放常用的目标响度
+    private static final double TRUE_PEAK_CEILING_DBTP = -1.0;
+    private static final double MAX_BOOST_DB = 9.0;
+    private static final int ENTRY_BYTES = 256; // 一条内存结果连同 Uri 字符串和哈希表节点的粗略大小
+
+    public static class Result {
+        public final double integratedLufs;
+        public final double truePeakDbtp;
+
+        public Result(double integratedLufs, double truePeakDbtp) {
+            this.integratedLufs = integratedLufs;
+            this.truePeakDbtp = truePeakDbtp;
+        }
+
+        // 把积分响度拉到目标值所需的增益；提升时限制在真峰值不超过 -1 dBTP，且最多提升 MAX_BOOST_DB
+        public double gainDb(double targetLufs) {
+            if (Double.isInfinite(integratedLufs) || Double.isNaN(integratedLufs)) return 0;
+            double gain = targetLufs - integratedLufs;
+            if (gain > 0) {
+                gain = Math.min(gain, Math.min(MAX_BOOST_DB, TRUE_PEAK_CEILING_DBTP - truePeakDbtp));
+                gain = Math.max(0, gain);
+            }
+            return gain;
+        }
+    }
+
+    private static LoudnessStore instance;
+
+    private final DbHelper dbHelper; // 为 null 时只有内存（JVM 测试）
+    private final Map<String, Result> memory = new ConcurrentHashMap<>();
+
+    public static synchronized LoudnessStore get(Context context) {
+        if (instance == null) {
+            instance = new LoudnessStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LoudnessStore(Context context) {
+        this(new DbHelper(context));
+    }
+
+    // 只在内存里，不读写数据库，给 JVM 测试用
+    static LoudnessStore inMemory() {
+        return new LoudnessStore((DbHelper) null);
+    }
+
+    private LoudnessStore(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        // 内存里只是数据库的副本，任何级别都可以全部丢掉
+        MemoryGovernor.get().register("响度结果", MemoryGovernor.PRIORITY_CACHE, new MemoryGovernor.Consumer() {
+            @Override
+            public long sizeBytes() {
+                return (long) memory.size() * ENTRY_BYTES;
+            }
+
+            @Override
+            public long trim(int level) {
+                long before = sizeBytes();
+                memory.clear();
+                return before;
+            }
+        });
+    }
+
+    // 自己录的 take：按文件名和文件长度保存、查找，和播放时 Uri 的形式无关
+    private static String takeKey(String fileName, long fileBytes) {
+        return "take:" + fileName + ":" + fileBytes;
+    }
+
+    // 录音线程：take 文件已关闭，长度是头部加数据
+    public void saveForTake(String fileName, long dataBytes, Result result) {
+        save(takeKey(fileName, WavHeader.HEADER_SIZE + dataBytes), result);
+    }
+
+    // 后台线程：displayName/size 是播放 Uri 的 OpenableColumns.DISPLAY_NAME/SIZE（file:// 就是文件本身）
+    public Result loadForDocument(String displayName, long size) {
+        return load(takeKey(displayName, size));
+    }
+
+    // 只查内存，主线程可用
+    public Result getCached(String key) {
+        return memory.get(key);
+    }
+
+    // 会访问数据库，只能在后台线程调用
+    public Result load(String key) {
+        Result result = memory.get(key);
+        if (result != null || dbHelper == null) return result;
+        try (Cursor c = dbHelper.getReadableDatabase().query(TABLE, new String[]{"integrated", "true_peak"},
+                "key=?", new String[]{key}, null, null, null)) {
+            if (c.moveToFirst()) {
+                result = new Result(c.getDouble(0), c.getDouble(1));
+                memory.put(key, result);
+                MemoryGovernor.get().notifyGrew();
+            }
+        }
+        return result;
+    }
+
+    // 只能在后台线程调用
+    public void save(String key, Result result) {
+        memory.put(key, result);
+        MemoryGovernor.get().notifyGrew();
+        if (dbHelper == null) return;
+        ContentValues values = new ContentValues();
+        values.put("key", key);
+        values.put("integrated", result.integratedLufs);
+        values.put("true_peak", result.truePeakDbtp);
+        dbHelper.getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static class DbHelper extends SQLiteOpenHelper {
+        DbHelper(Context context) {
+            super(context, DB_NAME, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (key TEXT PRIMARY KEY, integrated REAL NOT NULL, true_peak REAL NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
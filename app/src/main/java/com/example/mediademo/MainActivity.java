@@ -2,6 +2,7 @@ package com.example.mediademo;
 
 import android.Manifest;
 import android.content.BroadcastReceiver;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
@@ -14,7 +15,10 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -76,38 +80,88 @@ public class MainActivity extends AppCompatActivity {
     private static final int SAMPLE_RATE = 44100;
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    // 绑定服务后预先创建 AudioRecord，缩短点击录音到第一个采样的时间
+    private static final boolean PREWARM_CAPTURE = true;
+    // 启动参数，见 AudioTrace：--ez trace false 关掉所有埋点，--ez traceLegacy true 在 Android 10 以下打开同步区间
+    public static final String EXTRA_TRACE = "trace";
+    public static final String EXTRA_TRACE_LEGACY = "traceLegacy";
 
     private TextView statusText;
-    private Button btnPlay, btnRecord, btnStopRecord;
-    private android.widget.ProgressBar volumeBar;
+    private Button btnPlay, btnRecord, btnStopRecord, btnExport;
+    private MeterView volumeBar;
     
     private MediaPlayer mediaPlayer;
     private AudioRecord audioRecord;
-    private boolean isRecording = false;
+    private volatile boolean isRecording = false;
     private String pcmPath;
     private String wavPath;
     private AudioViewModel viewModel;
-    private AudioRecordService audioService;
+    private AudioEngineClient audioService; // 服务可能在 :audio 进程里，只能通过 AIDL 调用
     private Boolean isBound = false;
+    private boolean receiverRegistered = false;
 
     // 监听来自 Service 的 UI 更新广播
     private final BroadcastReceiver uiUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(android.content.Context context, Intent intent) {
             Log.d(TAG,"UI BROADCASTREVICER IS CALLED");
+            boolean t = AudioTrace.begin("ui.broadcast");
+            try {
+                handleBroadcast(intent);
+            } finally {
+                AudioTrace.end(t);
+            }
+        }
+
+        private void handleBroadcast(Intent intent) {
             if ("com.example.mediademo.UPDATE_UI".equals(intent.getAction())) {
                 Log.d(TAG, "收到 UI 更新广播，同步状态");
                 if (audioService != null) {
-                    viewModel.updateRecordingState(audioService.isRecording());
-                    viewModel.isPlaying.setValue(audioService.isPlaying());
-                    if (!audioService.isRecording() && !audioService.isPlaying()) {
+                    boolean recording = audioService.isRecording();
+                    boolean playing = audioService.isPlaying();
+                    viewModel.updateRecordingState(recording);
+                    viewModel.isPlaying.setValue(playing);
+                    if (!recording) {
+                        stopMeterPolling();
+                    }
+                    if (!recording && !playing) {
                         viewModel.statusText.setValue("状态：已停止");
                     }
                 }
             }
             else if ("com.example.mediademo.VOLUME_UPDATE".equals(intent.getAction())) {
-                int level = intent.getIntExtra("level", 0);
-                viewModel.volumeLevel.postValue(level); // 注意：Service 在子线程计算，需用 postValue
+                // 拿不到共享内存时的退路：广播本来就在主线程上回调，直接推给电平表
+                volumeBar.setLevel(intent.getIntExtra("level", 0));
+            }
+            else if ("com.example.mediademo.EXPORT_PROGRESS".equals(intent.getAction())) {
+                int done = intent.getIntExtra("done", 0);
+                int total = intent.getIntExtra("total", 0);
+                if (intent.getBooleanExtra("cancelled", false)) {
+                    viewModel.statusText.setValue("状态：导出已取消（" + done + "/" + total + "）");
+                } else if (intent.getBooleanExtra("finished", false)) {
+                    viewModel.statusText.setValue("状态：导出完成，共 " + done + " 个文件");
+                } else {
+                    viewModel.statusText.setValue("状态：正在导出 " + done + "/" + total);
+                }
+            }
+            else if ("com.example.mediademo.UPLOAD_PROGRESS".equals(intent.getAction())) {
+                long takeId = intent.getLongExtra(TakeLibrary.EXTRA_TAKE_ID, -1);
+                if (!intent.getBooleanExtra("finished", false)) {
+                    viewModel.statusText.setValue("状态：正在上传 take " + takeId + "（" + intent.getIntExtra("done", 0)
+                            + "/" + intent.getIntExtra("total", 0) + " 块）");
+                } else if (intent.getBooleanExtra("success", false)) {
+                    viewModel.statusText.setValue("状态：take " + takeId + " 上传完成");
+                } else {
+                    viewModel.statusText.setValue("状态：take " + takeId + " 上传中断，下次自动续传");
+                }
+            }
+            else if (TakeLibrary.ACTION_TAKE_FINALIZED.equals(intent.getAction())) {
+                // 后台队列整理完一个 take，如果当前没有在录音就把最终路径显示出来
+                if (audioService == null || !audioService.isRecording()) {
+                    String path = intent.getStringExtra(TakeLibrary.EXTRA_TAKE_PATH);
+                    long durationMs = intent.getLongExtra(TakeLibrary.EXTRA_DURATION_MS, 0);
+                    viewModel.statusText.setValue("状态：录音完成（" + durationMs / 1000 + " 秒）\n已保存至: " + path);
+                }
             }
         }
     };
@@ -156,15 +210,29 @@ public class MainActivity extends AppCompatActivity {
     private ServiceConnection connection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
-            AudioRecordService.AudioBinder binder = (AudioRecordService.AudioBinder) iBinder;
-            audioService = binder.getService();
+            audioService = new AudioEngineClient(iBinder);
             isBound = true;
+            // 电平改为每帧从共享内存读取，拿不到时仍然走 VOLUME_UPDATE 广播
+            if (!audioService.attachMeter()) {
+                Log.d(TAG, "电平共享内存不可用，改用 VOLUME_UPDATE 广播");
+            }
+            // 音频进程重启后也会回调到这里，重新设置一次
+            Intent launch = getIntent();
+            if (launch.hasExtra(EXTRA_TRACE) || launch.hasExtra(EXTRA_TRACE_LEGACY)) {
+                audioService.setTraceOptions(launch.getBooleanExtra(EXTRA_TRACE, true),
+                        launch.getBooleanExtra(EXTRA_TRACE_LEGACY, false));
+            }
+            if (PREWARM_CAPTURE && !audioService.isRecording()) {
+                audioService.prewarmCapture(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT,
+                        AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT));
+            }
             
             // 同步 Service 的真实录音状态到 ViewModel
             boolean recording = audioService.isRecording();
             viewModel.isRecording.setValue(recording);
             if (recording) {
                 viewModel.statusText.setValue("状态：正在录制（已恢复）");
+                startMeterPolling();
             }
 
             // 同步播放状态
@@ -177,10 +245,24 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
+            // 音频进程被杀：系统会在进程重启后再次回调 onServiceConnected
             isBound = false;
+            stopMeterPolling();
+            if (audioService != null) {
+                audioService.release();
+            }
         }
     };
 
+    // 录音期间电平表每帧自己读一次共享内存里的最新电平；没有共享内存时 pollMeterLevel 总是 -1，电平由广播推送
+    private void startMeterPolling() {
+        volumeBar.setActive(true);
+    }
+
+    private void stopMeterPolling() {
+        volumeBar.setActive(false);
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // 必须先调用父类的实现，否则系统会抛出 SuperNotCalledException
@@ -197,6 +279,7 @@ public class MainActivity extends AppCompatActivity {
         btnPlay = findViewById(R.id.btnPlay);
         btnRecord = findViewById(R.id.btnRecord);
         btnStopRecord = findViewById(R.id.btnStopRecord);
+        btnExport = findViewById(R.id.btnExport);
         volumeBar = findViewById(R.id.volumeBar);
 
         // UI控制逻辑写在ViewModel LiveData 闭包、
@@ -210,18 +293,55 @@ public class MainActivity extends AppCompatActivity {
         viewModel.statusText.observe(this, text -> {
             statusText.setText(text);
         });
-        viewModel.volumeLevel.observe(this, level -> {
-            if (volumeBar != null) {
-                volumeBar.setProgress(level);
-            }
+        volumeBar.setLevelSource(() -> audioService != null ? audioService.pollMeterLevel() : -1);
+
+
+        // 绑定点击事件的回调函数
+        btnPlay.setOnClickListener(v -> playAudio());
+        // btnRecord.setOnClickListener(v -> startRecording());
+        // btnStopRecord.setOnClickListener(v -> stopRecording());
+        btnRecord.setOnClickListener(v -> startRecordingByService());
+        // 长按录音：麦克风 + 第二路输入同步录到一个双声道文件
+        btnRecord.setOnLongClickListener(v -> {
+            startMultiSourceRecordingByService();
+            return true;
+        });
+        btnStopRecord.setOnClickListener(v -> stopRecordingByService());
+        btnExport.setOnClickListener(v -> exportByService());
+        // 长按导出：把正在录制（没有录音时是最近一次）的 take 分享给其它应用，录制中对方可以边录边读
+        btnExport.setOnLongClickListener(v -> {
+            shareLiveTake();
+            return true;
         });
 
+        scheduleDeferredInit();
+    }
+
+    // 第一帧画出来之后再绑定服务、检查权限、注册广播，缩短进程启动到第一帧的时间
+    private void scheduleDeferredInit() {
+        View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn = false;
+
+            @Override
+            public void onDraw() {
+                if (drawn) return;
+                drawn = true;
+                StartupMetrics.onFirstFrame();
+                // onDraw 回调里不能移除监听器，post 到下一轮消息再处理
+                decor.post(() -> {
+                    decor.getViewTreeObserver().removeOnDrawListener(this);
+                    deferredInit();
+                });
+            }
+        });
+    }
 
+    private void deferredInit() {
+        if (isFinishing() || isDestroyed()) return;
         Intent intent = new Intent(this, AudioRecordService.class);
         bindService(intent, connection, BIND_AUTO_CREATE);
 
-
-
         // 设置私有目录路径
         pcmPath = getExternalFilesDir(null).getAbsolutePath() + "/record.pcm";
         wavPath = getExternalFilesDir(null).getAbsolutePath() + "/record.wav";
@@ -231,54 +351,113 @@ public class MainActivity extends AppCompatActivity {
         IntentFilter filter = new IntentFilter();
         filter.addAction("com.example.mediademo.UPDATE_UI");
         filter.addAction("com.example.mediademo.VOLUME_UPDATE");
+        filter.addAction(TakeLibrary.ACTION_TAKE_FINALIZED);
+        filter.addAction("com.example.mediademo.EXPORT_PROGRESS");
+        filter.addAction("com.example.mediademo.UPLOAD_PROGRESS");
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             registerReceiver(uiUpdateReceiver, filter, android.content.Context.RECEIVER_NOT_EXPORTED);
         } else {
             registerReceiver(uiUpdateReceiver, filter);
         }
-
-        // 绑定点击事件的回调函数
-        btnPlay.setOnClickListener(v -> playAudio());
-        // btnRecord.setOnClickListener(v -> startRecording());
-        // btnStopRecord.setOnClickListener(v -> stopRecording());
-        btnRecord.setOnClickListener(v -> startRecordingByService());
-        btnStopRecord.setOnClickListener(v -> stopRecordingByService());
-
-
+        receiverRegistered = true;
+        reportFullyDrawn();
     }
 
     private void startRecordingByService() {
+        long tapAt = SystemClock.elapsedRealtimeNanos(); // 点击录音的时间，用于统计到第一个采样的耗时
         if(isBound) {
             // 先启动服务，确保它独立于 Activity 生命周期
-            Intent intent = new Intent(this, AudioRecordService.class);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                startForegroundService(intent);
-            } else {
-                startService(intent);
-            }
+            startRecordService();
 
             int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE,CHANNEL_CONFIG,AUDIO_FORMAT);
-            audioService.startRecording(SAMPLE_RATE, CHANNEL_CONFIG,AUDIO_FORMAT, bufferSize);
+            audioService.startRecording(SAMPLE_RATE, CHANNEL_CONFIG,AUDIO_FORMAT, bufferSize, tapAt);
             viewModel.updateRecordingState(true);
+            startMeterPolling();
         } else {
             Log.e(TAG, "服务未绑定，无法录音");
         }
     }
 
+    private void startMultiSourceRecordingByService() {
+        long tapAt = SystemClock.elapsedRealtimeNanos();
+        if (isBound) {
+            startRecordService();
+            int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
+            audioService.startMultiSourceRecording(SAMPLE_RATE, bufferSize, tapAt);
+            viewModel.updateRecordingState(true);
+            startMeterPolling();
+            showToast("多路录音");
+        } else {
+            Log.e(TAG, "服务未绑定，无法录音");
+        }
+    }
+
+    private void startRecordService() {
+        Intent intent = new Intent(this, AudioRecordService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForegroundService(intent);
+        } else {
+            startService(intent);
+        }
+    }
+
     private void stopRecordingByService() {
         if (isBound) {
-            audioService.stopRecording();
+            String takePath = audioService.getCurrentTakePath();
+            // 停止是异步的：这里立即返回，录音线程排空并关闭文件、后台整理完成后再回调
+            audioService.stopRecordingAsync((path, durationMs, stopLatencyMs) -> {
+                if (path != null) {
+                    viewModel.statusText.setValue("状态：录音完成（" + durationMs / 1000 + " 秒，停止耗时 "
+                            + stopLatencyMs + " ms）\n已保存至: " + path);
+                }
+            });
             viewModel.updateRecordingState(false);
-            pcmToWav(pcmPath, wavPath);
+            stopMeterPolling();
+            // 每次录音都是独立的 wav 文件，头部回填等整理工作由 TakeLibrary 在后台完成，这里不再同步 pcmToWav
             // 状态更新已经由 viewModel.updateRecordingState 处理，这里可以补充具体路径信息
-            viewModel.statusText.setValue("状态：录音完成\n已保存至: " + wavPath);
+            if (takePath != null) {
+                viewModel.statusText.setValue("状态：正在停止并整理\n" + takePath);
+            }
             showToast("录音已保存");
         }
     }
 
 
 
+    // LiveTapProvider 不导出，只能通过 Uri 授权访问：ClipData 加 FLAG_GRANT_READ_URI_PERMISSION，经过 chooser 也会带上授权
+    private void shareLiveTake() {
+        if (!isBound) {
+            showToast("服务未绑定，无法分享");
+            return;
+        }
+        Uri uri = audioService.getLiveTapUri();
+        if (uri == null) {
+            showToast("还没有录音");
+            return;
+        }
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("audio/wav");
+        send.putExtra(Intent.EXTRA_STREAM, uri);
+        send.setClipData(ClipData.newRawUri("take", uri));
+        send.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(send, "分享录音"));
+    }
+
+    // 导出在 Service 的线程池里进行，再按一次则取消
+    private void exportByService() {
+        if (!isBound) {
+            showToast("服务未绑定，无法导出");
+            return;
+        }
+        if (audioService.isExporting()) {
+            audioService.cancelExport();
+        } else {
+            audioService.exportTodayTakes();
+            viewModel.statusText.setValue("状态：开始导出今天的录音");
+        }
+    }
+
     // 检查应用是否获得了用户授予的必要权限：录音，读写文件
     // 由于 Android 11+ 使用了分区存储来限制应用的访问权限
     // 这意味着应用无法直接通过 File 对象访问外部存储的公共目录，除非该文件是由应用创建的
@@ -500,11 +679,12 @@ public class MainActivity extends AppCompatActivity {
         // 开启线程写入文件流
         // 如果使用主线程来进行录音操作 会阻塞 MainActivity 的用户界面UI交互 ANR
         // 需要先录完pcm再封装wav 因为你不知道最终录多久 也就不知道pcm长度 无法定义wav header
+        AudioRecord record = audioRecord;
         new Thread(() -> {
             try (FileOutputStream os = new FileOutputStream(pcmPath)) {
                 byte[] data = new byte[bufferSize];
                 while (isRecording) {
-                    int read = audioRecord.read(data, 0, bufferSize); // 阻塞调用 它会一直等到硬件缓冲区有数据了才返回
+                    int read = record.read(data, 0, bufferSize); // 阻塞调用 它会一直等到硬件缓冲区有数据了才返回
                     if (read > 0) {
                         os.write(data, 0, read); // todo : 空间不足检查 StatFS 
                     }
@@ -512,17 +692,21 @@ public class MainActivity extends AppCompatActivity {
             } catch (IOException e) {
                 Log.e(TAG, "录音写入失败", e);
             }
+            // 停止、释放和 pcmToWav 都在这个线程上做，stopRecording 不会阻塞主线程
+            record.stop();
+            record.release();
+            pcmToWav(pcmPath, wavPath);
+            runOnUiThread(() -> {
+                statusText.setText("状态：录音完成\n已保存至: " + wavPath);
+                showToast("录音已保存");
+            });
         }).start();
     }
 
     private void stopRecording() {
+        // 只通知写入线程退出，停止/释放 AudioRecord 由写入线程自己完成
         isRecording = false;
-        // 停止录音 释放资源
-        if (audioRecord != null) {
-            audioRecord.stop();
-            audioRecord.release();
-            audioRecord = null;
-        }
+        audioRecord = null;
         // 交互恢复
         btnRecord.setEnabled(true);
         btnStopRecord.setEnabled(false);
@@ -530,41 +714,27 @@ public class MainActivity extends AppCompatActivity {
         // PCM 2 WAV
         // AudioRecord 录出来的 .pcm 文件是原始数据，没有采样率、声道数等信息无法直接播放
         // .wav 文件其实就是 PCM 数据 + 44 字节的 Header
-        pcmToWav(pcmPath, wavPath);
-        statusText.setText("状态：录音完成\n已保存至: " + wavPath);
-        showToast("录音已保存");
+        // 转换在写入线程结束时进行，完成后更新状态
+        statusText.setText("状态：正在保存...");
         // todo : MediaStore 注入：通过 ContentValues 将录好的 WAV 文件“插入”到系统的 Music 库中，让系统自带的音乐播放器也能搜到它
     }
 
+    // 写好 wav 头之后用 FileChannel.transferTo 整段搬运 pcm 数据，不再经过 1KB 的堆缓冲区
+    // 批量导出见 BatchExporter，这里只是单个文件的同步版本
     private void pcmToWav(String pcmPath, String wavPath) {
-        FileInputStream in = null; // 读取的原始文件
-        FileOutputStream out = null; // 写入的最终文件
-        long totalAudioLen = 0; // PCM音频数据长度
-        long totalDataLen = totalAudioLen + 36; // 整个 WAV 文件除去开头 8 个字节（"RIFF" 和文件长度字段本身）后的长度 
-        long longSampleRate = SAMPLE_RATE; // 采样率
-        int channels = 1; // 声道数
-        long byteRate = 16 * SAMPLE_RATE * channels / 8; // 字节率
-        byte[] data = new byte[1024]; // 缓冲区
+        BatchExporter.Item item = BatchExporter.Item.fromPcm(new File(pcmPath), new File(wavPath), SAMPLE_RATE, 1, 16);
+        boolean t = AudioTrace.begin("pcmToWav");
         try {
-            in = new FileInputStream(pcmPath);
-            out = new FileOutputStream(wavPath);
-            totalAudioLen = in.getChannel().size();
-            totalDataLen = totalAudioLen + 36;
-
-            // WAV header
-            writeWavHeader(out, totalAudioLen, totalDataLen, longSampleRate, channels, byteRate);
-            
-            while (in.read(data) != -1) {
-                out.write(data);
-            }
-            in.close();
-            out.close();
+            BatchExporter.exportOne(item, null, null);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            AudioTrace.end(t);
         }
     }
 
     // 44 Bytes WAV Header
+    // WavHeader.build 用 ByteBuffer 生成同样布局的头部，这里保留逐字节的写法作为对照
     // 其实 AAC 的ADTS和H.264的NALU和这个差不多
 
     // wave riff 协议
@@ -654,14 +824,33 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(this, message, Toast.LENGTH_LONG).show();
     }
 
+    // 界面进程自己的预算；服务默认在 :audio 进程，那边由 AudioRecordService 转发，同进程打包时两边都会转发，收缩是幂等的
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryGovernor.get().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryGovernor.get().onLowMemory();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         // 注销 UI 更新广播
-        unregisterReceiver(uiUpdateReceiver);
+        if (receiverRegistered) {
+            unregisterReceiver(uiUpdateReceiver);
+        }
+        stopMeterPolling();
         if (isBound) {
             unbindService(connection);
             isBound = false;
         }
+        if (audioService != null) {
+            audioService.release();
+        }
     }
 }
@@ -0,0 +1,180 @@
+package com.example.mediademo;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * 进程内的内存预算：各个缓存和池子登记在这里，内存紧张时按优先级从低到高收缩
+ *
+ * onTrimMemory 的级别决定收缩到哪一档（数字越小越先被收缩，越容易重建）：
+ *   PRIORITY_CACHE   纯缓存，丢了只是下次再读一遍数据库/文件（元数据封面、响度结果）
+ *   PRIORITY_POOL    空闲的复用块（QuickClip 的堆外块池）
+ *   PRIORITY_PREWARM 预热好但还没用的资源（预热的 AudioRecord）
+ *   PRIORITY_IDLE    暂停中的播放器，释放后要重新 prepare，只在最严重的级别才动
+ * 正在录音用的缓冲区（CaptureEngine/TakeWriter/耳返/声控预录/录制中的片段）只登记成 PRIORITY_PINNED 用于 dump，从不收缩
+ * 另有一个总预算（堆上限的 1/8）：消费者变大时调用 notifyGrew，超出预算就只收缩缓存和池子，直到回到预算以内
+ * onTrimMemory 和收缩都在主线程；sizeBytes 可能在 dump 的 binder 线程上调用，只能读 volatile 或自带锁的状态
+ */
+public final class MemoryGovernor {
+    private static final String TAG = "MemoryGovernor";
+    public static final int PRIORITY_CACHE = 0;
+    public static final int PRIORITY_POOL = 1;
+    public static final int PRIORITY_PREWARM = 2;
+    public static final int PRIORITY_IDLE = 3;
+    public static final int PRIORITY_PINNED = Integer.MAX_VALUE;
+    private static final String[] PRIORITY_NAMES = {"缓存", "池", "预热", "空闲"};
+
+    public interface Consumer {
+        // 当前大约占用的字节数（堆内外合计）
+        long sizeBytes();
+
+        // 主线程调用；level 是 ComponentCallbacks2.TRIM_MEMORY_*，由消费者决定收缩多少，返回释放的字节数
+        long trim(int level);
+    }
+
+    private static final class Entry {
+        final String name;
+        final int priority;
+        final Consumer consumer;
+        long trimmedBytes;
+
+        Entry(String name, int priority, Consumer consumer) {
+            this.name = name;
+            this.priority = priority;
+            this.consumer = consumer;
+        }
+    }
+
+    private static MemoryGovernor instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Entry> entries = new ArrayList<>(); // 按优先级排序，受 this 锁保护
+    private final long budgetBytes = Runtime.getRuntime().maxMemory() / 8;
+    private final AtomicBoolean enforcePosted = new AtomicBoolean();
+    private volatile int lastLevel = -1;
+    private volatile long lastTrimMillis;
+    private volatile int budgetTrims;
+
+    public static synchronized MemoryGovernor get() {
+        if (instance == null) {
+            instance = new MemoryGovernor();
+        }
+        return instance;
+    }
+
+    private MemoryGovernor() {
+    }
+
+    // 同名的登记会替换旧的（例如服务重建后重新登记）
+    public synchronized void register(String name, int priority, Consumer consumer) {
+        unregister(name);
+        int i = 0;
+        while (i < entries.size() && entries.get(i).priority <= priority) i++;
+        entries.add(i, new Entry(name, priority, consumer));
+    }
+
+    public synchronized void unregister(String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).name.equals(name)) {
+                entries.remove(i);
+                return;
+            }
+        }
+    }
+
+    private synchronized List<Entry> snapshot() {
+        return new ArrayList<>(entries);
+    }
+
+    // 任意线程调用：消费者变大之后通知一次，多次通知合并成一次主线程检查
+    public void notifyGrew() {
+        if (enforcePosted.compareAndSet(false, true)) {
+            mainHandler.post(() -> {
+                enforcePosted.set(false);
+                enforceBudget();
+            });
+        }
+    }
+
+    private void enforceBudget() {
+        List<Entry> list = snapshot();
+        long total = trimmableBytes(list);
+        if (total <= budgetBytes) return;
+        long before = total;
+        for (Entry e : list) {
+            if (e.priority > PRIORITY_POOL || total <= budgetBytes) break;
+            total -= trim(e, ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        }
+        budgetTrims++;
+        Log.d(TAG, "超出预算 " + budgetBytes / 1024 + " KB: " + before / 1024 + " KB -> " + total / 1024 + " KB");
+    }
+
+    private static long trimmableBytes(List<Entry> list) {
+        long total = 0;
+        for (Entry e : list) {
+            if (e.priority != PRIORITY_PINNED) total += e.consumer.sizeBytes();
+        }
+        return total;
+    }
+
+    // 这个级别收缩到哪一档；进程在后台（UI_HIDDEN 以上）时越往后越接近被杀，收缩得越多
+    static int cutoffFor(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) return PRIORITY_IDLE;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) return PRIORITY_PREWARM;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) return PRIORITY_POOL;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return PRIORITY_CACHE;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) return PRIORITY_IDLE;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return PRIORITY_POOL;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) return PRIORITY_CACHE;
+        return -1;
+    }
+
+    // 主线程调用，Service/Activity 的 onTrimMemory 直接转过来
+    public void onTrimMemory(int level) {
+        lastLevel = level;
+        lastTrimMillis = System.currentTimeMillis();
+        int cutoff = cutoffFor(level);
+        if (cutoff < 0) return;
+        long freed = 0;
+        for (Entry e : snapshot()) {
+            if (e.priority > cutoff) break;
+            freed += trim(e, level);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): 收缩到「" + PRIORITY_NAMES[cutoff] + "」, 释放 " + freed / 1024 + " KB");
+    }
+
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private long trim(Entry e, int level) {
+        long freed = e.consumer.trim(level);
+        synchronized (this) {
+            e.trimmedBytes += freed;
+        }
+        return freed;
+    }
+
+    public void dump(PrintWriter writer) {
+        List<Entry> list = snapshot();
+        writer.println("内存预算: " + trimmableBytes(list) / 1024 + "/" + budgetBytes / 1024 + " KB, 上次 onTrimMemory "
+                + (lastLevel < 0 ? "无" : lastLevel + "（" + (System.currentTimeMillis() - lastTrimMillis) / 1000 + " 秒前）")
+                + ", 超预算收缩 " + budgetTrims + " 次");
+        for (Entry e : list) {
+            String priority = e.priority == PRIORITY_PINNED ? "录音中" : PRIORITY_NAMES[e.priority];
+            long trimmed;
+            synchronized (this) {
+                trimmed = e.trimmedBytes;
+            }
+            writer.println("  " + e.name + " [" + priority + "]: " + e.consumer.sizeBytes() / 1024 + " KB, 累计释放 "
+                    + trimmed / 1024 + " KB");
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.mediademo;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 播放列表元数据的并行提取与缓存
+ *
+ * MediaMetadataRetriever 每个文件都要几十到几百毫秒，不能在切歌时同步调用
+ * 这里用一个有界线程池按离 currentIndex 的远近优先提取标签/时长/封面，
+ * 结果放进按字节预算的内存 LruCache（封面缩小后再缓存），并在 cacheDir 下保留一份小的磁盘缓存
+ * 切歌时 updateMetadata 直接命中内存缓存即可立即发布到 MediaSession
+ */
+public class MetadataLoader {
+    private static final String TAG = "MetadataLoader";
+    private static final int POOL_SIZE = 2;
+    private static final int ARTWORK_MAX_SIZE = 320; // 封面最长边，够通知栏和锁屏使用
+    private static final int PREFETCH_RADIUS = 5; // 预取 currentIndex 前后各几首
+    private static final long DISK_CACHE_MAX_BYTES = 8L * 1024 * 1024;
+    private static final int DISK_FORMAT_VERSION = 1;
+
+    public interface Listener {
+        // 在主线程回调
+        void onMetadataLoaded(Uri uri, TrackMetadata metadata);
+    }
+
+    private final Context appContext;
+    private final File diskDir;
+    private final LruCache<String, TrackMetadata> memoryCache;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor pool;
+    private volatile Listener listener;
+
+    public MetadataLoader(Context context) {
+        appContext = context.getApplicationContext();
+        diskDir = new File(appContext.getCacheDir(), "metadata");
+        if (!diskDir.exists() && !diskDir.mkdirs()) {
+            Log.w(TAG, "无法创建元数据磁盘缓存目录");
+        }
+        // 内存预算取堆上限的 1/32，封面已经缩小，几百首歌也放得下
+        int budget = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32);
+        memoryCache = new LruCache<String, TrackMetadata>(budget) {
+            @Override
+            protected int sizeOf(String key, TrackMetadata value) {
+                return value.sizeInBytes();
+            }
+        };
+        // PriorityBlockingQueue 只接受 Comparable 的任务，所以只能用 execute 提交 LoadTask
+        pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "MetadataLoader");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        MemoryGovernor.get().register("元数据缓存", MemoryGovernor.PRIORITY_CACHE, new MemoryGovernor.Consumer() {
+            @Override
+            public long sizeBytes() {
+                return memoryCache.size();
+            }
+
+            // 轻度紧张时留下一半（最近用过的封面），再严重就全部丢掉，磁盘缓存还在
+            @Override
+            public long trim(int level) {
+                int before = memoryCache.size();
+                if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                    memoryCache.trimToSize(before / 2);
+                } else {
+                    memoryCache.evictAll();
+                }
+                return before - memoryCache.size();
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // 只查内存缓存，主线程可以直接调用
+    public TrackMetadata getCached(Uri uri) {
+        return memoryCache.get(uri.toString());
+    }
+
+    // 切歌或换列表时调用：丢弃旧的排队任务，按离当前曲目的距离重新排队
+    public void prefetch(List<Uri> playlist, int currentIndex) {
+        if (playlist == null || playlist.isEmpty() || currentIndex < 0) return;
+        List<Runnable> dropped = new ArrayList<>();
+        pool.getQueue().drainTo(dropped);
+        for (Runnable r : dropped) {
+            pending.remove(((LoadTask) r).key);
+        }
+        int from = Math.max(0, currentIndex - PREFETCH_RADIUS);
+        int to = Math.min(playlist.size() - 1, currentIndex + PREFETCH_RADIUS);
+        for (int i = from; i <= to; i++) {
+            // 往后的曲目比往前的更可能马上播放，距离相同时优先
+            int priority = i >= currentIndex ? (i - currentIndex) * 2 : (currentIndex - i) * 2 + 1;
+            request(playlist.get(i), priority);
+        }
+    }
+
+    public void request(Uri uri, int priority) {
+        String key = uri.toString();
+        if (memoryCache.get(key) != null || !pending.add(key)) return;
+        pool.execute(new LoadTask(uri, key, priority));
+    }
+
+    public void evictAll() {
+        memoryCache.evictAll();
+    }
+
+    public void shutdown() {
+        MemoryGovernor.get().unregister("元数据缓存");
+        pool.shutdownNow();
+    }
+
+    private class LoadTask implements Runnable, Comparable<LoadTask> {
+        final Uri uri;
+        final String key;
+        final int priority;
+
+        LoadTask(Uri uri, String key, int priority) {
+            this.uri = uri;
+            this.key = key;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            return Integer.compare(priority, other.priority);
+        }
+
+        @Override
+        public void run() {
+            try {
+                TrackMetadata metadata = readDisk(key);
+                if (metadata == null) {
+                    metadata = extract(uri);
+                    if (metadata == null) return;
+                    writeDisk(key, metadata);
+                }
+                memoryCache.put(key, metadata);
+                MemoryGovernor.get().notifyGrew();
+                TrackMetadata result = metadata;
+                mainHandler.post(() -> {
+                    Listener l = listener;
+                    if (l != null) l.onMetadataLoaded(uri, result);
+                });
+            } finally {
+                pending.remove(key);
+            }
+        }
+    }
+
+    private TrackMetadata extract(Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(appContext, uri);
+            String title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
+            String artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            String album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            long durationMs = 0;
+            if (duration != null) {
+                try {
+                    durationMs = Long.parseLong(duration);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            Bitmap artwork = decodeArtwork(retriever.getEmbeddedPicture());
+            if (title == null || title.isEmpty()) {
+                title = uri.getLastPathSegment();
+            }
+            return new TrackMetadata(title, artist, album, durationMs, artwork);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "提取元数据失败: " + uri, e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // 先只解码边界，按 2 的幂缩小到 ARTWORK_MAX_SIZE 附近再真正解码，避免把大封面整张读进内存
+    // inSampleSize 只能缩到 [ARTWORK_MAX_SIZE, 2 * ARTWORK_MAX_SIZE)，最后再精确缩放一次让最长边不超过 ARTWORK_MAX_SIZE
+    private static Bitmap decodeArtwork(byte[] data) {
+        if (data == null) return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= ARTWORK_MAX_SIZE
+                && options.outHeight / (sampleSize * 2) >= ARTWORK_MAX_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (decoded == null) return null;
+        int longest = Math.max(decoded.getWidth(), decoded.getHeight());
+        if (longest <= ARTWORK_MAX_SIZE) return decoded;
+        int width = Math.max(1, decoded.getWidth() * ARTWORK_MAX_SIZE / longest);
+        int height = Math.max(1, decoded.getHeight() * ARTWORK_MAX_SIZE / longest);
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private TrackMetadata readDisk(String key) {
+        File meta = new File(diskDir, hash(key) + ".meta");
+        if (!meta.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(meta))) {
+            if (in.readInt() != DISK_FORMAT_VERSION) return null;
+            String title = readNullable(in);
+            String artist = readNullable(in);
+            String album = readNullable(in);
+            long durationMs = in.readLong();
+            File art = new File(diskDir, hash(key) + ".jpg");
+            Bitmap artwork = art.exists() ? BitmapFactory.decodeFile(art.getAbsolutePath()) : null;
+            // 磁盘缓存按最近使用时间淘汰，.meta 和 .jpg 一起更新
+            long now = System.currentTimeMillis();
+            meta.setLastModified(now);
+            if (artwork != null) art.setLastModified(now);
+            return new TrackMetadata(title, artist, album, durationMs, artwork);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, TrackMetadata metadata) {
+        String name = hash(key);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(diskDir, name + ".meta")))) {
+            out.writeInt(DISK_FORMAT_VERSION);
+            writeNullable(out, metadata.title);
+            writeNullable(out, metadata.artist);
+            writeNullable(out, metadata.album);
+            out.writeLong(metadata.durationMs);
+        } catch (IOException e) {
+            Log.w(TAG, "写入元数据磁盘缓存失败", e);
+            return;
+        }
+        if (metadata.artwork != null) {
+            try (FileOutputStream out = new FileOutputStream(new File(diskDir, name + ".jpg"))) {
+                metadata.artwork.compress(Bitmap.CompressFormat.JPEG, 85, out);
+            } catch (IOException e) {
+                Log.w(TAG, "写入封面磁盘缓存失败", e);
+            }
+        }
+        trimDisk();
+    }
+
+    // 超出预算时删除最久未使用的条目；同一个 key 的 .meta 和 .jpg 成对删除，不会只剩元数据没有封面
+    private synchronized void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        Map<String, List<File>> entries = new HashMap<>();
+        Map<String, Long> lastUsed = new HashMap<>();
+        for (File f : files) {
+            total += f.length();
+            String name = f.getName();
+            int dot = name.lastIndexOf('.');
+            String key = dot > 0 ? name.substring(0, dot) : name;
+            List<File> entry = entries.get(key);
+            if (entry == null) {
+                entry = new ArrayList<>(2);
+                entries.put(key, entry);
+            }
+            entry.add(f);
+            Long used = lastUsed.get(key);
+            lastUsed.put(key, used == null ? f.lastModified() : Math.max(used, f.lastModified()));
+        }
+        if (total <= DISK_CACHE_MAX_BYTES) return;
+        List<String> keys = new ArrayList<>(entries.keySet());
+        Collections.sort(keys, (a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+        for (String key : keys) {
+            if (total <= DISK_CACHE_MAX_BYTES * 3 / 4) break;
+            for (File f : entries.get(key)) {
+                total -= f.length();
+                if (!f.delete()) {
+                    Log.w(TAG, "无法删除缓存文件: " + f);
+                }
+            }
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | java.io.UnsupportedEncodingException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
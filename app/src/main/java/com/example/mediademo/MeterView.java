@@ -0,0 +1,181 @@
+package com.example.mediademo;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+/*
+ * 电平表：每个 Choreographer 帧从 LevelSource 拉一次最新电平，在 View 里做表头动态和峰值保持
+ *
+ * 代替原来的 ProgressBar + LiveData<Integer>：不装箱、不经过 Handler，setProgress 那样的布局请求也没有，
+ * 每帧只在显示值变化时 invalidate；Paint/Shader 只在尺寸变化时创建，onDraw 和 doFrame 里不分配对象
+ * 电平是 CaptureEngine 算出的 0-100（约等于 dBFS + 90），动态也按这个对数刻度计算：
+ *   上升 ATTACK_MS 时间常数（几乎立即跟上），下降 RELEASE_MS 时间常数（接近 VU 表的回落速度）
+ *   峰值保持 PEAK_HOLD_MS，之后以 PEAK_FALL_PER_SEC 匀速下落
+ * 没有新数据时就当作目标不变；停止后回落到 0 并且峰值落完才停掉帧回调
+ */
+public class MeterView extends View {
+    private static final float ATTACK_MS = 10f;
+    private static final float RELEASE_MS = 300f;
+    private static final long PEAK_HOLD_MS = 1500;
+    private static final float PEAK_FALL_PER_SEC = 20f;
+    private static final float MAX_LEVEL = 100f;
+    private static final float PEAK_WIDTH_DP = 3f;
+
+    public interface LevelSource {
+        // 有新电平时返回 0-100，没有时返回 -1；每帧在主线程调用，不能分配内存
+        int pollLevel();
+    }
+
+    private final Paint backgroundPaint = new Paint();
+    private final Paint barPaint = new Paint();
+    private final Paint peakPaint = new Paint();
+    private final float peakWidth;
+    private final Choreographer.FrameCallback frameCallback = this::doFrame;
+
+    private LevelSource source;
+    private boolean active; // 录音中：持续拉取电平
+    private boolean frameScheduled;
+    private float target;
+    private float display;
+    private float peak;
+    private long peakHeldAtNanos;
+    private long lastFrameNanos;
+    private float drawnDisplay = -1;
+    private float drawnPeak = -1;
+
+    public MeterView(Context context) {
+        this(context, null);
+    }
+
+    public MeterView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public MeterView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        peakWidth = PEAK_WIDTH_DP * context.getResources().getDisplayMetrics().density;
+        backgroundPaint.setColor(Color.DKGRAY);
+        peakPaint.setColor(Color.WHITE);
+    }
+
+    public void setLevelSource(LevelSource source) {
+        this.source = source;
+    }
+
+    // 录音开始/结束时调用；结束后表针自然回落到 0
+    public void setActive(boolean active) {
+        this.active = active;
+        if (!active) {
+            target = 0;
+        }
+        scheduleFrame();
+    }
+
+    // 推送方式的电平（VOLUME_UPDATE 广播），主线程调用
+    public void setLevel(int level) {
+        target = Math.max(0, Math.min(MAX_LEVEL, level));
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled || !isAttachedToWindow()) return;
+        frameScheduled = true;
+        lastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        boolean t = AudioTrace.begin("ui.meter");
+        try {
+            if (active && source != null) {
+                int level = source.pollLevel();
+                if (level >= 0) {
+                    target = level;
+                }
+            }
+            float dtMs = lastFrameNanos == 0 ? 16f : (frameTimeNanos - lastFrameNanos) / 1e6f;
+            lastFrameNanos = frameTimeNanos;
+
+            float tau = target > display ? ATTACK_MS : RELEASE_MS;
+            display += (target - display) * (1f - (float) Math.exp(-dtMs / tau));
+            if (Math.abs(target - display) < 0.05f) {
+                display = target;
+            }
+
+            if (display >= peak) {
+                peak = display;
+                peakHeldAtNanos = frameTimeNanos;
+            } else if (frameTimeNanos - peakHeldAtNanos > PEAK_HOLD_MS * 1_000_000L) {
+                peak = Math.max(display, peak - PEAK_FALL_PER_SEC * dtMs / 1000f);
+            }
+
+            // 按像素判断，变化不到一个像素就不重绘
+            float width = getWidth() - getPaddingLeft() - getPaddingRight();
+            if (Math.abs(display - drawnDisplay) * width / MAX_LEVEL >= 0.5f
+                    || Math.abs(peak - drawnPeak) * width / MAX_LEVEL >= 0.5f) {
+                invalidate();
+            }
+
+            if (active || display > 0 || peak > 0) {
+                frameScheduled = true;
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        } finally {
+            AudioTrace.end(t);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // 绿色到 -18 dBFS，黄色到 -6 dBFS，之后红色
+        float left = getPaddingLeft();
+        float right = w - getPaddingRight();
+        barPaint.setShader(new LinearGradient(left, 0, right, 0,
+                new int[]{Color.GREEN, Color.GREEN, Color.YELLOW, Color.RED},
+                new float[]{0f, 0.72f, 0.84f, 0.9f}, Shader.TileMode.CLAMP));
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (active || display > 0 || peak > 0) {
+            scheduleFrame();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled = false;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float right = getWidth() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom();
+        float width = right - left;
+        canvas.drawRect(left, top, right, bottom, backgroundPaint);
+        float level = left + width * display / MAX_LEVEL;
+        if (display > 0) {
+            canvas.drawRect(left, top, level, bottom, barPaint);
+        }
+        if (peak > 0) {
+            float x = left + width * peak / MAX_LEVEL;
+            canvas.drawRect(Math.max(left, x - peakWidth), top, x, bottom, peakPaint);
+        }
+        drawnDisplay = display;
+        drawnPeak = peak;
+    }
+}
@@ -0,0 +1,462 @@
+package com.example.mediademo;
+
+import android.net.Uri;
+
+import java.util.List;
+import java.util.Random;
+
+/*
+ * 播放队列：几十万首也不需要整体复制
+ *
+ * 每首曲目占一个槽位（slot），顺序用 next/prev 两个 int 数组组成双向链表：
+ * 下一首/上一首、插到下一首播放、删除都是 O(1)，删除的槽位进空闲链表复用
+ *
+ * 随机播放用“惰性” Fisher–Yates：pool 前 decided 个是已经定下来的播放顺序（历史 + 预取时多看的几首），
+ * 后面是还没抽到的，每次往后走才随机抽一个换到 decided 位置，开启随机不用先打乱整个列表
+ * 已定顺序里的曲目被删掉时留一个 NONE 墓碑，不挪动数组，墓碑太多时再整体压缩
+ *
+ * 不是线程安全的，只在主线程使用；持久化通过 snapshot 把数组拷贝交给 PlayQueueStore 在后台写
+ */
+public class PlayQueue {
+    public static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Uri[] uris = new Uri[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int[] prev = new int[INITIAL_CAPACITY];
+    private int slotLimit; // 用过的最大槽位 + 1
+    private int freeHead = NONE; // 空闲槽位通过 next 串起来
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+    private int current = NONE;
+    // 链表结构每变一次加一，持久化时判断是否需要重写曲目列表
+    // 起点取当前时间，新进程里新建的队列不会和文件里上一个进程的 generation 撞上
+    private long generation = System.currentTimeMillis() << 16;
+
+    private boolean shuffle;
+    private int[] pool;
+    private int[] poolPos; // 槽位在 pool 里的下标
+    private int poolSize;
+    private int decided;
+    private int shufflePos = -1;
+    private int tombstones;
+    private final Random random = new Random();
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int current() {
+        return current;
+    }
+
+    public Uri uri(int slot) {
+        return slot == NONE ? null : uris[slot];
+    }
+
+    public Uri currentUri() {
+        return uri(current);
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    // 整体替换，当前曲目定位到第一首
+    public void setAll(List<Uri> items) {
+        clear();
+        ensureCapacity(items.size());
+        for (Uri uri : items) {
+            append(uri);
+        }
+        current = head;
+        if (shuffle) {
+            rebuildPool();
+        }
+    }
+
+    public void clear() {
+        uris = new Uri[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+        prev = new int[INITIAL_CAPACITY];
+        slotLimit = 0;
+        freeHead = NONE;
+        head = tail = current = NONE;
+        size = 0;
+        generation++;
+        if (shuffle) {
+            rebuildPool();
+        }
+    }
+
+    public int append(Uri uri) {
+        int slot = allocate(uri);
+        link(slot, tail, NONE);
+        addToPool(slot);
+        return slot;
+    }
+
+    // 插到当前曲目之后；随机模式下也保证它是下一首
+    public int insertNext(Uri uri) {
+        int slot = allocate(uri);
+        link(slot, current, current == NONE ? head : next[current]);
+        addToPool(slot);
+        if (shuffle) {
+            truncateDecided();
+            decide(poolPos[slot]);
+        }
+        return slot;
+    }
+
+    // 删除当前曲目时 current 退回到前一首，调用方接着 moveToNext 就是原来的下一首
+    public void remove(int slot) {
+        if (slot < 0 || slot >= slotLimit || uris[slot] == null) return;
+        if (shuffle) {
+            int p = poolPos[slot];
+            if (slot == current) {
+                current = NONE;
+                int i = shufflePos - 1;
+                while (i >= 0 && pool[i] == NONE) i--;
+                shufflePos = i;
+                if (i >= 0) current = pool[i];
+            }
+            if (p < decided) {
+                pool[p] = NONE;
+                tombstones++;
+            } else {
+                int last = pool[--poolSize];
+                pool[p] = last;
+                poolPos[last] = p;
+            }
+        } else if (slot == current) {
+            current = prev[slot];
+        }
+        int before = prev[slot];
+        int after = next[slot];
+        if (before == NONE) head = after; else next[before] = after;
+        if (after == NONE) tail = before; else prev[after] = before;
+        uris[slot] = null;
+        next[slot] = freeHead;
+        freeHead = slot;
+        size--;
+        generation++;
+        if (shuffle && tombstones > 32 && tombstones * 2 > decided) {
+            compactDecided();
+        }
+    }
+
+    // 到末尾时返回 NONE，current 不变
+    public int moveToNext() {
+        if (!shuffle) {
+            int slot = current == NONE ? head : next[current];
+            if (slot != NONE) current = slot;
+            return slot;
+        }
+        int i = shufflePos + 1;
+        while (i < decided && pool[i] == NONE) i++;
+        if (i >= decided) {
+            if (decided >= poolSize) return NONE;
+            decide(decided + random.nextInt(poolSize - decided));
+            i = decided - 1;
+        }
+        shufflePos = i;
+        current = pool[i];
+        return current;
+    }
+
+    // 到开头时返回 NONE，current 不变
+    public int moveToPrevious() {
+        if (!shuffle) {
+            if (current == NONE || prev[current] == NONE) return NONE;
+            current = prev[current];
+            return current;
+        }
+        int i = shufflePos - 1;
+        while (i >= 0 && pool[i] == NONE) i--;
+        if (i < 0) return NONE;
+        shufflePos = i;
+        current = pool[i];
+        return current;
+    }
+
+    // 直接跳到某一首，随机模式下它成为已定顺序的下一项
+    public void moveTo(int slot) {
+        if (slot < 0 || slot >= slotLimit || uris[slot] == null) return;
+        current = slot;
+        if (shuffle) {
+            int p = poolPos[slot];
+            if (p < decided) {
+                shufflePos = p;
+            } else {
+                truncateDecided();
+                decide(poolPos[slot]);
+                shufflePos = decided - 1;
+            }
+        }
+    }
+
+    // 关闭随机时从当前曲目接着按列表顺序播放；开启随机时当前曲目作为随机顺序的第一项
+    public void setShuffle(boolean enabled) {
+        if (shuffle == enabled) return;
+        shuffle = enabled;
+        if (enabled) {
+            rebuildPool();
+        } else {
+            pool = poolPos = null;
+            poolSize = decided = tombstones = 0;
+            shufflePos = -1;
+        }
+    }
+
+    // 当前曲目前后的窗口，按播放顺序填入 out，返回当前曲目在 out 里的下标；用于元数据/响度预取
+    // 随机模式下往后看会提前抽定后面几首，之后 moveToNext 走的就是这个顺序
+    public int window(List<Uri> out, int before, int after) {
+        out.clear();
+        if (current == NONE) return -1;
+        if (!shuffle) {
+            int start = current;
+            for (int i = 0; i < before && prev[start] != NONE; i++) {
+                start = prev[start];
+            }
+            for (int slot = start; slot != current; slot = next[slot]) {
+                out.add(uris[slot]);
+            }
+            int index = out.size();
+            out.add(uris[current]);
+            for (int slot = next[current], n = 0; slot != NONE && n < after; slot = next[slot], n++) {
+                out.add(uris[slot]);
+            }
+            return index;
+        }
+        int start = shufflePos;
+        for (int n = 0; n < before && start > 0; ) {
+            start--;
+            if (pool[start] != NONE) n++;
+        }
+        for (int i = start; i < shufflePos; i++) {
+            if (pool[i] != NONE) out.add(uris[pool[i]]);
+        }
+        int index = out.size();
+        out.add(uris[current]);
+        int i = shufflePos + 1;
+        for (int n = 0; n < after; i++) {
+            if (i >= decided) {
+                if (decided >= poolSize) break;
+                decide(decided + random.nextInt(poolSize - decided));
+            }
+            if (pool[i] != NONE) {
+                out.add(uris[pool[i]]);
+                n++;
+            }
+        }
+        return index;
+    }
+
+    // 把 pool[p]（必须在未定区）换到 decided 位置
+    private void decide(int p) {
+        int slot = pool[p];
+        int other = pool[decided];
+        pool[p] = other;
+        poolPos[other] = p;
+        pool[decided] = slot;
+        poolPos[slot] = decided;
+        decided++;
+    }
+
+    // 当前位置之后已经定下来的几首退回未定区，插队的曲目才能排在紧接着的位置
+    private void truncateDecided() {
+        int keep = shufflePos + 1;
+        int write = keep;
+        for (int i = keep; i < decided; i++) {
+            if (pool[i] == NONE) {
+                tombstones--;
+            } else {
+                pool[write] = pool[i];
+                poolPos[pool[write]] = write;
+                write++;
+            }
+        }
+        closeGap(write);
+        decided = keep;
+    }
+
+    // 压缩后 [write, decided) 是空位：用未定区末尾的曲目补上，未定区顺序本来就无所谓，不用整体挪动
+    private void closeGap(int write) {
+        int holes = decided - write;
+        for (int i = 0; i < holes; i++) {
+            int from = poolSize - 1 - i;
+            if (from < decided) break;
+            int to = write + i;
+            pool[to] = pool[from];
+            poolPos[pool[to]] = to;
+        }
+        poolSize -= holes;
+    }
+
+    private void compactDecided() {
+        int write = 0;
+        for (int i = 0; i < decided; i++) {
+            if (pool[i] == NONE) {
+                if (i == shufflePos) shufflePos = write - 1;
+                continue;
+            }
+            if (i == shufflePos) shufflePos = write;
+            pool[write] = pool[i];
+            poolPos[pool[write]] = write;
+            write++;
+        }
+        closeGap(write);
+        decided = write;
+        tombstones = 0;
+    }
+
+    private void rebuildPool() {
+        pool = new int[uris.length];
+        poolPos = new int[uris.length];
+        poolSize = 0;
+        tombstones = 0;
+        for (int slot = head; slot != NONE; slot = next[slot]) {
+            pool[poolSize] = slot;
+            poolPos[slot] = poolSize;
+            poolSize++;
+        }
+        decided = 0;
+        shufflePos = -1;
+        if (current != NONE) {
+            decide(poolPos[current]);
+            shufflePos = 0;
+        }
+    }
+
+    private void addToPool(int slot) {
+        if (!shuffle) return;
+        // 墓碑也占 pool 的位置，pool 可能比槽位数长
+        if (poolSize == pool.length) {
+            pool = java.util.Arrays.copyOf(pool, pool.length * 2);
+        }
+        pool[poolSize] = slot;
+        poolPos[slot] = poolSize;
+        poolSize++;
+    }
+
+    private int allocate(Uri uri) {
+        int slot;
+        if (freeHead != NONE) {
+            slot = freeHead;
+            freeHead = next[slot];
+        } else {
+            ensureCapacity(slotLimit + 1);
+            slot = slotLimit++;
+        }
+        uris[slot] = uri;
+        size++;
+        generation++;
+        return slot;
+    }
+
+    private void link(int slot, int before, int after) {
+        prev[slot] = before;
+        next[slot] = after;
+        if (before == NONE) head = slot; else next[before] = slot;
+        if (after == NONE) tail = slot; else prev[after] = slot;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= uris.length) return;
+        int capacity = Math.max(needed, uris.length * 2);
+        uris = java.util.Arrays.copyOf(uris, capacity);
+        next = java.util.Arrays.copyOf(next, capacity);
+        prev = java.util.Arrays.copyOf(prev, capacity);
+        if (pool != null) {
+            pool = java.util.Arrays.copyOf(pool, Math.max(pool.length, capacity));
+            poolPos = java.util.Arrays.copyOf(poolPos, capacity);
+        }
+    }
+
+    // ---- 持久化 ----
+
+    // 主线程上只做数组拷贝（memcpy 级别），编码和写文件交给后台
+    public static final class Snapshot {
+        final long generation;
+        // withItems 为 false 时下面三个为 null，只保存播放位置
+        final Uri[] uris;
+        final int[] next;
+        final int head;
+        final int current;
+        final boolean shuffle;
+        final int[] decidedSlots; // 随机模式下已定的播放顺序，含 NONE 墓碑
+        final int shufflePos;
+
+        Snapshot(PlayQueue q, boolean withItems) {
+            generation = q.generation;
+            uris = withItems ? java.util.Arrays.copyOf(q.uris, q.slotLimit) : null;
+            next = withItems ? java.util.Arrays.copyOf(q.next, q.slotLimit) : null;
+            head = q.head;
+            current = q.current;
+            shuffle = q.shuffle;
+            decidedSlots = q.shuffle ? java.util.Arrays.copyOf(q.pool, q.decided) : null;
+            shufflePos = q.shufflePos;
+        }
+    }
+
+    public Snapshot snapshot(boolean withItems) {
+        return new Snapshot(this, withItems);
+    }
+
+    // 按文件里的槽位号重建，这样保存的播放位置（槽位号）不需要换算
+    static PlayQueue restore(int[] slots, Uri[] items, long generation) {
+        PlayQueue q = new PlayQueue();
+        int limit = 0;
+        for (int slot : slots) {
+            limit = Math.max(limit, slot + 1);
+        }
+        q.ensureCapacity(limit);
+        q.slotLimit = limit;
+        for (int i = 0; i < slots.length; i++) {
+            q.uris[slots[i]] = items[i];
+            q.link(slots[i], q.tail, NONE);
+        }
+        for (int slot = limit - 1; slot >= 0; slot--) {
+            if (q.uris[slot] == null) {
+                q.next[slot] = q.freeHead;
+                q.freeHead = slot;
+            }
+        }
+        q.size = slots.length;
+        q.current = q.head;
+        q.generation = generation;
+        return q;
+    }
+
+    // 播放位置和曲目列表不是同一代时（两次写之间进程被杀）只恢复到第一首
+    void restoreState(long stateGeneration, int savedCurrent, boolean savedShuffle, int[] decidedSlots, int savedShufflePos) {
+        if (stateGeneration != generation) return;
+        if (savedCurrent >= 0 && savedCurrent < slotLimit && uris[savedCurrent] != null) {
+            current = savedCurrent;
+        }
+        if (!savedShuffle) return;
+        shuffle = true;
+        rebuildPool();
+        // rebuildPool 已经把 current 放在第 0 位，按保存的顺序重新抽定历史
+        decided = 0;
+        shufflePos = -1;
+        for (int i = 0; i < decidedSlots.length; i++) {
+            int slot = decidedSlots[i];
+            if (slot < 0 || slot >= slotLimit || uris[slot] == null || poolPos[slot] < decided) continue;
+            decide(poolPos[slot]);
+            if (i <= savedShufflePos) shufflePos = decided - 1;
+        }
+        if (current != NONE && (shufflePos < 0 || pool[shufflePos] != current)) {
+            moveTo(current);
+        }
+    }
+}
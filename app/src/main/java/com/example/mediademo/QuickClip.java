@@ -0,0 +1,389 @@
+package com.example.mediademo;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 只在内存里的短片段录音
+ *
+ * 一分钟以内的随手录，走 take 文件要写闪存、再整理，比录音本身还慢；这里把数据追加到一串定长的堆外块里，
+ * 块从进程内的池子里借，总量有硬上限（MAX_BYTES），到上限自动停止
+ * 录完马上可以用 AudioTrack 从内存播放；用户保留时才写盘：头部加所有块一次 gathering FileChannel.write，
+ * 丢弃的片段从头到尾不碰闪存，块直接还回池子
+ * 录音线程独占 append，结束后（Recorder 回调 onFinished 之后）才能 play/writeTo/release
+ * release 可以在播放途中调用：Player 线程可能还在 AudioTrack.write 里读块，块要等它退出后才还回池子
+ */
+public final class QuickClip {
+    private static final String TAG = "QuickClip";
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final long MAX_BYTES = 16L * 1024 * 1024; // 48 kHz 立体声 16 位约 87 秒
+    private static final int POOL_RETAIN = 32; // 空闲时最多留 2MB，其余交给 GC
+
+    private static final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private static int pooledTotal; // 当前借出 + 空闲的块数，用于 dump
+    private static boolean poolRegistered;
+
+    public final int sampleRate;
+    public final int channels;
+    public final int bitsPerSample;
+    private final long maxBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long size;
+    private boolean full;
+    private boolean released; // 受 this 锁保护
+    private int readers; // 还没退出的 Player 线程数，受 this 锁保护
+
+    public QuickClip(int sampleRate, int channels, int bitsPerSample, long maxBytes) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        // 上限按帧对齐，保留的片段不会以半帧结尾
+        int blockAlign = channels * bitsPerSample / 8;
+        this.maxBytes = maxBytes - maxBytes % blockAlign;
+    }
+
+    private static ByteBuffer borrow() {
+        synchronized (pool) {
+            if (!poolRegistered) {
+                poolRegistered = true;
+                MemoryGovernor.get().register("片段块池", MemoryGovernor.PRIORITY_POOL, new MemoryGovernor.Consumer() {
+                    @Override
+                    public long sizeBytes() {
+                        return idleBytes();
+                    }
+
+                    @Override
+                    public long trim(int level) {
+                        return trimPool();
+                    }
+                });
+            }
+            ByteBuffer chunk = pool.pollFirst();
+            if (chunk != null) {
+                chunk.clear();
+                return chunk;
+            }
+            pooledTotal++;
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void giveBack(ByteBuffer chunk) {
+        synchronized (pool) {
+            if (pool.size() < POOL_RETAIN) {
+                pool.addFirst(chunk);
+            } else {
+                pooledTotal--;
+                return;
+            }
+        }
+        MemoryGovernor.get().notifyGrew();
+    }
+
+    static long idleBytes() {
+        synchronized (pool) {
+            return (long) pool.size() * CHUNK_SIZE;
+        }
+    }
+
+    // 借出中的块属于正在录制或等待保留的片段，不算在池里
+    static long inUseBytes() {
+        synchronized (pool) {
+            return (long) (pooledTotal - pool.size()) * CHUNK_SIZE;
+        }
+    }
+
+    // 空闲块全部交给 GC，下次录片段时重新分配
+    static long trimPool() {
+        synchronized (pool) {
+            long freed = (long) pool.size() * CHUNK_SIZE;
+            pooledTotal -= pool.size();
+            pool.clear();
+            return freed;
+        }
+    }
+
+    public static String poolSummary() {
+        synchronized (pool) {
+            return "块 " + CHUNK_SIZE / 1024 + " KB, 使用中 " + (pooledTotal - pool.size()) + ", 空闲 " + pool.size();
+        }
+    }
+
+    // 录音线程调用；返回实际收下的字节数，小于 length 表示已经到内存上限
+    public int append(byte[] data, int offset, int length) {
+        int accepted = (int) Math.min(length, maxBytes - size);
+        int remaining = accepted;
+        while (remaining > 0) {
+            ByteBuffer last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (last == null || !last.hasRemaining()) {
+                last = borrow();
+                chunks.add(last);
+            }
+            int n = Math.min(remaining, last.remaining());
+            last.put(data, offset, n);
+            offset += n;
+            remaining -= n;
+        }
+        size += accepted;
+        if (size >= maxBytes) full = true;
+        return accepted;
+    }
+
+    public long dataBytes() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public long durationMs() {
+        long bytesPerSecond = (long) sampleRate * channels * bitsPerSample / 8;
+        return bytesPerSecond > 0 ? size * 1000 / bytesPerSecond : 0;
+    }
+
+    // 每个块已写入部分的只读视图，互不影响 position，可以同时播放和写盘
+    private ByteBuffer[] views(int extraFront) {
+        ByteBuffer[] views = new ByteBuffer[extraFront + chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuffer view = chunks.get(i).asReadOnlyBuffer();
+            view.flip();
+            views[extraFront + i] = view;
+        }
+        return views;
+    }
+
+    // 写成标准 wav：头部和全部数据块一次 gathering write，返回数据字节数
+    public long writeTo(File target) throws IOException {
+        synchronized (this) {
+            if (released) throw new IllegalStateException("片段已经释放");
+        }
+        long start = System.nanoTime();
+        ByteBuffer[] buffers = views(1);
+        buffers[0] = WavHeader.build(size, sampleRate, channels, bitsPerSample);
+        long total = WavHeader.HEADER_SIZE + size;
+        long written = 0;
+        int calls = 0;
+        try (FileOutputStream out = new FileOutputStream(target);
+             FileChannel channel = out.getChannel()) {
+            int first = 0;
+            while (written < total) {
+                written += channel.write(buffers, first, buffers.length - first);
+                calls++;
+                while (first < buffers.length && !buffers[first].hasRemaining()) first++;
+            }
+            channel.force(false);
+        }
+        Log.d(TAG, "保留片段 " + target.getName() + ": " + chunks.size() + " 块, " + size / 1024 + " KB, "
+                + calls + " 次 write, " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return size;
+    }
+
+    // 之后不能再播放或写盘；还有 Player 在读时，块由最后一个退出的 Player 还回池子
+    public void release() {
+        synchronized (this) {
+            if (released) return;
+            released = true;
+            if (readers > 0) return;
+        }
+        returnChunks();
+    }
+
+    // Player 开始读块之前登记；片段已经释放时返回 false
+    private synchronized boolean acquireReader() {
+        if (released) return false;
+        readers++;
+        return true;
+    }
+
+    // Player 线程退出（或者没能启动）时调用
+    private void releaseReader() {
+        synchronized (this) {
+            if (--readers > 0 || !released) return;
+        }
+        returnChunks();
+    }
+
+    // 没有读者、也不会再有新读者之后才调用，只会执行一次
+    private void returnChunks() {
+        for (ByteBuffer chunk : chunks) giveBack(chunk);
+        chunks.clear();
+    }
+
+    // 录音线程：从数据源读到片段里，直到 requestStop、数据结束或到内存上限
+    public static final class Recorder implements Runnable {
+        public interface Listener {
+            // 0-100 的电平，已经限频
+            void onLevel(int level);
+
+            // 录音线程上回调，数据源已释放
+            void onFinished(QuickClip clip, boolean failed);
+        }
+
+        private static final long LEVEL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+        private final AudioSource source;
+        private final QuickClip clip;
+        private final int bufferSize;
+        private final Listener listener;
+        private volatile boolean stopRequested;
+
+        public Recorder(AudioSource source, QuickClip clip, int bufferSize, Listener listener) {
+            this.source = source;
+            this.clip = clip;
+            this.bufferSize = bufferSize;
+            this.listener = listener;
+        }
+
+        public void start() {
+            new Thread(this, "QuickClip").start();
+        }
+
+        // 任意线程调用，立即返回
+        public void requestStop() {
+            stopRequested = true;
+            source.interrupt();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            boolean failed = false;
+            try {
+                source.start();
+                byte[] data = new byte[bufferSize];
+                long lastLevelNanos = 0;
+                while (!stopRequested) {
+                    int read = source.read(data, 0, bufferSize);
+                    if (read < 0) {
+                        if (read != AudioSource.END_OF_STREAM) {
+                            Log.e(TAG, "读取音频数据失败，错误码: " + read);
+                            failed = true;
+                        }
+                        break;
+                    }
+                    if (read == 0) continue;
+                    if (clip.append(data, 0, read) < read) {
+                        Log.w(TAG, "片段达到内存上限 " + clip.maxBytes / 1024 + " KB，自动停止");
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    if (now - lastLevelNanos > LEVEL_INTERVAL_NANOS) {
+                        listener.onLevel(CaptureEngine.computeLevel(data, read));
+                        lastLevelNanos = now;
+                    }
+                }
+                source.stop();
+            } catch (IOException e) {
+                Log.e(TAG, "无法开始录音", e);
+                failed = true;
+            } finally {
+                source.release();
+            }
+            Log.d(TAG, "片段录音结束: " + clip.durationMs() + " ms, " + clip.dataBytes() / 1024 + " KB");
+            listener.onFinished(clip, failed);
+        }
+    }
+
+    // 从内存播放：AudioTrack 流模式，直接写堆外块的视图，不拷贝
+    public static final class Player implements Runnable {
+        private final QuickClip clip;
+        private volatile boolean stopRequested;
+        private AudioTrack track;
+
+        public Player(QuickClip clip) {
+            this.clip = clip;
+        }
+
+        public boolean start() {
+            if (!clip.acquireReader()) return false;
+            int channelMask = clip.channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+            int encoding = clip.bitsPerSample == 8 ? AudioFormat.ENCODING_PCM_8BIT : AudioFormat.ENCODING_PCM_16BIT;
+            int minBuffer = AudioTrack.getMinBufferSize(clip.sampleRate, channelMask, encoding);
+            if (minBuffer <= 0 || clip.channels > 2) {
+                Log.e(TAG, "不支持播放这个格式: " + clip.sampleRate + "/" + clip.channels + "/" + clip.bitsPerSample);
+                clip.releaseReader();
+                return false;
+            }
+            track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(clip.sampleRate)
+                            .setChannelMask(channelMask)
+                            .setEncoding(encoding)
+                            .build())
+                    .setBufferSizeInBytes(minBuffer * 2)
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .build();
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                track.release();
+                clip.releaseReader();
+                return false;
+            }
+            new Thread(this, "QuickClipPlayer").start();
+            return true;
+        }
+
+        // 任意线程调用；AudioTrack.pause 让阻塞中的 write 立即返回
+        public synchronized void requestStop() {
+            stopRequested = true;
+            if (track != null) {
+                track.pause();
+                track.flush();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                track.play();
+                for (ByteBuffer view : clip.views(0)) {
+                    while (view.hasRemaining() && !stopRequested) {
+                        int n = track.write(view, view.remaining(), AudioTrack.WRITE_BLOCKING);
+                        if (n < 0) {
+                            Log.e(TAG, "AudioTrack.write 失败: " + n);
+                            stopRequested = true;
+                        } else if (n == 0 && !stopRequested) {
+                            stopRequested = true; // 被 pause 打断
+                        }
+                    }
+                    if (stopRequested) break;
+                }
+                // 流模式下数据写完时还在 AudioTrack 的缓冲区里，等播放位置走到末尾再释放
+                long frames = clip.size / (clip.channels * clip.bitsPerSample / 8);
+                while (!stopRequested && (track.getPlaybackHeadPosition() & 0xFFFFFFFFL) < frames) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    track.stop();
+                    track.release();
+                    track = null;
+                }
+                // 不再读块，丢弃或保留时推迟的 release 在这里完成
+                clip.releaseReader();
+            }
+        }
+    }
+}
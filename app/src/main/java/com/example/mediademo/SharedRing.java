@@ -0,0 +1,160 @@
+package com.example.mediademo;
+
+import android.os.Build;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * 跨进程的单写多读环形缓冲区，放在 SharedMemory 里
+ *
+ * 录音进程每计算出一次电平（以后还有频谱帧）就写一条定长记录，界面进程按帧去读，
+ * 整个过程没有 binder 事务，也不产生 Intent/Bundle 之类的垃圾对象；读者慢了只会跳过旧记录
+ *
+ * 布局（本机字节序）：
+ *   0  int  MAGIC
+ *   4  int  payloadInts   每条记录的负载长度
+ *   8  int  capacity      记录条数，2 的幂
+ *   16 long written       已经写完的记录数
+ *   24 记录：long seq, long timeNanos, int[payloadInts]（补齐到 8 字节）
+ * 每条记录用自己的 seq 做 seqlock：写之前置为奇数，写完置为 2 * (index + 1)，读者前后两次读到同一个偶数才算有效
+ * ByteBuffer 本身没有内存屏障，这里借 volatile 字段先写后读（arm64 上是 stlr + ldar）当作全屏障
+ */
+public final class SharedRing {
+    private static final String TAG = "SharedRing";
+    private static final int MAGIC = 0x52494e47; // "RING"
+    private static final int HEADER_SIZE = 24;
+    private static final int OFFSET_WRITTEN = 16;
+
+    private static volatile int barrier;
+
+    private final SharedMemory memory;
+    private final ByteBuffer buffer;
+    private final int payloadInts;
+    private final int capacity;
+    private final int recordSize;
+    private long written; // 只有写者使用
+
+    private SharedRing(SharedMemory memory, ByteBuffer buffer) {
+        this.memory = memory;
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.payloadInts = this.buffer.getInt(4);
+        this.capacity = this.buffer.getInt(8);
+        this.recordSize = recordSize(payloadInts);
+    }
+
+    private static int recordSize(int payloadInts) {
+        return 16 + ((payloadInts * 4 + 7) & ~7);
+    }
+
+    // 写者进程创建；API 27 以下没有 SharedMemory，返回 null
+    public static SharedRing create(String name, int payloadInts, int capacity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) return null;
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity 必须是 2 的幂");
+        try {
+            SharedMemory memory = SharedMemory.create(name, HEADER_SIZE + capacity * recordSize(payloadInts));
+            ByteBuffer buffer = memory.mapReadWrite().order(ByteOrder.nativeOrder());
+            buffer.putInt(4, payloadInts);
+            buffer.putInt(8, capacity);
+            buffer.putLong(OFFSET_WRITTEN, 0);
+            buffer.putInt(0, MAGIC);
+            return new SharedRing(memory, buffer);
+        } catch (ErrnoException e) {
+            Log.e(TAG, "无法创建共享内存: " + name, e);
+            return null;
+        }
+    }
+
+    // 读者进程用对方传过来的 SharedMemory 映射只读视图；格式不对时返回 null
+    public static SharedRing attach(SharedMemory memory) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1 || memory == null) return null;
+        try {
+            ByteBuffer buffer = memory.mapReadOnly().order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC) {
+                SharedMemory.unmap(buffer);
+                return null;
+            }
+            return new SharedRing(memory, buffer);
+        } catch (ErrnoException e) {
+            Log.e(TAG, "无法映射共享内存", e);
+            return null;
+        }
+    }
+
+    public SharedMemory memory() {
+        return memory;
+    }
+
+    public int payloadInts() {
+        return payloadInts;
+    }
+
+    private static void fence() {
+        barrier = 0;
+        int ignored = barrier;
+    }
+
+    // 单个写者调用，不分配内存
+    public void write(long timeNanos, int[] payload) {
+        long index = written;
+        int offset = HEADER_SIZE + (int) (index & (capacity - 1)) * recordSize;
+        buffer.putLong(offset, 2 * index + 1);
+        fence();
+        buffer.putLong(offset + 8, timeNanos);
+        for (int i = 0; i < payloadInts; i++) {
+            buffer.putInt(offset + 16 + i * 4, payload[i]);
+        }
+        fence();
+        buffer.putLong(offset, 2 * (index + 1));
+        fence();
+        written = index + 1;
+        buffer.putLong(OFFSET_WRITTEN, written);
+    }
+
+    // 已经写完的记录数，读者用它判断有没有新数据
+    public long written() {
+        long count = buffer.getLong(OFFSET_WRITTEN);
+        fence();
+        return count;
+    }
+
+    // 读第 index 条记录到 out，返回它的时间戳；还没写到或已经被覆盖时返回 -1
+    public long read(long index, int[] out) {
+        if (index < 0) return -1;
+        int offset = HEADER_SIZE + (int) (index & (capacity - 1)) * recordSize;
+        long expected = 2 * (index + 1);
+        long seq = buffer.getLong(offset);
+        fence();
+        if (seq != expected) return -1;
+        long timeNanos = buffer.getLong(offset + 8);
+        for (int i = 0; i < payloadInts; i++) {
+            out[i] = buffer.getInt(offset + 16 + i * 4);
+        }
+        fence();
+        return buffer.getLong(offset) == expected ? timeNanos : -1;
+    }
+
+    // 读最新一条，写者正好在写时退回上一条；没有数据时返回 -1
+    public long readLatest(int[] out) {
+        long count = written();
+        for (long index = count - 1; index >= 0 && index >= count - 2; index--) {
+            long timeNanos = read(index, out);
+            if (timeNanos >= 0) return timeNanos;
+        }
+        return -1;
+    }
+
+    // 写者用：解除映射并关闭共享内存
+    public void close() {
+        SharedMemory.unmap(buffer);
+        memory.close();
+    }
+
+    // 读者用：只解除自己的映射；同进程时拿到的是写者的同一个 SharedMemory 对象，不能关闭
+    public void detach() {
+        SharedMemory.unmap(buffer);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.mediademo;
+
+import java.util.Random;
+
+/*
+ * 16bit pcm 信号发生器：正弦、白噪声、静音、突发（200ms 正弦 + 800ms 静音循环）
+ * 噪声用固定种子，两次运行的数据完全一样，方便对比写盘和分析结果
+ * durationMs < 0 表示无限长，直到 stop
+ */
+public class SignalAudioSource implements AudioSource {
+    public enum Kind { SINE, NOISE, SILENCE, BURSTS }
+
+    private static final int BURST_ON_MS = 200;
+    private static final int BURST_PERIOD_MS = 1000;
+
+    private final Kind kind;
+    private final int sampleRate;
+    private final int channels;
+    private final double amplitude; // 0~1，相对满量程
+    private final double frequencyHz;
+    private final long totalFrames;
+    private final SourcePacer pacer;
+    private final Random random = new Random(42);
+
+    private long frame; // 已生成的帧数
+    private double phase;
+
+    public SignalAudioSource(Kind kind, int sampleRate, int channels, double amplitude, double frequencyHz,
+                             long durationMs, boolean realtime) {
+        this.kind = kind;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.amplitude = amplitude;
+        this.frequencyHz = frequencyHz;
+        this.totalFrames = durationMs < 0 ? Long.MAX_VALUE : durationMs * sampleRate / 1000;
+        this.pacer = new SourcePacer(sampleRate * channels * 2, realtime);
+    }
+
+    public SignalAudioSource setJitter(long jitterMs) {
+        pacer.setJitter(jitterMs);
+        return this;
+    }
+
+    public SignalAudioSource setStalls(long everyMs, long durationMs) {
+        pacer.setStalls(everyMs, durationMs);
+        return this;
+    }
+
+    // 模拟采样时钟偏差，用来验证多路对齐的漂移校正
+    public SignalAudioSource setClockDriftPpm(double ppm) {
+        pacer.setClockDriftPpm(ppm);
+        return this;
+    }
+
+    @Override
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int channels() {
+        return channels;
+    }
+
+    @Override
+    public int bitsPerSample() {
+        return 16;
+    }
+
+    @Override
+    public void start() {
+        frame = 0;
+        phase = 0;
+        pacer.start();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (pacer.isStopped() || frame >= totalFrames) return END_OF_STREAM;
+        int frameBytes = channels * 2;
+        long frames = Math.min(length / frameBytes, totalFrames - frame);
+        if (frames <= 0) return 0;
+        int bytes = (int) frames * frameBytes;
+        if (!pacer.await(frame * frameBytes, bytes)) return END_OF_STREAM;
+
+        double step = 2 * Math.PI * frequencyHz / sampleRate;
+        double scale = amplitude * 32767;
+        long burstOnFrames = (long) sampleRate * BURST_ON_MS / 1000;
+        long burstPeriodFrames = (long) sampleRate * BURST_PERIOD_MS / 1000;
+        int pos = offset;
+        for (long i = 0; i < frames; i++, frame++) {
+            double value;
+            switch (kind) {
+                case SINE:
+                    value = Math.sin(phase) * scale;
+                    break;
+                case NOISE:
+                    value = (random.nextDouble() * 2 - 1) * scale;
+                    break;
+                case BURSTS:
+                    value = frame % burstPeriodFrames < burstOnFrames ? Math.sin(phase) * scale : 0;
+                    break;
+                default:
+                    value = 0;
+                    break;
+            }
+            phase += step;
+            if (phase > 2 * Math.PI) phase -= 2 * Math.PI;
+            short sample = (short) Math.round(value);
+            for (int c = 0; c < channels; c++) {
+                buffer[pos++] = (byte) sample;
+                buffer[pos++] = (byte) (sample >> 8);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return pacer.isRealtime();
+    }
+
+    @Override
+    public boolean timestamp(long[] out) {
+        out[0] = frame;
+        out[1] = pacer.nanosForByte(frame * channels * 2);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        pacer.stop();
+    }
+
+    @Override
+    public void interrupt() {
+        pacer.stop();
+    }
+
+    @Override
+    public void release() {
+        pacer.stop();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.mediademo;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * 合成数据源的节奏控制
+ *
+ * 实时模式下按已交付的字节数换算成时间，等墙上时钟追上再返回，行为接近真实麦克风；
+ * 非实时模式不等待，几小时的音频几秒内就能推完
+ * 两种模式都可以叠加抖动（每次 read 随机多等 0~jitterMs）和卡顿（每隔 stallEveryMs 的音频停 stallMs），
+ * 实时模式下卡顿之后会像真实设备一样一次性吐出积压的数据
+ * 两种模式都提供一个虚拟采样时钟（nanosForByte），多路对齐按它计算；clockScale 偏离 1 时模拟晶振漂移
+ */
+final class SourcePacer {
+    private final long bytesPerSecond;
+    private final boolean realtime;
+    private double clockScale = 1.0; // 实际速率 / 标称速率
+    private final Random random = new Random(1);
+    private long jitterMs;
+    private long stallEveryMs;
+    private long stallMs;
+
+    private long startNanos;
+    private long nextStallBytes = Long.MAX_VALUE;
+    private volatile boolean stopped;
+    private volatile Thread waiter;
+
+    SourcePacer(int bytesPerSecond, boolean realtime) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.realtime = realtime;
+    }
+
+    void setJitter(long jitterMs) {
+        this.jitterMs = jitterMs;
+    }
+
+    void setStalls(long everyMs, long durationMs) {
+        this.stallEveryMs = everyMs;
+        this.stallMs = durationMs;
+    }
+
+    void setClockDriftPpm(double ppm) {
+        this.clockScale = 1.0 + ppm * 1e-6;
+    }
+
+    // 第 bytes 个字节在虚拟采样时钟上的时间
+    long nanosForByte(long bytes) {
+        return startNanos + (long) (bytes * 1e9 / (bytesPerSecond * clockScale));
+    }
+
+    void start() {
+        stopped = false;
+        startNanos = System.nanoTime();
+        nextStallBytes = stallEveryMs > 0 ? bytesForMs(stallEveryMs) : Long.MAX_VALUE;
+    }
+
+    // read 之前调用，delivered 是此前已经交付的字节数，length 是本次要交付的字节数；返回 false 表示已被 stop
+    boolean await(long delivered, int length) {
+        long extraNanos = 0;
+        if (jitterMs > 0) {
+            extraNanos += TimeUnit.MILLISECONDS.toNanos((long) (random.nextDouble() * jitterMs));
+        }
+        if (delivered >= nextStallBytes) {
+            nextStallBytes += bytesForMs(stallEveryMs);
+            extraNanos += TimeUnit.MILLISECONDS.toNanos(stallMs);
+            if (realtime) {
+                // 卡顿推迟的是数据到达，不是采样时钟，下一次 read 会补回积压
+                parkUntil(System.nanoTime() + extraNanos);
+                extraNanos = 0;
+            }
+        }
+        long deadline = System.nanoTime() + extraNanos;
+        if (realtime) {
+            deadline = Math.max(deadline, nanosForByte(delivered + length));
+        }
+        parkUntil(deadline);
+        return !stopped;
+    }
+
+    void stop() {
+        stopped = true;
+        Thread t = waiter;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    boolean isRealtime() {
+        return realtime;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    private void parkUntil(long deadline) {
+        waiter = Thread.currentThread();
+        try {
+            long remaining;
+            while (!stopped && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    private long bytesForMs(long ms) {
+        return bytesPerSecond * ms / 1000;
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.mediademo;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * 已整理完的 wav take 的离线频谱图，切成定长的量化瓦片，按缩放级别组成金字塔存在一个缓存文件里
+ *
+ * 第 0 级每一列是 COLUMN_FRAMES 帧：两个 FFT_SIZE 点的 Hann 窗 FFT 的平均功率，每 BINS_PER_ROW 个频点取最大值合成一行，
+ * 换算成 dB 后量化到一个字节（MIN_DB..0 dBFS -> 0..255）；多声道先混成单声道
+ * 第 L+1 级的一列是第 L 级相邻两列的最大值，一直合并到整段只剩一个瓦片；任何缩放下的画面都只需读几个瓦片
+ * 第 0 级按时间范围拆成 ForkJoin 任务，每个叶子任务只映射自己那一段数据区（MappedByteBuffer），自己预先分配一个 FFT 和瓦片缓冲区，
+ * 互不共享可变状态；各个瓦片用定位写写进固定槽位，不需要加锁
+ * 缓存文件：头部 + 每个瓦片一个状态字节 + 按 4KB 对齐的瓦片槽位（列优先，每列 ROWS 字节）
+ * 状态字节只在 checkpoint 时写回：锁内拷贝一份，锁外先 force 瓦片数据再写，进程被杀或取消后再次 generate 只补算没完成的瓦片
+ */
+public final class SpectrogramTiles implements Closeable {
+    private static final String TAG = "SpectrogramTiles";
+    private static final int MAGIC = 0x5350_4731; // "SPG1"
+    public static final int FFT_SIZE = 1024;
+    public static final int COLUMN_FRAMES = 2 * FFT_SIZE;
+    private static final int BINS_PER_ROW = 4;
+    public static final int ROWS = FFT_SIZE / 2 / BINS_PER_ROW;
+    public static final int TILE_COLUMNS = 256;
+    public static final int TILE_BYTES = ROWS * TILE_COLUMNS;
+    private static final double MIN_DB = -120;
+    private static final int HEADER_SIZE = 44;
+    private static final int SLOT_ALIGN = 4096;
+    private static final int LEAF_TILES = 4; // 叶子任务最多算几个瓦片：立体声 48k 时映射 8MB
+    private static final int CHECKPOINT_TILES = 64;
+
+    public interface Listener {
+        // 在 ForkJoin 工作线程上回调，瓦片已经可以用 readTile 读取
+        void onTileReady(int level, int index);
+    }
+
+    private final File cacheFile;
+    private final FileChannel source;
+    private final FileChannel cache;
+    private final WavHeader.Info info;
+    private final long columns;
+    private final int[] levelStart; // 每一级第一个瓦片在状态数组和槽位里的序号，最后一个元素是瓦片总数
+    private final long slotsOffset;
+    private final byte[] ready; // 受 this 锁保护
+    private int readyCount;
+    private int sinceCheckpoint;
+    private final Object checkpointLock = new Object(); // checkpoint 一个接一个做，旧快照不会盖掉新快照
+
+    private SpectrogramTiles(File cacheFile, FileChannel source, FileChannel cache, WavHeader.Info info) {
+        this.cacheFile = cacheFile;
+        this.source = source;
+        this.cache = cache;
+        this.info = info;
+        long frames = info.dataLength / info.blockAlign();
+        this.columns = (frames + COLUMN_FRAMES - 1) / COLUMN_FRAMES;
+        int[] starts = new int[32];
+        int levels = 0;
+        long count = (columns + TILE_COLUMNS - 1) / TILE_COLUMNS;
+        while (count > 0) {
+            starts[levels + 1] = (int) (starts[levels] + count);
+            levels++;
+            if (count == 1) break;
+            count = (count + 1) / 2;
+        }
+        this.levelStart = Arrays.copyOf(starts, levels + 1);
+        this.ready = new byte[levelStart[levels]];
+        long slots = HEADER_SIZE + ready.length;
+        this.slotsOffset = (slots + SLOT_ALIGN - 1) / SLOT_ALIGN * SLOT_ALIGN;
+    }
+
+    // 缓存文件和 wav 对不上（格式、长度或修改时间变了）时清空重建
+    public static SpectrogramTiles open(File cacheFile, File wav) throws IOException {
+        RandomAccessFile sourceFile = new RandomAccessFile(wav, "r");
+        RandomAccessFile cacheRaf = null;
+        try {
+            FileChannel source = sourceFile.getChannel();
+            WavHeader.Info info = WavHeader.parse(source);
+            if (info.bitsPerSample != 8 && info.bitsPerSample != 16) {
+                throw new IOException("只支持 8/16 位 pcm: " + wav);
+            }
+            cacheRaf = new RandomAccessFile(cacheFile, "rw");
+            SpectrogramTiles tiles = new SpectrogramTiles(cacheFile, source, cacheRaf.getChannel(), info);
+            tiles.loadOrReset(wav.lastModified());
+            return tiles;
+        } catch (IOException | RuntimeException e) {
+            sourceFile.close();
+            if (cacheRaf != null) cacheRaf.close();
+            throw e;
+        }
+    }
+
+    private void loadOrReset(long sourceModified) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (cache.size() >= slotsOffset && cache.read(header, 0) == HEADER_SIZE) {
+            header.flip();
+            if (header.getInt() == MAGIC && header.getInt() == info.sampleRate && header.getShort() == info.channels
+                    && header.getShort() == info.bitsPerSample && header.getLong() == info.dataLength
+                    && header.getLong() == sourceModified && header.getLong() == columns
+                    && header.getInt() == levels() && header.getInt() == ready.length) {
+                ByteBuffer status = ByteBuffer.wrap(ready);
+                while (status.hasRemaining() && cache.read(status, HEADER_SIZE + status.position()) > 0) {
+                }
+                for (byte b : ready) readyCount += b;
+                Log.d(TAG, "继续使用缓存 " + cacheFile.getName() + ": " + readyCount + "/" + ready.length + " 块");
+                return;
+            }
+        }
+        cache.truncate(0);
+        header.clear();
+        header.putInt(MAGIC).putInt(info.sampleRate).putShort((short) info.channels).putShort((short) info.bitsPerSample)
+                .putLong(info.dataLength).putLong(sourceModified).putLong(columns).putInt(levels()).putInt(ready.length);
+        header.flip();
+        while (header.hasRemaining()) {
+            cache.write(header, header.position());
+        }
+        // 状态区全 0；瓦片槽位不预先写，文件按需变长
+        cache.write(ByteBuffer.wrap(ready), HEADER_SIZE);
+    }
+
+    public int levels() {
+        return levelStart.length - 1;
+    }
+
+    public int tileCount(int level) {
+        return levelStart[level + 1] - levelStart[level];
+    }
+
+    public int sampleRate() {
+        return info.sampleRate;
+    }
+
+    // 第 level 级每一列代表多少毫秒
+    public double msPerColumn(int level) {
+        return (double) COLUMN_FRAMES * (1L << level) * 1000 / info.sampleRate;
+    }
+
+    // 每个像素要显示 msPerPixel 毫秒时用哪一级：列不比像素宽的最粗一级
+    public int levelFor(double msPerPixel) {
+        int level = 0;
+        while (level + 1 < levels() && msPerColumn(level + 1) <= msPerPixel) level++;
+        return level;
+    }
+
+    // 覆盖 ms 这个时间点的瓦片序号
+    public int tileAt(int level, long ms) {
+        long column = (long) (ms / msPerColumn(level));
+        return (int) Math.max(0, Math.min(tileCount(level) - 1, column / TILE_COLUMNS));
+    }
+
+    public synchronized boolean isTileReady(int level, int index) {
+        return ready[levelStart[level] + index] != 0;
+    }
+
+    public synchronized boolean isComplete() {
+        return readyCount == ready.length;
+    }
+
+    // out 至少 TILE_BYTES，列优先：第 c 列第 r 行（0 是最低频）在 out[c * ROWS + r]；瓦片还没算好时返回 false
+    public boolean readTile(int level, int index, byte[] out) throws IOException {
+        if (!isTileReady(level, index)) return false;
+        ByteBuffer buffer = ByteBuffer.wrap(out, 0, TILE_BYTES);
+        long position = slotPosition(level, index);
+        while (buffer.hasRemaining()) {
+            if (cache.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("频谱缓存被截断: " + cacheFile);
+            }
+        }
+        return true;
+    }
+
+    private long slotPosition(int level, int index) {
+        return slotsOffset + (long) (levelStart[level] + index) * TILE_BYTES;
+    }
+
+    /*
+     * 补算所有没完成的瓦片，先第 0 级再逐级向上；可以在 pool 之外的任意后台线程调用，阻塞到结束
+     * cancelled 置位后各任务在下一列返回，已完成的瓦片照常保存；返回 true 表示整个金字塔已完成
+     */
+    public boolean generate(ForkJoinPool pool, AtomicBoolean cancelled, Listener listener) throws IOException {
+        if (isComplete()) return true;
+        long start = System.nanoTime();
+        int before;
+        synchronized (this) {
+            before = readyCount;
+        }
+        try {
+            for (int level = 0; level < levels() && !cancelled.get(); level++) {
+                pool.invoke(new RangeTask(level, 0, tileCount(level), cancelled, listener));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            checkpoint();
+        }
+        synchronized (this) {
+            Log.d(TAG, (cancelled.get() ? "已取消 " : "完成 ") + cacheFile.getName() + ": 本次 " + (readyCount - before)
+                    + " 块, 共 " + readyCount + "/" + ready.length + " 块, " + (System.nanoTime() - start) / 1_000_000 + " ms, 并行度 "
+                    + pool.getParallelism());
+        }
+        return isComplete();
+    }
+
+    private void markReady(int level, int index, Listener listener) throws IOException {
+        boolean due;
+        synchronized (this) {
+            ready[levelStart[level] + index] = 1;
+            readyCount++;
+            due = ++sinceCheckpoint >= CHECKPOINT_TILES;
+        }
+        if (due) checkpoint();
+        if (listener != null) listener.onTileReady(level, index);
+    }
+
+    // 先让瓦片数据落盘，再写状态字节；否则掉电后可能有标记为完成、内容却是空的瓦片
+    // 锁内只拷贝状态，force 在锁外做，其它任务的 markReady 和界面的 isTileReady 不用等存储；
+    // 快照里标记完成的瓦片在标记之前就写完了，拷贝之后再 force 一样能保证先数据后状态
+    private void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            byte[] snapshot;
+            synchronized (this) {
+                if (sinceCheckpoint == 0) return;
+                sinceCheckpoint = 0;
+                snapshot = ready.clone();
+            }
+            cache.force(false);
+            ByteBuffer status = ByteBuffer.wrap(snapshot);
+            while (status.hasRemaining()) {
+                cache.write(status, HEADER_SIZE + status.position());
+            }
+        }
+    }
+
+    public synchronized String summary() {
+        return cacheFile.getName() + ": " + readyCount + "/" + ready.length + " 块, " + levels() + " 级";
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            cache.close();
+        }
+    }
+
+    private void writeTile(int level, int index, byte[] tile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(tile);
+        long position = slotPosition(level, index);
+        while (buffer.hasRemaining()) {
+            cache.write(buffer, position + buffer.position());
+        }
+    }
+
+    // 一段连续的瓦片；大于 LEAF_TILES 就对半拆开
+    private final class RangeTask extends RecursiveAction {
+        private final int level;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean cancelled;
+        private final Listener listener;
+
+        RangeTask(int level, int from, int to, AtomicBoolean cancelled, Listener listener) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) return;
+            if (to - from > LEAF_TILES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(level, from, mid, cancelled, listener),
+                        new RangeTask(level, mid, to, cancelled, listener));
+                return;
+            }
+            boolean pending = false;
+            for (int i = from; i < to && !pending; i++) {
+                pending = !isTileReady(level, i);
+            }
+            if (!pending) return;
+            try {
+                if (level == 0) {
+                    analyze();
+                } else {
+                    merge();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // 第 0 级：只映射这几个瓦片对应的数据区
+        private void analyze() throws IOException {
+            int blockAlign = info.blockAlign();
+            long firstColumn = (long) from * TILE_COLUMNS;
+            long endColumn = Math.min((long) to * TILE_COLUMNS, columns);
+            long begin = info.dataOffset + firstColumn * COLUMN_FRAMES * blockAlign;
+            long end = Math.min(info.dataOffset + info.dataLength, info.dataOffset + endColumn * COLUMN_FRAMES * blockAlign);
+            MappedByteBuffer data = source.map(FileChannel.MapMode.READ_ONLY, begin, end - begin);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            Fft fft = new Fft();
+            double[] power = new double[FFT_SIZE / 2];
+            byte[] tile = new byte[TILE_BYTES];
+            for (int index = from; index < to; index++) {
+                if (isTileReady(level, index)) continue;
+                Arrays.fill(tile, (byte) 0);
+                for (int c = 0; c < TILE_COLUMNS; c++) {
+                    long column = (long) index * TILE_COLUMNS + c;
+                    if (column >= columns) break;
+                    if (cancelled.get()) return;
+                    Arrays.fill(power, 0);
+                    int position = (int) ((column - firstColumn) * COLUMN_FRAMES * blockAlign);
+                    for (int f = 0; f < COLUMN_FRAMES / FFT_SIZE; f++) {
+                        int offset = position + f * FFT_SIZE * blockAlign;
+                        int frames = Math.max(0, Math.min(FFT_SIZE, (data.limit() - offset) / blockAlign));
+                        fft.addPower(data, offset, frames, power);
+                    }
+                    quantize(power, COLUMN_FRAMES / FFT_SIZE, tile, c * ROWS);
+                }
+                writeTile(level, index, tile);
+                markReady(level, index, listener);
+            }
+        }
+
+        // 第 level 级的瓦片由下一级相邻两个瓦片逐列两两取最大值得到
+        private void merge() throws IOException {
+            byte[] left = new byte[TILE_BYTES];
+            byte[] right = new byte[TILE_BYTES];
+            byte[] tile = new byte[TILE_BYTES];
+            int half = TILE_COLUMNS / 2;
+            for (int index = from; index < to; index++) {
+                if (isTileReady(level, index)) continue;
+                if (cancelled.get()) return;
+                if (!readTile(level - 1, 2 * index, left)) return; // 下一级被取消，没算完
+                int second = 2 * index + 1;
+                if (second < tileCount(level - 1)) {
+                    if (!readTile(level - 1, second, right)) return;
+                } else {
+                    Arrays.fill(right, (byte) 0);
+                }
+                for (int c = 0; c < TILE_COLUMNS; c++) {
+                    byte[] src = c < half ? left : right;
+                    int a = (c % half) * 2 * ROWS;
+                    int b = a + ROWS;
+                    for (int r = 0; r < ROWS; r++) {
+                        tile[c * ROWS + r] = (byte) Math.max(src[a + r] & 0xff, src[b + r] & 0xff);
+                    }
+                }
+                writeTile(level, index, tile);
+                markReady(level, index, listener);
+            }
+        }
+
+        // 满幅正弦在 Hann 窗下的峰值频点功率是 (N/4)^2，以它为 0 dB
+        private void quantize(double[] power, int averaged, byte[] tile, int offset) {
+            double reference = (double) FFT_SIZE * FFT_SIZE / 16 * averaged;
+            for (int r = 0; r < ROWS; r++) {
+                double max = 0;
+                for (int k = r * BINS_PER_ROW; k < (r + 1) * BINS_PER_ROW; k++) {
+                    max = Math.max(max, power[k]);
+                }
+                int q = 0;
+                if (max > 0) {
+                    double db = 10 * Math.log10(max / reference);
+                    q = (int) Math.round((db - MIN_DB) * 255 / -MIN_DB);
+                    q = Math.max(0, Math.min(255, q));
+                }
+                tile[offset + r] = (byte) q;
+            }
+        }
+    }
+
+    // 每个叶子任务一个：窗函数、旋转因子、位反转表和工作数组都在构造时分配好，addPower 里不分配对象
+    private final class Fft {
+        private final double[] window = new double[FFT_SIZE];
+        private final double[] cos = new double[FFT_SIZE / 2];
+        private final double[] sin = new double[FFT_SIZE / 2];
+        private final int[] reversed = new int[FFT_SIZE];
+        private final double[] re = new double[FFT_SIZE];
+        private final double[] im = new double[FFT_SIZE];
+
+        Fft() {
+            int bits = Integer.numberOfTrailingZeros(FFT_SIZE);
+            for (int i = 0; i < FFT_SIZE; i++) {
+                window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE);
+                reversed[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            for (int i = 0; i < FFT_SIZE / 2; i++) {
+                cos[i] = Math.cos(2 * Math.PI * i / FFT_SIZE);
+                sin[i] = -Math.sin(2 * Math.PI * i / FFT_SIZE);
+            }
+        }
+
+        // 从 data[offset] 开始的 frames 帧（不足 FFT_SIZE 时补零）混成单声道、加窗，功率累加到 power
+        void addPower(ByteBuffer data, int offset, int frames, double[] power) {
+            int channels = info.channels;
+            int blockAlign = info.blockAlign();
+            boolean pcm16 = info.bitsPerSample == 16;
+            for (int i = 0; i < FFT_SIZE; i++) {
+                double sample = 0;
+                if (i < frames) {
+                    int p = offset + i * blockAlign;
+                    for (int ch = 0; ch < channels; ch++) {
+                        sample += pcm16 ? data.getShort(p + ch * 2) / 32768.0 : ((data.get(p + ch) & 0xff) - 128) / 128.0;
+                    }
+                    sample /= channels;
+                }
+                int j = reversed[i];
+                re[j] = sample * window[i];
+                im[j] = 0;
+            }
+            for (int size = 2; size <= FFT_SIZE; size <<= 1) {
+                int half = size >> 1;
+                int step = FFT_SIZE / size;
+                for (int start = 0; start < FFT_SIZE; start += size) {
+                    for (int k = 0; k < half; k++) {
+                        double wr = cos[k * step];
+                        double wi = sin[k * step];
+                        int a = start + k;
+                        int b = a + half;
+                        double tr = re[b] * wr - im[b] * wi;
+                        double ti = re[b] * wi + im[b] * wr;
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+            for (int k = 0; k < FFT_SIZE / 2; k++) {
+                power[k] += re[k] * re[k] + im[k] * im[k];
+            }
+        }
+    }
+}
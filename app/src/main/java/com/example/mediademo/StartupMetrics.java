@@ -0,0 +1,98 @@
+package com.example.mediademo;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * 启动与录音响应时间的预算
+ *
+ * 1. 进程启动 -> 第一帧：Process.getStartElapsedRealtime() 到 MainActivity 第一次 onDraw
+ * 2. 点击录音 -> 第一个采样：点击时记录时间，录音线程第一次 read 到数据时结算
+ * 3. 点击停止 -> 文件关闭：停止命令发出到录音线程排空缓冲、关闭文件；之后的后台整理只记录不计入预算
+ * 超出预算时打 error 日志并累计次数，可以用 adb logcat -s StartupMetrics 跟踪，service dump 里也能看到
+ * 第 2 项另外打一个异步 trace 切片 FIRST_SAMPLE_SECTION（服务收到录音命令 -> 第一个采样），给 macrobenchmark 模块的
+ * TraceSectionMetric 读；第 1 项由它的 StartupTimingMetric 测；macrobenchmark 跑完检查上面的 error 日志，超出预算就失败
+ */
+public final class StartupMetrics {
+    private static final String TAG = "StartupMetrics";
+    public static final long FIRST_FRAME_BUDGET_MS = 700;
+    public static final long FIRST_SAMPLE_BUDGET_MS = 150;
+    public static final long STOP_BUDGET_MS = 150;
+    public static final String FIRST_SAMPLE_SECTION = "capture.firstSample";
+    private static final int FIRST_SAMPLE_COOKIE = 1; // 同一时间只有一个 take 在等第一个采样
+
+    private static volatile long firstFrameMs = -1;
+    private static volatile long lastFirstSampleMs = -1;
+    private static volatile long lastStopMs = -1;
+    private static volatile long lastFinalizeMs = -1;
+    private static final AtomicInteger budgetViolations = new AtomicInteger();
+
+    private StartupMetrics() {
+    }
+
+    // 每个进程只记录第一次
+    public static void onFirstFrame() {
+        if (firstFrameMs >= 0) return;
+        firstFrameMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        check("进程启动 -> 第一帧", firstFrameMs, FIRST_FRAME_BUDGET_MS);
+    }
+
+    // 服务主线程收到录音命令
+    public static void onRecordRequested() {
+        AudioTrace.beginAsync(FIRST_SAMPLE_SECTION, FIRST_SAMPLE_COOKIE);
+    }
+
+    // 录音没能开始，结束切片
+    public static void onRecordFailed() {
+        AudioTrace.endAsync(FIRST_SAMPLE_SECTION, FIRST_SAMPLE_COOKIE);
+    }
+
+    public static void onFirstSample(long requestedAtNanos) {
+        AudioTrace.endAsync(FIRST_SAMPLE_SECTION, FIRST_SAMPLE_COOKIE);
+        lastFirstSampleMs = (SystemClock.elapsedRealtimeNanos() - requestedAtNanos) / 1_000_000;
+        check("点击录音 -> 第一个采样", lastFirstSampleMs, FIRST_SAMPLE_BUDGET_MS);
+    }
+
+    public static void onStopClosed(long elapsedMs) {
+        lastStopMs = elapsedMs;
+        check("点击停止 -> 文件关闭", elapsedMs, STOP_BUDGET_MS);
+    }
+
+    // 文件关闭 -> 头部回填、峰值与校验和计算完成，和 take 长度成正比，不设预算
+    public static void onStopFinalized(long elapsedMs) {
+        lastFinalizeMs = elapsedMs;
+        Log.i(TAG, "文件关闭 -> 整理完成: " + elapsedMs + " ms");
+    }
+
+    private static void check(String name, long elapsedMs, long budgetMs) {
+        if (elapsedMs > budgetMs) {
+            budgetViolations.incrementAndGet();
+            Log.e(TAG, name + ": " + elapsedMs + " ms，超出预算 " + budgetMs + " ms");
+        } else {
+            Log.i(TAG, name + ": " + elapsedMs + " ms（预算 " + budgetMs + " ms）");
+        }
+    }
+
+    public static long firstFrameMs() {
+        return firstFrameMs;
+    }
+
+    public static long lastFirstSampleMs() {
+        return lastFirstSampleMs;
+    }
+
+    public static long lastStopMs() {
+        return lastStopMs;
+    }
+
+    public static long lastFinalizeMs() {
+        return lastFinalizeMs;
+    }
+
+    public static int budgetViolations() {
+        return budgetViolations.get();
+    }
+}
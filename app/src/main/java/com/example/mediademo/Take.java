@@ -0,0 +1,34 @@
+package com.example.mediademo;
+
+/*
+ * 一次录音(take)的元数据记录
+ * 列表展示只需要读这里的字段 不需要打开音频文件
+ */
+public class Take {
+    public static final int STATE_RECORDING = 0; // 正在录制，或进程在录制中被杀还未整理
+    public static final int STATE_FINALIZING = 1; // 已停止录制，等待后台队列回填头部/计算峰值与校验和
+    public static final int STATE_READY = 2;
+    public static final int STATE_BROKEN = 3;
+
+    public long id;
+    public String path;
+    public long createdAt;
+    public int sampleRate;
+    public int channels;
+    public int bitsPerSample;
+    public long dataBytes;
+    public long durationMs;
+    public int peak; // 16bit 采样绝对值的最大值 0-32768
+    public long checksum; // 音频数据的 CRC32
+    public int state;
+
+    public long computeDurationMs(long bytes) {
+        int bytesPerSecond = sampleRate * channels * bitsPerSample / 8;
+        return bytesPerSecond > 0 ? bytes * 1000 / bytesPerSecond : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Take{id=" + id + ", path=" + path + ", durationMs=" + durationMs + ", state=" + state + "}";
+    }
+}
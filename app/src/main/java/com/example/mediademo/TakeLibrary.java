@@ -0,0 +1,288 @@
+package com.example.mediademo;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/*
+ * 多次录音的 take 库
+ *
+ * 每次录音都会分配独立的 wav 文件和一条 SQLite 元数据记录，不再覆盖固定的 record.pcm/record.wav
+ * 录音线程只负责往文件里追加数据；停止后的整理工作（回填 wav 头、提取峰值、计算校验和）
+ * 交给一个单线程后台队列，和下一次录音并发进行，所以连续录音可以立即开始
+ * 列表只查数据库，几千条 take 也不需要打开音频文件
+ */
+public class TakeLibrary {
+    private static final String TAG = "TakeLibrary";
+    public static final String ACTION_TAKE_FINALIZED = "com.example.mediademo.TAKE_FINALIZED";
+    public static final String EXTRA_TAKE_ID = "takeId";
+    public static final String EXTRA_TAKE_PATH = "takePath";
+    public static final String EXTRA_DURATION_MS = "durationMs";
+
+    private static final String DB_NAME = "takes.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE = "takes";
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private static TakeLibrary instance;
+
+    private final Context appContext;
+    private final DbHelper dbHelper;
+    private final File takesDir;
+    // 数据库写入和整理任务共用一个单线程队列，保证同一个 take 的插入一定先于整理结果落库
+    private final ExecutorService finalizeQueue = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TakeFinalizer");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private long lastId = 0;
+    private boolean recovered = false;
+    private final Set<Long> createdHere = new HashSet<>(); // 本进程创建的 take，恢复时跳过，受 this 锁保护
+
+    public static synchronized TakeLibrary get(Context context) {
+        if (instance == null) {
+            instance = new TakeLibrary(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TakeLibrary(Context context) {
+        appContext = context;
+        dbHelper = new DbHelper(context);
+        takesDir = new File(context.getExternalFilesDir(null), "takes");
+        if (!takesDir.exists() && !takesDir.mkdirs()) {
+            Log.e(TAG, "无法创建 takes 目录: " + takesDir);
+        }
+    }
+
+    // 在调用线程上只做内存操作，数据库插入放到后台队列，保证录音能立即开始
+    public synchronized Take createTake(int sampleRate, int channels, int bitsPerSample) {
+        long now = System.currentTimeMillis();
+        Take take = new Take();
+        take.id = Math.max(now, lastId + 1); // 同一毫秒内连续创建也不会冲突
+        lastId = take.id;
+        createdHere.add(take.id);
+        take.createdAt = now;
+        take.sampleRate = sampleRate;
+        take.channels = channels;
+        take.bitsPerSample = bitsPerSample;
+        take.state = Take.STATE_RECORDING;
+        String name = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(new Date(take.id));
+        take.path = new File(takesDir, "take_" + name + ".wav").getAbsolutePath();
+
+        ContentValues values = toValues(take);
+        finalizeQueue.execute(() -> dbHelper.getWritableDatabase()
+                .insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE));
+        return take;
+    }
+
+    // 录音线程写完并关闭文件后调用 立即返回
+    public void finishTake(Take take, long dataBytes) {
+        finishTake(take, dataBytes, null);
+    }
+
+    // onFinalized 在整理队列的线程上执行，此时头部已回填、数据库已更新
+    public void finishTake(Take take, long dataBytes, Runnable onFinalized) {
+        take.state = Take.STATE_FINALIZING;
+        take.dataBytes = dataBytes;
+        ContentValues values = toValues(take);
+        finalizeQueue.execute(() -> {
+            dbHelper.getWritableDatabase().update(TABLE, values, "id=?", new String[]{String.valueOf(take.id)});
+            finalizeTake(take);
+            if (onFinalized != null) {
+                onFinalized.run();
+            }
+        });
+    }
+
+    // 把编辑结果导出成一个新的 take，原来的 take 不动；在调用线程上搬运数据，不能在主线程调用
+    // 先导出到临时文件，成功后才创建 take 记录，导出失败或取消（返回 null）时库里不会多出 take
+    public Take saveEdit(WavEditor.EditList edit, AtomicBoolean cancelled) throws IOException {
+        File exported = new File(takesDir, "edit_" + System.nanoTime() + ".wav");
+        long bytes = WavEditor.export(edit, exported, cancelled);
+        if (bytes < 0) return null;
+        Take take = createTake(edit.sampleRate, edit.channels, edit.bitsPerSample);
+        if (!exported.renameTo(new File(take.path))) {
+            finishTake(take, 0); // 同一目录内改名几乎不会失败，失败时留下一个空 take
+            throw new IOException("无法移动导出的文件: " + exported);
+        }
+        finishTake(take, bytes);
+        return take;
+    }
+
+    // 进程在录音中被杀时 数据库里会留下未整理的 take，启动时重新入队整理
+    // 每个进程只做一次；本进程创建的 take 一律跳过：恢复可能在后台线程上晚于第一次录音执行，
+    // 不能把正在录制的 take 当成残留回填头部、标记 READY
+    public synchronized void recoverUnfinished() {
+        if (recovered) return;
+        recovered = true;
+        finalizeQueue.execute(() -> {
+            List<Take> pending = query("state<?", new String[]{String.valueOf(Take.STATE_READY)}, null, null);
+            for (Take take : pending) {
+                synchronized (this) {
+                    if (createdHere.contains(take.id)) continue;
+                }
+                Log.d(TAG, "恢复未整理的 take: " + take);
+                take.dataBytes = -1; // 以实际文件大小为准
+                finalizeTake(take);
+            }
+        });
+    }
+
+    private void finalizeTake(Take take) {
+        File file = new File(take.path);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            long onDisk = Math.max(0, channel.size() - WavHeader.HEADER_SIZE);
+            long dataBytes = take.dataBytes < 0 ? onDisk : Math.min(take.dataBytes, onDisk);
+            WavHeader.patchSizes(channel, dataBytes);
+
+            // 顺序扫描一遍数据 同时得到峰值与 CRC32
+            CRC32 crc = new CRC32();
+            int peak = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = WavHeader.HEADER_SIZE;
+            long end = WavHeader.HEADER_SIZE + dataBytes;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n <= 0) break;
+                position += n;
+                crc.update(buffer.array(), 0, n);
+                if (take.bitsPerSample == 16) {
+                    for (int i = 0; i + 1 < n; i += 2) {
+                        int sample = Math.abs(buffer.getShort(i));
+                        if (sample > peak) peak = sample;
+                    }
+                }
+            }
+            take.dataBytes = dataBytes;
+            take.durationMs = take.computeDurationMs(dataBytes);
+            take.peak = peak;
+            take.checksum = crc.getValue();
+            take.state = Take.STATE_READY;
+        } catch (IOException e) {
+            Log.e(TAG, "整理 take 失败: " + take.path, e);
+            take.state = Take.STATE_BROKEN;
+        }
+        dbHelper.getWritableDatabase().update(TABLE, toValues(take), "id=?", new String[]{String.valueOf(take.id)});
+        Log.d(TAG, "take 整理完成: " + take);
+
+        Intent intent = new Intent(ACTION_TAKE_FINALIZED);
+        intent.putExtra(EXTRA_TAKE_ID, take.id);
+        intent.putExtra(EXTRA_TAKE_PATH, take.path);
+        intent.putExtra(EXTRA_DURATION_MS, take.durationMs);
+        intent.setPackage(appContext.getPackageName());
+        appContext.sendBroadcast(intent);
+    }
+
+    // 按时间倒序分页列出 take 只读数据库
+    public List<Take> listTakes(int offset, int limit) {
+        return query(null, null, "id DESC", offset + "," + limit);
+    }
+
+    // 某个时间点之后已整理完成的 take，用于批量导出
+    public List<Take> listReadyTakesSince(long sinceMillis) {
+        return query("created_at>=? AND state=?",
+                new String[]{String.valueOf(sinceMillis), String.valueOf(Take.STATE_READY)}, "id ASC", null);
+    }
+
+    public Take getTake(long id) {
+        List<Take> result = query("id=?", new String[]{String.valueOf(id)}, null, null);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public int countTakes() {
+        try (Cursor c = dbHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE, null)) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+
+    private List<Take> query(String selection, String[] args, String orderBy, String limit) {
+        List<Take> result = new ArrayList<>();
+        try (Cursor c = dbHelper.getReadableDatabase().query(TABLE, null, selection, args, null, null, orderBy, limit)) {
+            while (c.moveToNext()) {
+                Take take = new Take();
+                take.id = c.getLong(c.getColumnIndexOrThrow("id"));
+                take.path = c.getString(c.getColumnIndexOrThrow("path"));
+                take.createdAt = c.getLong(c.getColumnIndexOrThrow("created_at"));
+                take.sampleRate = c.getInt(c.getColumnIndexOrThrow("sample_rate"));
+                take.channels = c.getInt(c.getColumnIndexOrThrow("channels"));
+                take.bitsPerSample = c.getInt(c.getColumnIndexOrThrow("bits"));
+                take.dataBytes = c.getLong(c.getColumnIndexOrThrow("data_bytes"));
+                take.durationMs = c.getLong(c.getColumnIndexOrThrow("duration_ms"));
+                take.peak = c.getInt(c.getColumnIndexOrThrow("peak"));
+                take.checksum = c.getLong(c.getColumnIndexOrThrow("checksum"));
+                take.state = c.getInt(c.getColumnIndexOrThrow("state"));
+                result.add(take);
+            }
+        }
+        return result;
+    }
+
+    private static ContentValues toValues(Take take) {
+        ContentValues values = new ContentValues();
+        values.put("id", take.id);
+        values.put("path", take.path);
+        values.put("created_at", take.createdAt);
+        values.put("sample_rate", take.sampleRate);
+        values.put("channels", take.channels);
+        values.put("bits", take.bitsPerSample);
+        values.put("data_bytes", take.dataBytes);
+        values.put("duration_ms", take.durationMs);
+        values.put("peak", take.peak);
+        values.put("checksum", take.checksum);
+        values.put("state", take.state);
+        return values;
+    }
+
+    private static class DbHelper extends SQLiteOpenHelper {
+        DbHelper(Context context) {
+            super(context, DB_NAME, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + "id INTEGER PRIMARY KEY, "
+                    + "path TEXT NOT NULL, "
+                    + "created_at INTEGER NOT NULL, "
+                    + "sample_rate INTEGER NOT NULL, "
+                    + "channels INTEGER NOT NULL, "
+                    + "bits INTEGER NOT NULL, "
+                    + "data_bytes INTEGER NOT NULL DEFAULT 0, "
+                    + "duration_ms INTEGER NOT NULL DEFAULT 0, "
+                    + "peak INTEGER NOT NULL DEFAULT 0, "
+                    + "checksum INTEGER NOT NULL DEFAULT 0, "
+                    + "state INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX idx_takes_state ON " + TABLE + "(state)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package com.example.mediademo;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * 把已整理完的 take 分块上传到同步服务器，按内容寻址，可续传
+ *
+ * 整个 wav 文件切成 CHUNK_SIZE 的块，顺序读一遍、每块一个流式 SHA-256，块的地址就是它的摘要
+ * 服务器协议（endpoint 是基础地址）：
+ *   POST {endpoint}/chunks/missing   请求体每行一个摘要，响应体每行一个服务器还没有的摘要
+ *   PUT  {endpoint}/chunks/{sha256}  请求体是块内容，服务器校验摘要
+ *   PUT  {endpoint}/takes/{文件名}    请求体是清单：文件长度、块大小，然后每行一个块摘要；服务器按清单拼出文件
+ * 服务器已有的块（别的 take 里出现过的、同一 take 里重复的静音块）不再上传
+ * 上传在 PARALLEL_UPLOADS 个线程上并行，每个线程从文件直接流式写进连接，只用一个 IO_BUFFER，内存上限和文件大小无关
+ * 进度记在 ledger 旁路文件里（已算出的摘要、已上传的块），每完成一块就原子地重写一次；
+ * 进程被杀后再次上传同一个 take 从 ledger 接着做，文件长度或修改时间变了就从头开始
+ */
+public final class TakeUploader {
+    private static final String TAG = "TakeUploader";
+    private static final int LEDGER_MAGIC = 0x5550_4c31; // "UPL1"
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int PARALLEL_UPLOADS = 3;
+    private static final int IO_BUFFER = 64 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int HASH_BYTES = 32;
+
+    // 回调在工作线程上执行，调用方自行切换线程
+    public interface Listener {
+        void onProgress(long takeId, int chunksDone, int chunksTotal);
+
+        void onFinished(long takeId, boolean success, boolean cancelled);
+    }
+
+    // 在协调线程上把 takeId 解析成要上传的文件（可以查数据库），返回 null 表示不能上传
+    public interface FileResolver {
+        File resolve(long takeId);
+    }
+
+    private final File ledgerDir;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TakeUploader");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private final ExecutorService uploads = Executors.newFixedThreadPool(PARALLEL_UPLOADS, r -> {
+        Thread t = new Thread(r, "ChunkUpload");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private volatile Job current;
+    private final Set<Job> jobs = ConcurrentHashMap.newKeySet(); // 排队中和正在传的，结束时移除
+    private volatile String lastSummary;
+
+    public TakeUploader(File ledgerDir) {
+        this.ledgerDir = ledgerDir;
+    }
+
+    public static File ledgerFile(File ledgerDir, long takeId) {
+        return new File(ledgerDir, "take_" + takeId + ".ledger");
+    }
+
+    // 进程被杀前没传完的 take，只读目录，不打开文件
+    public static List<Long> pendingTakeIds(File ledgerDir) {
+        List<Long> ids = new ArrayList<>();
+        File[] files = ledgerDir.listFiles();
+        if (files == null) return ids;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith("take_") && name.endsWith(".ledger")) {
+                try {
+                    ids.add(Long.parseLong(name.substring(5, name.length() - 7)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return ids;
+    }
+
+    // 排队上传；endpoint 为 null 时沿用 ledger 里记录的地址（续传）
+    public Job upload(long takeId, File wav, String endpoint, Listener listener) {
+        return upload(takeId, id -> wav, endpoint, listener);
+    }
+
+    // 同上，文件轮到这个任务时才在协调线程上解析，调用方（例如主线程）不用等数据库查询
+    public Job upload(long takeId, FileResolver resolver, String endpoint, Listener listener) {
+        Job job = new Job(takeId, resolver, endpoint, listener);
+        jobs.add(job);
+        coordinator.execute(job);
+        return job;
+    }
+
+    public String summary() {
+        Job job = current;
+        return job != null ? job.summary() : lastSummary;
+    }
+
+    // 取消正在传的和所有排队中的；排队中的轮到时直接以取消结束，不碰文件和服务器
+    public void cancelAll() {
+        for (Job job : jobs) {
+            job.cancel();
+        }
+    }
+
+    public void shutdown() {
+        cancelAll();
+        coordinator.shutdownNow();
+        uploads.shutdownNow();
+    }
+
+    // 上传进度：每块的摘要和是否已在服务器上，受自身锁保护
+    static final class Ledger {
+        final long takeId;
+        final String endpoint;
+        final String path;
+        final long fileLength;
+        final long lastModified;
+        final byte[] hashes;
+        final boolean[] uploaded;
+        int hashedChunks;
+
+        Ledger(long takeId, String endpoint, File wav) {
+            this.takeId = takeId;
+            this.endpoint = endpoint;
+            this.path = wav.getPath();
+            this.fileLength = wav.length();
+            this.lastModified = wav.lastModified();
+            int chunks = (int) ((fileLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            this.hashes = new byte[chunks * HASH_BYTES];
+            this.uploaded = new boolean[chunks];
+        }
+
+        private Ledger(long takeId, String endpoint, String path, long fileLength, long lastModified, int chunks) {
+            this.takeId = takeId;
+            this.endpoint = endpoint;
+            this.path = path;
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+            this.hashes = new byte[chunks * HASH_BYTES];
+            this.uploaded = new boolean[chunks];
+        }
+
+        int chunks() {
+            return uploaded.length;
+        }
+
+        long chunkLength(int index) {
+            return Math.min(CHUNK_SIZE, fileLength - (long) index * CHUNK_SIZE);
+        }
+
+        String hash(int index) {
+            StringBuilder sb = new StringBuilder(HASH_BYTES * 2);
+            for (int i = index * HASH_BYTES; i < (index + 1) * HASH_BYTES; i++) {
+                sb.append(Character.forDigit((hashes[i] >> 4) & 0xf, 16)).append(Character.forDigit(hashes[i] & 0xf, 16));
+            }
+            return sb.toString();
+        }
+
+        synchronized int uploadedCount() {
+            int n = 0;
+            for (boolean u : uploaded) if (u) n++;
+            return n;
+        }
+
+        synchronized void save(File file) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(LEDGER_MAGIC);
+                out.writeLong(takeId);
+                out.writeUTF(endpoint);
+                out.writeUTF(path);
+                out.writeLong(fileLength);
+                out.writeLong(lastModified);
+                out.writeInt(CHUNK_SIZE);
+                out.writeInt(chunks());
+                out.writeInt(hashedChunks);
+                out.write(hashes, 0, hashedChunks * HASH_BYTES);
+                for (int i = 0; i < hashedChunks; i++) {
+                    out.writeBoolean(uploaded[i]);
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("无法替换 " + file);
+            }
+        }
+
+        // 不存在、损坏或块大小不同时返回 null
+        static Ledger load(File file) {
+            if (!file.exists()) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != LEDGER_MAGIC) return null;
+                long takeId = in.readLong();
+                String endpoint = in.readUTF();
+                String path = in.readUTF();
+                long fileLength = in.readLong();
+                long lastModified = in.readLong();
+                if (in.readInt() != CHUNK_SIZE) return null;
+                Ledger ledger = new Ledger(takeId, endpoint, path, fileLength, lastModified, in.readInt());
+                ledger.hashedChunks = in.readInt();
+                in.readFully(ledger.hashes, 0, ledger.hashedChunks * HASH_BYTES);
+                for (int i = 0; i < ledger.hashedChunks; i++) {
+                    ledger.uploaded[i] = in.readBoolean();
+                }
+                return ledger;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "ledger 已损坏，从头上传: " + file, e);
+                return null;
+            }
+        }
+    }
+
+    public final class Job implements Runnable {
+        private final long takeId;
+        private final FileResolver resolver;
+        private File wav; // 协调线程上解析，上传线程在提交任务之后才读取
+        private final String endpoint;
+        private final Listener listener;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final AtomicBoolean failed = new AtomicBoolean(false); // 有一块重试后仍然失败，其余的块不再继续
+        private volatile Ledger ledger;
+        private volatile String stage = "排队";
+
+        Job(long takeId, FileResolver resolver, String endpoint, Listener listener) {
+            this.takeId = takeId;
+            this.resolver = resolver;
+            this.endpoint = endpoint;
+            this.listener = listener;
+        }
+
+        // 正在传的块在下一个缓冲区边界断开；已经完成的块留在 ledger 里
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private boolean stopping() {
+            return cancelled.get() || failed.get();
+        }
+
+        String summary() {
+            Ledger l = ledger;
+            return "take " + takeId + " " + stage + (l != null ? ", " + l.uploadedCount() + "/" + l.chunks() + " 块" : "");
+        }
+
+        @Override
+        public void run() {
+            current = this;
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                success = !cancelled.get() && runStages();
+            } catch (IOException e) {
+                Log.e(TAG, "上传 take " + takeId + " 失败（" + stage + "），下次从 ledger 继续", e);
+            } finally {
+                stage = success ? "完成" : cancelled.get() ? "已取消" : "失败";
+                lastSummary = summary() + ", " + (System.nanoTime() - start) / 1_000_000 + " ms";
+                current = null;
+                jobs.remove(this);
+                Log.d(TAG, lastSummary);
+                if (listener != null) listener.onFinished(takeId, success, cancelled.get());
+            }
+        }
+
+        private boolean runStages() throws IOException {
+            wav = resolver.resolve(takeId);
+            if (wav == null) {
+                Log.w(TAG, "take " + takeId + " 不能上传");
+                return false;
+            }
+            File ledgerFile = ledgerFile(ledgerDir, takeId);
+            Ledger l = Ledger.load(ledgerFile);
+            if (l != null && (l.fileLength != wav.length() || l.lastModified != wav.lastModified()
+                    || (endpoint != null && !endpoint.equals(l.endpoint)))) {
+                Log.d(TAG, "take " + takeId + " 或服务器地址变了，从头上传");
+                l = null;
+            }
+            if (l == null) {
+                if (endpoint == null) {
+                    Log.w(TAG, "take " + takeId + " 没有 ledger 也没有服务器地址");
+                    return false;
+                }
+                if (!ledgerDir.exists() && !ledgerDir.mkdirs()) {
+                    throw new IOException("无法创建 ledger 目录: " + ledgerDir);
+                }
+                l = new Ledger(takeId, endpoint, wav);
+                l.save(ledgerFile);
+            } else {
+                Log.d(TAG, "续传 take " + takeId + ": 已算摘要 " + l.hashedChunks + "/" + l.chunks() + " 块, 已上传 "
+                        + l.uploadedCount() + " 块");
+            }
+            ledger = l;
+
+            stage = "计算摘要";
+            if (!hashRemaining(l, ledgerFile)) return false;
+
+            stage = "查询已有的块";
+            markPresent(l);
+            l.save(ledgerFile);
+            report(l);
+
+            stage = "上传";
+            if (!uploadMissing(l, ledgerFile)) return false;
+
+            stage = "提交清单";
+            commit(l);
+            if (!ledgerFile.delete()) Log.w(TAG, "无法删除 ledger: " + ledgerFile);
+            return true;
+        }
+
+        // 从第一个没算过的块开始顺序读，每块算完写一次 ledger
+        private boolean hashRemaining(Ledger l, File ledgerFile) throws IOException {
+            if (l.hashedChunks == l.chunks()) return true;
+            MessageDigest digest = sha256();
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER);
+            try (RandomAccessFile raf = new RandomAccessFile(wav, "r");
+                 FileChannel channel = raf.getChannel()) {
+                for (int i = l.hashedChunks; i < l.chunks(); i++) {
+                    long position = (long) i * CHUNK_SIZE;
+                    long end = position + l.chunkLength(i);
+                    while (position < end) {
+                        if (cancelled.get()) return false;
+                        buffer.clear();
+                        buffer.limit((int) Math.min(IO_BUFFER, end - position));
+                        int n = channel.read(buffer, position);
+                        if (n < 0) throw new IOException("文件变短了: " + wav);
+                        buffer.flip();
+                        digest.update(buffer);
+                        position += n;
+                    }
+                    try {
+                        synchronized (l) {
+                            digest.digest(l.hashes, i * HASH_BYTES, HASH_BYTES);
+                            l.hashedChunks = i + 1;
+                        }
+                    } catch (DigestException e) {
+                        throw new IOException(e);
+                    }
+                    l.save(ledgerFile);
+                }
+            }
+            return true;
+        }
+
+        // 一次请求问服务器缺哪些块，其余的直接记为已上传
+        private void markPresent(Ledger l) throws IOException {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < l.chunks(); i++) {
+                if (!l.uploaded[i]) body.append(l.hash(i)).append('\n');
+            }
+            if (body.length() == 0) return;
+            HttpURLConnection connection = open(l.endpoint + "/chunks/missing", "POST");
+            boolean reusable = false;
+            try {
+                byte[] bytes = body.toString().getBytes(StandardCharsets.US_ASCII);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                connection.setRequestProperty("Content-Type", "text/plain");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+                checkResponse(connection);
+                Set<String> missing = new HashSet<>();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                        StandardCharsets.US_ASCII))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) missing.add(line.trim());
+                    }
+                }
+                int skipped = 0;
+                synchronized (l) {
+                    for (int i = 0; i < l.chunks(); i++) {
+                        if (!l.uploaded[i] && !missing.contains(l.hash(i))) {
+                            l.uploaded[i] = true;
+                            skipped++;
+                        }
+                    }
+                }
+                reusable = true; // 响应体已经读完
+                Log.d(TAG, "take " + takeId + ": 服务器已有 " + skipped + " 块，需要上传 " + missing.size() + " 块");
+            } finally {
+                release(connection, reusable);
+            }
+        }
+
+        // 相同内容的块只传一次；全部成功才返回 true
+        private boolean uploadMissing(Ledger l, File ledgerFile) throws IOException {
+            List<Future<?>> futures = new ArrayList<>();
+            List<Integer> duplicates = new ArrayList<>();
+            Set<String> queued = new HashSet<>();
+            for (int i = 0; i < l.chunks(); i++) {
+                if (l.uploaded[i]) continue;
+                if (!queued.add(l.hash(i))) {
+                    duplicates.add(i);
+                    continue;
+                }
+                int index = i;
+                futures.add(uploads.submit(() -> {
+                    try {
+                        uploadChunk(l, index);
+                    } catch (IOException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    synchronized (l) {
+                        l.uploaded[index] = true;
+                    }
+                    l.save(ledgerFile);
+                    report(l);
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed.set(true);
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled.set(true);
+                }
+            }
+            if (failure != null) throw failure;
+            if (cancelled.get()) return false;
+            synchronized (l) {
+                for (int i : duplicates) l.uploaded[i] = true;
+            }
+            l.save(ledgerFile);
+            return true;
+        }
+
+        // 直接从文件流式写进连接，失败时最多重试 MAX_ATTEMPTS 次
+        private void uploadChunk(Ledger l, int index) throws IOException {
+            String hash = l.hash(index);
+            long position = (long) index * CHUNK_SIZE;
+            int length = (int) l.chunkLength(index);
+            byte[] buffer = new byte[IO_BUFFER];
+            for (int attempt = 1; ; attempt++) {
+                if (stopping()) throw new IOException("已停止");
+                HttpURLConnection connection = open(l.endpoint + "/chunks/" + hash, "PUT");
+                boolean reusable = false;
+                try (RandomAccessFile raf = new RandomAccessFile(wav, "r")) {
+                    connection.setFixedLengthStreamingMode(length);
+                    connection.setRequestProperty("Content-Type", "application/octet-stream");
+                    raf.seek(position);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        int remaining = length;
+                        while (remaining > 0) {
+                            if (stopping()) throw new IOException("已停止");
+                            int n = raf.read(buffer, 0, Math.min(buffer.length, remaining));
+                            if (n < 0) throw new IOException("文件变短了: " + wav);
+                            out.write(buffer, 0, n);
+                            remaining -= n;
+                        }
+                    }
+                    checkResponse(connection);
+                    drain(connection);
+                    reusable = true;
+                    return;
+                } catch (IOException e) {
+                    if (stopping() || attempt >= MAX_ATTEMPTS) throw e;
+                    Log.w(TAG, "块 " + index + " 上传失败，第 " + attempt + " 次重试: " + e.getMessage());
+                    try {
+                        Thread.sleep(RETRY_DELAY_MS * attempt);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                } finally {
+                    release(connection, reusable);
+                }
+            }
+        }
+
+        // 所有块都在服务器上之后提交清单，服务器据此拼出文件
+        private void commit(Ledger l) throws IOException {
+            StringBuilder body = new StringBuilder();
+            body.append(l.fileLength).append('\n').append(CHUNK_SIZE).append('\n');
+            for (int i = 0; i < l.chunks(); i++) {
+                body.append(l.hash(i)).append('\n');
+            }
+            HttpURLConnection connection = open(l.endpoint + "/takes/" + new File(l.path).getName(), "PUT");
+            boolean reusable = false;
+            try {
+                byte[] bytes = body.toString().getBytes(StandardCharsets.US_ASCII);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                connection.setRequestProperty("Content-Type", "text/plain");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+                checkResponse(connection);
+                drain(connection);
+                reusable = true;
+            } finally {
+                release(connection, reusable);
+            }
+        }
+
+        private void report(Ledger l) {
+            if (listener != null) listener.onProgress(takeId, l.uploadedCount(), l.chunks());
+        }
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code / 100 != 2) {
+            throw new IOException(connection.getRequestMethod() + " " + connection.getURL() + " 返回 " + code);
+        }
+    }
+
+    // 读完并关闭响应体，连接才能回到 keep-alive 池里复用
+    private static void drain(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            byte[] skip = new byte[1024];
+            while (in.read(skip) >= 0) {
+            }
+        }
+    }
+
+    // 成功且响应体已读完的连接留给下一个请求复用；disconnect 会直接关掉底层 socket，只在出错或取消时调用
+    private static void release(HttpURLConnection connection, boolean reusable) {
+        if (!reusable) connection.disconnect();
+    }
+}
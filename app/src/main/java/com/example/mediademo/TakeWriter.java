@@ -0,0 +1,354 @@
+package com.example.mediademo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongConsumer;
+
+/*
+ * take 文件的写盘阶段：把每次 read 得到的几 KB 数据攒成大块，按块对齐写入 FileChannel
+ *
+ * write 和 force 都在专门的写盘线程上做，录音线程只负责把数据拷进当前块、把写满的块交进队列，从不等存储
+ * 积压的块数有上限（MAX_QUEUED_BYTES）：存储卡住太久时 append 抛 IOException 结束这个 take，而不是无限占内存
+ * 文件头也放进第一块里，所以每块的起止偏移都是 chunkSize 的整数倍
+ * 有 LiveTap 读者或需要 force 时可以提前交出当前块已有的部分，块本身仍留在缓冲里，写满后只补写剩余部分，不会重复写
+ * 何时 force() 由 Durability 决定：
+ *   - NONE：从不 force，交给内核回写，系统调用最少，但掉电时可能丢失内核里还没回写的数据
+ *   - PERIODIC：每隔 intervalMs 写出缓冲并 force 一次，最多丢这段时间的数据
+ *   - SEGMENT：文件按偏移切成 segmentBytes 的段（第一段包含文件头），每写满一段在段边界 force 一次，丢失范围按数据量而不是时间限定
+ * 统计项用来衡量三者的取舍：write/force 次数、写放大（force 时没写满的最后一页之后还要再写一遍）、风险数据量
+ */
+public class TakeWriter implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    private static final int PREALLOCATED_BUFFERS = 2;
+    private static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024; // 48kHz 立体声约 20 秒
+
+    public enum Durability { NONE, PERIODIC, SEGMENT }
+
+    // 写盘策略，不可变，可以在多次录音之间共用
+    public static final class Config {
+        public final int chunkSize;
+        public final Durability durability;
+        public final long intervalMs;
+        public final long segmentBytes;
+
+        private Config(int chunkSize, Durability durability, long intervalMs, long segmentBytes) {
+            this.chunkSize = chunkSize;
+            this.durability = durability;
+            this.intervalMs = intervalMs;
+            this.segmentBytes = segmentBytes;
+        }
+
+        public static Config none(int chunkSize) {
+            return new Config(chunkSize, Durability.NONE, 0, 0);
+        }
+
+        public static Config periodic(int chunkSize, long intervalMs) {
+            return new Config(chunkSize, Durability.PERIODIC, intervalMs, 0);
+        }
+
+        // segmentBytes 会向上取整到 chunkSize 的整数倍；段和块一样从文件偏移 0 算起，段边界总是落在块边界上
+        public static Config segments(int chunkSize, long segmentBytes) {
+            long aligned = (segmentBytes + chunkSize - 1) / chunkSize * chunkSize;
+            return new Config(chunkSize, Durability.SEGMENT, 0, Math.max(chunkSize, aligned));
+        }
+
+        @Override
+        public String toString() {
+            switch (durability) {
+                case PERIODIC:
+                    return "periodic(" + intervalMs + "ms, chunk " + chunkSize / 1024 + "KB)";
+                case SEGMENT:
+                    return "segment(" + segmentBytes / 1024 + "KB, chunk " + chunkSize / 1024 + "KB)";
+                default:
+                    return "none(chunk " + chunkSize / 1024 + "KB)";
+            }
+        }
+    }
+
+    private final Config config;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Thread thread;
+    private final LinkedBlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final int maxBuffers;
+    private volatile IOException failure;
+    private volatile LongConsumer writtenListener;
+
+    // 录音线程的状态
+    private ByteBuffer buffer; // 当前块：文件中 [chunkOffset, chunkOffset + buffer.position()) 的数据
+    private long chunkOffset; // 当前块在文件中的起点
+    private int chunkSubmitted; // 当前块已经交给写盘线程的长度
+    private volatile int allocatedBuffers; // 只有录音线程写，内存预算 dump 时在别的线程读
+    private long lastForceNanos;
+    private long nextSegmentEnd;
+    private long appendedBytes;
+    private long maxAtRiskBytes;
+    private int maxQueuedBuffers;
+    private boolean closed;
+
+    // 写盘线程的状态；writtenOffset/forcedOffset 录音线程也会读
+    private volatile long writtenOffset; // 已经交给内核的长度
+    private volatile long forcedOffset; // 已经 force 到存储的长度
+
+    // 统计，由写盘线程更新，close 之后再读
+    private long writeCalls;
+    private long forceCalls;
+    private long rewrittenBytes; // force 时末尾不满一页的部分，之后会被再写一次
+    private long forceNanosTotal;
+    private long forceNanosMax;
+
+    // 交给写盘线程的一段数据：写完后按需 force，recycle 不为空时整块写完，缓冲放回空闲队列
+    private static final class Block {
+        final ByteBuffer data;
+        final long fileOffset;
+        final ByteBuffer recycle;
+        final boolean force;
+        final boolean end;
+
+        Block(ByteBuffer data, long fileOffset, ByteBuffer recycle, boolean force, boolean end) {
+            this.data = data;
+            this.fileOffset = fileOffset;
+            this.recycle = recycle;
+            this.force = force;
+            this.end = end;
+        }
+    }
+
+    public TakeWriter(File target, ByteBuffer header, Config config) throws IOException {
+        this.config = config;
+        this.file = new RandomAccessFile(target, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+        this.maxBuffers = Math.max(2, MAX_QUEUED_BYTES / config.chunkSize);
+        for (int i = 0; i < PREALLOCATED_BUFFERS; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(config.chunkSize));
+        }
+        allocatedBuffers = PREALLOCATED_BUFFERS;
+        this.buffer = freeBuffers.poll();
+        this.buffer.put(header);
+        this.lastForceNanos = System.nanoTime();
+        this.nextSegmentEnd = config.segmentBytes;
+        this.thread = new Thread(this::drain, "TakeWriter");
+        this.thread.start();
+    }
+
+    // 写盘线程每写出一段就回调一次（参数同 dataBytesWritten），LiveTap 用它通知读者；要在第一次 append 之前设置
+    public void setWrittenListener(LongConsumer listener) {
+        this.writtenListener = listener;
+    }
+
+    public void append(byte[] data, int offset, int length) throws IOException {
+        IOException e = failure;
+        if (e != null) throw e;
+        appendedBytes += length;
+        while (length > 0) {
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, n);
+            offset += n;
+            length -= n;
+            if (!buffer.hasRemaining()) {
+                submitBuffer();
+            }
+        }
+        maxAtRiskBytes = Math.max(maxAtRiskBytes, atRiskBytes());
+        if (config.durability == Durability.PERIODIC
+                && System.nanoTime() - lastForceNanos >= config.intervalMs * 1_000_000L) {
+            submitPending(true);
+            lastForceNanos = System.nanoTime();
+        }
+    }
+
+    // 把当前块里还没交出的部分交给写盘线程，不 force，块仍留在缓冲里；有 LiveTap 读者时用它降低延迟
+    public void flush() throws IOException {
+        submitPending(false);
+    }
+
+    // 录音线程只往 position 之后追加，已经交出的区间不会再改，写盘线程可以直接读同一块缓冲
+    private void submitPending(boolean force) {
+        int end = buffer.position();
+        if (end == chunkSubmitted && !force) return;
+        ByteBuffer pending = buffer.duplicate();
+        pending.position(chunkSubmitted);
+        pending.limit(end);
+        enqueue(new Block(pending, chunkOffset + chunkSubmitted, null, force, false));
+        chunkSubmitted = end;
+    }
+
+    // 当前块写满或录音结束：交出剩余部分和整块缓冲，换一块空闲缓冲继续
+    private void submitBuffer() throws IOException {
+        ByteBuffer full = buffer;
+        ByteBuffer pending = full.duplicate();
+        pending.position(chunkSubmitted);
+        pending.limit(full.position());
+        long pendingOffset = chunkOffset + chunkSubmitted;
+        chunkOffset += full.position();
+        boolean force = false;
+        if (config.durability == Durability.SEGMENT && chunkOffset >= nextSegmentEnd) {
+            force = true;
+            while (nextSegmentEnd <= chunkOffset) {
+                nextSegmentEnd += config.segmentBytes;
+            }
+        }
+        enqueue(new Block(pending, pendingOffset, full, force, false));
+        chunkSubmitted = 0;
+        buffer = freeBuffers.poll();
+        if (buffer == null) {
+            // 存储暂时跟不上：在上限内多分配一块，录音线程不等写盘
+            if (allocatedBuffers >= maxBuffers) {
+                failure = new IOException("写盘跟不上，积压超过 " + MAX_QUEUED_BYTES / 1024 + " KB");
+                throw failure;
+            }
+            allocatedBuffers++;
+            buffer = ByteBuffer.allocateDirect(config.chunkSize);
+        }
+    }
+
+    private void enqueue(Block block) {
+        queue.add(block); // 无界队列，不会阻塞；积压由缓冲块数限定
+        maxQueuedBuffers = Math.max(maxQueuedBuffers, allocatedBuffers - freeBuffers.size());
+    }
+
+    // 写盘线程：按顺序执行 write/force；出错后只回收缓冲，错误由录音线程的下一次 append 或 close 抛出
+    private void drain() {
+        while (true) {
+            Block block;
+            try {
+                block = queue.take();
+            } catch (InterruptedException e) {
+                // 只有 close 会结束这个线程，忽略中断
+                continue;
+            }
+            if (block.end) return;
+            if (failure == null) {
+                try {
+                    write(block.data, block.fileOffset);
+                    if (block.force) force();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (block.recycle != null) {
+                block.recycle.clear();
+                freeBuffers.add(block.recycle);
+            }
+        }
+    }
+
+    private void write(ByteBuffer data, long fileOffset) throws IOException {
+        if (!data.hasRemaining()) return;
+        int base = data.position();
+        boolean t = AudioTrace.begin("writer.write");
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data, fileOffset + data.position() - base);
+                writeCalls++;
+            }
+        } finally {
+            AudioTrace.end(t);
+        }
+        writtenOffset = fileOffset + data.position() - base;
+        LongConsumer listener = writtenListener;
+        if (listener != null) listener.accept(dataBytesWritten());
+    }
+
+    private void force() throws IOException {
+        long fileOffset = writtenOffset;
+        if (forcedOffset == fileOffset) return;
+        boolean t = AudioTrace.begin("writer.force");
+        long start = System.nanoTime();
+        try {
+            channel.force(false);
+        } finally {
+            AudioTrace.end(t);
+        }
+        long elapsed = System.nanoTime() - start;
+        forceNanosTotal += elapsed;
+        forceNanosMax = Math.max(forceNanosMax, elapsed);
+        forceCalls++;
+        int partial = (int) (fileOffset % PAGE_SIZE);
+        if (partial != 0) {
+            rewrittenBytes += partial;
+        }
+        forcedOffset = fileOffset;
+        AudioTrace.counter("writer.atRiskKB", 0);
+    }
+
+    // 交出剩余数据；除 NONE 外结束时再 force 一次，等写盘线程做完，整个 take 都落盘后才交给后台整理
+    // 只有这里会等存储：此时采集已经结束
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (failure == null && buffer != null) {
+                submitPending(config.durability != Durability.NONE);
+            }
+            queue.add(new Block(null, 0, null, false, true));
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            IOException e = failure;
+            if (e != null) throw e;
+        } finally {
+            file.close();
+        }
+    }
+
+    // 已经交给内核（LiveTap 读者可以读到）的音频数据长度，不含文件头
+    // 任意线程调用：已分配的块缓冲总量，包括空闲的和积压待写的，最多 MAX_QUEUED_BYTES
+    public long bufferBytes() {
+        return (long) allocatedBuffers * config.chunkSize;
+    }
+
+    public long dataBytesWritten() {
+        return Math.max(0, writtenOffset - WavHeader.HEADER_SIZE);
+    }
+
+    // 掉电时可能丢失的音频数据：还在缓冲里或排队中的 + 已经 write 但没有 force 的
+    public long atRiskBytes() {
+        return chunkOffset + (buffer != null ? buffer.position() : 0) - forcedOffset;
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    public long writeCalls() {
+        return writeCalls;
+    }
+
+    public long forceCalls() {
+        return forceCalls;
+    }
+
+    public long maxAtRiskBytes() {
+        return maxAtRiskBytes;
+    }
+
+    // 实际写入存储的字节数 / 音频数据字节数，包含文件头和 force 造成的整页重写
+    public double writeAmplification() {
+        if (appendedBytes == 0) return 0;
+        return (double) (writtenOffset + rewrittenBytes) / appendedBytes;
+    }
+
+    public String summary() {
+        return String.format(java.util.Locale.US,
+                "%s: %d KB, write %d 次(平均 %d KB), force %d 次(最长 %d ms, 共 %d ms), 写放大 %.4f, 最大风险数据 %d KB, 最多积压 %d 块",
+                config, appendedBytes / 1024, writeCalls, writeCalls > 0 ? writtenOffset / writeCalls / 1024 : 0,
+                forceCalls, forceNanosMax / 1_000_000, forceNanosTotal / 1_000_000,
+                writeAmplification(), maxAtRiskBytes / 1024, maxQueuedBuffers);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.mediademo;
+
+import android.graphics.Bitmap;
+
+/*
+ * 播放列表条目的元数据：标签、时长与缩小后的封面
+ */
+public class TrackMetadata {
+    public final String title;
+    public final String artist;
+    public final String album;
+    public final long durationMs;
+    public final Bitmap artwork; // 已缩小到 ARTWORK_MAX_SIZE 以内，可能为 null
+
+    public TrackMetadata(String title, String artist, String album, long durationMs, Bitmap artwork) {
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.durationMs = durationMs;
+        this.artwork = artwork;
+    }
+
+    // LruCache 按字节计算预算，文字字段只占很小的固定开销
+    public int sizeInBytes() {
+        return 256 + (artwork != null ? artwork.getByteCount() : 0);
+    }
+}
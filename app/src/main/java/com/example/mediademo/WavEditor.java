@@ -0,0 +1,283 @@
+package com.example.mediademo;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * wav take 的裁剪、切分、拼接，不解码也不经过堆缓冲区
+ *
+ * 编辑只改 EditList：一串 (源文件, 数据区字节范围) 片段，原始 take 不动，随时可以撤销或保存成 .edl 旁路文件
+ * 导出时写一个新的 44 字节头，然后每个片段一次 FileChannel.transferTo 交给内核搬运，
+ * 几小时的录音耗时只和搬运的字节数成正比，内存占用只和片段数有关
+ * 片段边界按帧（blockAlign）对齐；拼接要求采样率、声道数、位深一致
+ */
+public final class WavEditor {
+    private static final String TAG = "WavEditor";
+    private static final int EDL_MAGIC = 0x4544_4c31; // "EDL1"
+    private static final long TRANSFER_SLICE = 8L * 1024 * 1024; // 与 BatchExporter 相同，便于响应取消
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - 36; // RIFF 长度字段是 32 位
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private WavEditor() {
+    }
+
+    // 源文件中的一段数据，offset/length 是文件内的绝对字节位置
+    public static final class Segment {
+        public final File source;
+        public final long offset;
+        public final long length;
+
+        Segment(File source, long offset, long length) {
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // 不可变：每个编辑操作都返回新的 EditList，旧的可以留作撤销
+    public static final class EditList {
+        public final int sampleRate;
+        public final int channels;
+        public final int bitsPerSample;
+        private final List<Segment> segments;
+        private final long dataBytes;
+
+        EditList(int sampleRate, int channels, int bitsPerSample, List<Segment> segments) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bitsPerSample = bitsPerSample;
+            this.segments = Collections.unmodifiableList(segments);
+            long total = 0;
+            for (Segment s : segments) total += s.length;
+            this.dataBytes = total;
+        }
+
+        public List<Segment> segments() {
+            return segments;
+        }
+
+        public int blockAlign() {
+            return channels * bitsPerSample / 8;
+        }
+
+        public long frames() {
+            return dataBytes / blockAlign();
+        }
+
+        public long dataBytes() {
+            return dataBytes;
+        }
+
+        public long durationMs() {
+            return frames() * 1000 / sampleRate;
+        }
+
+        public long msToFrame(long ms) {
+            return ms * sampleRate / 1000;
+        }
+
+        // 保留 [startFrame, endFrame)，超出范围的部分截掉
+        public EditList trim(long startFrame, long endFrame) {
+            long frames = frames();
+            startFrame = Math.max(0, Math.min(startFrame, frames));
+            endFrame = Math.max(startFrame, Math.min(endFrame, frames));
+            long from = startFrame * blockAlign();
+            long to = endFrame * blockAlign();
+            List<Segment> out = new ArrayList<>();
+            long pos = 0;
+            for (Segment s : segments) {
+                long segStart = pos;
+                long segEnd = pos + s.length;
+                pos = segEnd;
+                long a = Math.max(from, segStart);
+                long b = Math.min(to, segEnd);
+                if (a < b) {
+                    out.add(new Segment(s.source, s.offset + (a - segStart), b - a));
+                }
+            }
+            return new EditList(sampleRate, channels, bitsPerSample, out);
+        }
+
+        // 在 frame 处切成两段
+        public EditList[] split(long frame) {
+            return new EditList[]{trim(0, frame), trim(frame, Long.MAX_VALUE / blockAlign())};
+        }
+
+        public EditList concat(EditList other) {
+            if (other.sampleRate != sampleRate || other.channels != channels || other.bitsPerSample != bitsPerSample) {
+                throw new IllegalArgumentException("格式不同，不能直接拼接: " + sampleRate + "/" + channels + "/" + bitsPerSample
+                        + " 和 " + other.sampleRate + "/" + other.channels + "/" + other.bitsPerSample);
+            }
+            List<Segment> out = new ArrayList<>(segments.size() + other.segments.size());
+            out.addAll(segments);
+            for (Segment s : other.segments) {
+                // 同一个文件里首尾相接的片段合并，导出时少一次 transferTo
+                Segment last = out.isEmpty() ? null : out.get(out.size() - 1);
+                if (last != null && last.source.equals(s.source) && last.offset + last.length == s.offset) {
+                    out.set(out.size() - 1, new Segment(s.source, last.offset, last.length + s.length));
+                } else {
+                    out.add(s);
+                }
+            }
+            return new EditList(sampleRate, channels, bitsPerSample, out);
+        }
+    }
+
+    // 只读头部，不读音频数据
+    public static EditList open(File wav) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(wav, "r");
+             FileChannel channel = raf.getChannel()) {
+            WavHeader.Info info = WavHeader.parse(channel);
+            List<Segment> segments = new ArrayList<>(1);
+            if (info.dataLength > 0) {
+                segments.add(new Segment(wav, info.dataOffset, info.dataLength));
+            }
+            return new EditList(info.sampleRate, info.channels, info.bitsPerSample, segments);
+        }
+    }
+
+    public static EditList open(Take take) throws IOException {
+        return open(new File(take.path));
+    }
+
+    // 找开头第一个绝对值超过 threshold 的帧（只支持 16 位），最多扫描 maxFrames 帧，全部低于阈值时返回 maxFrames 与总帧数中较小者
+    // 只读开头的静音部分，缓冲区固定 64KB
+    public static long leadingSilenceFrames(EditList edit, int threshold, long maxFrames) throws IOException {
+        if (edit.bitsPerSample != 16) return 0;
+        long limit = Math.min(maxFrames, edit.frames()) * edit.blockAlign();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long scanned = 0;
+        for (Segment s : edit.segments) {
+            if (scanned >= limit) break;
+            try (RandomAccessFile raf = new RandomAccessFile(s.source, "r");
+                 FileChannel channel = raf.getChannel()) {
+                long pos = 0;
+                while (pos < s.length && scanned < limit) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), Math.min(s.length - pos, limit - scanned)));
+                    int n = channel.read(buffer, s.offset + pos);
+                    if (n <= 0) throw new IOException("片段超出文件末尾: " + s.source);
+                    for (int i = 0; i + 1 < n; i += 2) {
+                        if (Math.abs(buffer.getShort(i)) > threshold) {
+                            return (scanned + i) / edit.blockAlign();
+                        }
+                    }
+                    pos += n;
+                    scanned += n;
+                }
+            }
+        }
+        return scanned / edit.blockAlign();
+    }
+
+    // 先写到 target.tmp 再改名，target 可以是某个源文件本身；cancelled 时删除临时文件并返回 -1
+    public static long export(EditList edit, File target, AtomicBoolean cancelled) throws IOException {
+        if (edit.dataBytes > MAX_DATA_BYTES) {
+            throw new IOException("超过 wav 的 4GB 上限: " + edit.dataBytes + " 字节");
+        }
+        long start = System.nanoTime();
+        File tmp = new File(target.getPath() + ".tmp");
+        long moved = 0;
+        boolean aborted = false;
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             FileChannel dst = out.getChannel()) {
+            ByteBuffer header = WavHeader.build(edit.dataBytes, edit.sampleRate, edit.channels, edit.bitsPerSample);
+            while (header.hasRemaining()) {
+                dst.write(header);
+            }
+            copy:
+            for (Segment s : edit.segments) {
+                try (FileInputStream in = new FileInputStream(s.source);
+                     FileChannel src = in.getChannel()) {
+                    long position = s.offset;
+                    long end = s.offset + s.length;
+                    while (position < end) {
+                        if (cancelled != null && cancelled.get()) {
+                            aborted = true;
+                            break copy;
+                        }
+                        long n = src.transferTo(position, Math.min(TRANSFER_SLICE, end - position), dst);
+                        if (n <= 0) throw new IOException("片段超出文件末尾: " + s.source);
+                        position += n;
+                        moved += n;
+                    }
+                }
+            }
+            if (!aborted) {
+                dst.force(false);
+            }
+        } catch (IOException e) {
+            if (!tmp.delete()) Log.w(TAG, "无法删除临时文件: " + tmp);
+            throw e;
+        }
+        if (aborted) {
+            if (!tmp.delete()) Log.w(TAG, "无法删除临时文件: " + tmp);
+            Log.d(TAG, "导出已取消: " + target);
+            return -1;
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("无法替换 " + target);
+        }
+        Log.d(TAG, "导出 " + target.getName() + ": " + edit.segments.size() + " 个片段, " + moved / 1024 + " KB, "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return moved;
+    }
+
+    // 编辑列表旁路文件：只记录片段，不含音频数据，未导出的编辑在进程重启后也能恢复
+    public static void save(EditList edit, File edl) throws IOException {
+        File tmp = new File(edl.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(EDL_MAGIC);
+            out.writeInt(edit.sampleRate);
+            out.writeShort(edit.channels);
+            out.writeShort(edit.bitsPerSample);
+            out.writeInt(edit.segments.size());
+            for (Segment s : edit.segments) {
+                out.writeUTF(s.source.getPath());
+                out.writeLong(s.offset);
+                out.writeLong(s.length);
+            }
+        }
+        if (!tmp.renameTo(edl)) {
+            throw new IOException("无法替换 " + edl);
+        }
+    }
+
+    // 源文件被删除或变短时抛 IOException
+    public static EditList load(File edl) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(edl)))) {
+            if (in.readInt() != EDL_MAGIC) throw new IOException("不是编辑列表: " + edl);
+            int sampleRate = in.readInt();
+            int channels = in.readUnsignedShort();
+            int bits = in.readUnsignedShort();
+            int count = in.readInt();
+            List<Segment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                File source = new File(in.readUTF());
+                long offset = in.readLong();
+                long length = in.readLong();
+                if (source.length() < offset + length) {
+                    throw new IOException("源文件已经变化: " + source);
+                }
+                segments.add(new Segment(source, offset, length));
+            }
+            return new EditList(sampleRate, channels, bits, segments);
+        }
+    }
+}
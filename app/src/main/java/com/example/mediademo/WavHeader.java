@@ -0,0 +1,124 @@
+package com.example.mediademo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * 标准 44 字节 PCM WAV 头的生成与回填
+ *
+ * 录音时先写入一个长度字段为 0 的占位头，数据写完后只需回填 RIFF 长度(偏移 4)与 data 长度(偏移 40)
+ * 这样 take 文件本身就是 wav，不需要再像 pcmToWav 那样把整段 pcm 重新拷贝一遍
+ * 读取时 parse 会按块遍历，跳过 LIST 等非音频块，找到 fmt 与 data
+ */
+public final class WavHeader {
+    public static final int HEADER_SIZE = 44;
+
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int DATA_SIZE_OFFSET = 40;
+
+    private WavHeader() {
+    }
+
+    // parse 的结果：数据区在文件中的位置和 pcm 格式
+    public static final class Info {
+        public final int sampleRate;
+        public final int channels;
+        public final int bitsPerSample;
+        public final long dataOffset;
+        public final long dataLength;
+
+        Info(int sampleRate, int channels, int bitsPerSample, long dataOffset, long dataLength) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bitsPerSample = bitsPerSample;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        public int blockAlign() {
+            return channels * bitsPerSample / 8;
+        }
+    }
+
+    public static ByteBuffer build(long dataLen, int sampleRate, int channels, int bitsPerSample) {
+        int blockAlign = channels * bitsPerSample / 8;
+        long byteRate = (long) sampleRate * blockAlign;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt((int) (dataLen + 36)); // 除去 "RIFF" 和长度字段本身后的长度
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '});
+        header.putInt(16); // fmt chunk 大小
+        header.putShort((short) 1); // format = 1 (PCM)
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt((int) byteRate);
+        header.putShort((short) blockAlign);
+        header.putShort((short) bitsPerSample);
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt((int) dataLen);
+        header.flip();
+        return header;
+    }
+
+    // 数据写完后回填两个长度字段 只改 8 个字节 不移动任何音频数据
+    public static void patchSizes(FileChannel channel, long dataLen) throws IOException {
+        ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        field.putInt(0, (int) (dataLen + 36));
+        channel.write(field, RIFF_SIZE_OFFSET);
+        field.clear();
+        field.putInt(0, (int) dataLen);
+        channel.write(field, DATA_SIZE_OFFSET);
+    }
+
+    // 只支持 PCM；data 长度字段为 0 或超出文件（录音中被杀、流式头）时按文件实际长度计算
+    public static Info parse(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buf, 0);
+        if (buf.getInt(0) != 0x46464952 || buf.getInt(8) != 0x45564157) { // "RIFF" "WAVE"
+            throw new IOException("不是 wav 文件");
+        }
+        long fileSize = channel.size();
+        long pos = 12;
+        int sampleRate = 0, channels = 0, bits = 0;
+        boolean fmtFound = false;
+        ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (pos + 8 <= fileSize) {
+            chunk.clear();
+            readFully(channel, chunk, pos);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+            if (id == 0x20746d66) { // "fmt "
+                ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, fmt, body);
+                int format = fmt.getShort(0) & 0xFFFF;
+                if (format != 1 && format != 0xFFFE) { // PCM 或 WAVE_FORMAT_EXTENSIBLE
+                    throw new IOException("不支持的 wav 编码: " + format);
+                }
+                channels = fmt.getShort(2) & 0xFFFF;
+                sampleRate = fmt.getInt(4);
+                bits = fmt.getShort(14) & 0xFFFF;
+                fmtFound = true;
+            } else if (id == 0x61746164) { // "data"
+                if (!fmtFound) throw new IOException("wav 缺少 fmt 块");
+                long available = fileSize - body;
+                long length = size == 0 || size > available ? available : size;
+                int blockAlign = channels * bits / 8;
+                if (blockAlign > 0) length -= length % blockAlign;
+                return new Info(sampleRate, channels, bits, body, length);
+            }
+            pos = body + size + (size & 1); // 块按偶数字节对齐
+        }
+        throw new IOException("wav 缺少 data 块");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("wav 头不完整");
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.mediademo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * 用 SignalAudioSource / FileAudioSource 代替麦克风，在 JVM 上跑完整条录音链路：读取、写盘、电平、响度
+ * 数据源大多是非实时模式，几十秒的音频在几百毫秒内跑完，顺便检查吞吐；停止延迟用卡住的数据源检查
+ */
+public class CaptureEngineTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BUFFER_SIZE = 3840; // 20 ms 单声道 16 位
+    private static final long STOP_BUDGET_MS = 500; // 停止命令到文件关闭
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("capture").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    // 收集回调，run() 在当前线程上执行，结束时 onFinished 已经回调
+    static final class Recorder implements CaptureEngine.Listener {
+        final List<Integer> levels = new ArrayList<>();
+        int firstSamples;
+        int finished;
+        boolean failed;
+
+        @Override
+        public void onFirstSample() {
+            firstSamples++;
+        }
+
+        @Override
+        public void onLevel(int level) {
+            levels.add(level);
+        }
+
+        @Override
+        public void onFinished(CaptureEngine engine, boolean failed) {
+            finished++;
+            this.failed = failed;
+        }
+    }
+
+    private Take newTake(int channels) {
+        Take take = new Take();
+        take.id = System.nanoTime();
+        take.path = new File(dir, "take_" + take.id + ".wav").getAbsolutePath();
+        take.sampleRate = SAMPLE_RATE;
+        take.channels = channels;
+        take.bitsPerSample = 16;
+        return take;
+    }
+
+    @Test
+    public void nonRealtimeSignalRunsFasterThanRealtimeAndWritesEverySample() {
+        long durationMs = 60_000;
+        SignalAudioSource source = new SignalAudioSource(SignalAudioSource.Kind.NOISE, SAMPLE_RATE, 1, 0.5, 0, durationMs, false);
+        Take take = newTake(1);
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(source, take, BUFFER_SIZE, recorder);
+        engine.run();
+
+        long expectedBytes = durationMs * SAMPLE_RATE / 1000 * 2;
+        assertEquals(1, recorder.finished);
+        assertFalse(recorder.failed);
+        assertEquals(1, recorder.firstSamples);
+        assertEquals(expectedBytes, engine.dataBytes());
+        assertEquals(WavHeader.HEADER_SIZE + expectedBytes, new File(take.path).length());
+        assertEquals(expectedBytes / BUFFER_SIZE, engine.readCount());
+        // 一分钟的音频远远用不了一分钟，给慢机器留足余量
+        assertTrue("实时倍率 " + engine.realtimeFactor(), engine.realtimeFactor() > 5);
+        assertNotNull(engine.writerSummary());
+    }
+
+    @Test
+    public void sineLevelAndLoudnessMatchTheSignal() {
+        // 1 kHz、幅度 0.5 的正弦：RMS 约 -9 dBFS，电平 = 20 * log10(rms) + 90 约 81
+        // 响度 = -0.691 + 10 * log10(均方) + 1 kHz 处 K 计权约 +0.7 dB，约 -9 LUFS；真峰值约 -6 dBTP
+        SignalAudioSource source = new SignalAudioSource(SignalAudioSource.Kind.SINE, SAMPLE_RATE, 1, 0.5, 1000, 10_000, false);
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(source, newTake(1), BUFFER_SIZE, recorder);
+        engine.run();
+
+        assertFalse(recorder.failed);
+        assertFalse(recorder.levels.isEmpty());
+        for (int level : recorder.levels) {
+            assertEquals(81, level, 1);
+        }
+        LoudnessStore.Result loudness = engine.loudnessResult();
+        assertNotNull(loudness);
+        assertEquals(-9.0, loudness.integratedLufs, 0.5);
+        assertEquals(-6.0, loudness.truePeakDbtp, 0.5);
+    }
+
+    @Test
+    public void silenceReportsZeroLevel() {
+        SignalAudioSource source = new SignalAudioSource(SignalAudioSource.Kind.SILENCE, SAMPLE_RATE, 1, 0, 0, 2_000, false);
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(source, newTake(1), BUFFER_SIZE, recorder);
+        engine.run();
+
+        assertFalse(recorder.levels.isEmpty());
+        for (int level : recorder.levels) {
+            assertEquals(0, level);
+        }
+    }
+
+    @Test
+    public void fileSourceIsCopiedByteForByte() throws IOException {
+        // 立体声噪声写成 wav，回放进引擎，take 的数据区必须和源文件完全一致
+        int channels = 2;
+        byte[] pcm = new byte[SAMPLE_RATE * channels * 2 * 5 + 4 * 333];
+        new Random(7).nextBytes(pcm);
+        File input = new File(dir, "input.wav");
+        try (RandomAccessFile raf = new RandomAccessFile(input, "rw")) {
+            raf.getChannel().write(WavHeader.build(pcm.length, SAMPLE_RATE, channels, 16));
+            raf.getChannel().write(ByteBuffer.wrap(pcm));
+        }
+        Take take = newTake(channels);
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(FileAudioSource.wav(input, false, false), take,
+                BUFFER_SIZE * channels, TakeWriter.Config.segments(TakeWriter.DEFAULT_CHUNK_SIZE, 256 * 1024), recorder);
+        engine.run();
+
+        assertFalse(recorder.failed);
+        assertEquals(pcm.length, engine.dataBytes());
+        byte[] written = Files.readAllBytes(new File(take.path).toPath());
+        byte[] data = new byte[written.length - WavHeader.HEADER_SIZE];
+        System.arraycopy(written, WavHeader.HEADER_SIZE, data, 0, data.length);
+        assertArrayEquals(pcm, data);
+    }
+
+    // 模拟卡住的麦克风：第一次 read 正常返回，之后一直阻塞，只有 interrupt 能唤醒（AudioRecord.stop 在另一个线程上的效果）
+    static final class StallingSource implements AudioSource {
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private int reads;
+
+        @Override
+        public int sampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public int channels() {
+            return 1;
+        }
+
+        @Override
+        public int bitsPerSample() {
+            return 16;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (reads++ == 0) return length;
+            stalled.countDown();
+            try {
+                // 远远超过停止预算，只有 interrupt 能提前结束
+                interrupted.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return END_OF_STREAM;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void interrupt() {
+            interrupted.countDown();
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void stopWhileSourceIsStalledMeetsLatencyBudget() throws InterruptedException {
+        StallingSource source = new StallingSource();
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(source, newTake(1), BUFFER_SIZE, recorder);
+        Thread thread = new Thread(engine, "CaptureEngineTest");
+        thread.start();
+        assertTrue(source.stalled.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        engine.requestStop();
+        thread.join(5_000);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, recorder.finished);
+        assertFalse(recorder.failed);
+        assertEquals(BUFFER_SIZE, engine.dataBytes());
+        // 停止预算：排空最多 200 ms，加上关闭文件；卡住的 read 不能把停止拖到 30 秒
+        assertTrue("stopLatencyMs " + engine.stopLatencyMs(), engine.stopLatencyMs() >= 0 && engine.stopLatencyMs() < STOP_BUDGET_MS);
+        assertTrue("等待 " + waitedMs + " ms", waitedMs < STOP_BUDGET_MS);
+    }
+
+    @Test
+    public void stopDuringRealtimeStallMeetsLatencyBudget() throws InterruptedException {
+        // 实时信号源每 100 ms 音频卡 10 秒：停止命令到的时候录音线程正停在卡顿里
+        SignalAudioSource source = new SignalAudioSource(SignalAudioSource.Kind.SINE, SAMPLE_RATE, 1, 0.5, 1000, -1, true)
+                .setStalls(100, 10_000);
+        Recorder recorder = new Recorder();
+        CaptureEngine engine = new CaptureEngine(source, newTake(1), BUFFER_SIZE, recorder);
+        Thread thread = new Thread(engine, "CaptureEngineTest");
+        thread.start();
+        Thread.sleep(500);
+
+        engine.requestStop();
+        thread.join(5_000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, recorder.finished);
+        assertTrue(engine.dataBytes() > 0);
+        assertTrue("stopLatencyMs " + engine.stopLatencyMs(), engine.stopLatencyMs() >= 0 && engine.stopLatencyMs() < STOP_BUDGET_MS);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.mediademo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/*
+ * 录音时算出的响度要能在播放时用上：播放列表里是 SAF 的 content:// Uri（或导出的副本），
+ * LoudnessScanner 按 Uri 的 DISPLAY_NAME/SIZE 查，这里用复制出来的文件的名字和长度模拟
+ */
+public class LoudnessStoreTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BUFFER_SIZE = 3840;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("loudness").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File sub : new File[]{new File(dir, "saf"), dir}) {
+            File[] files = sub.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            sub.delete();
+        }
+    }
+
+    // 和服务一样用 CaptureEngine 录一个 take，录完按服务的方式保存响度
+    private File recordTake(LoudnessStore store) {
+        Take take = new Take();
+        take.id = System.nanoTime();
+        take.path = new File(dir, "take_" + take.id + ".wav").getAbsolutePath();
+        take.sampleRate = SAMPLE_RATE;
+        take.channels = 1;
+        take.bitsPerSample = 16;
+        SignalAudioSource source = new SignalAudioSource(SignalAudioSource.Kind.SINE, SAMPLE_RATE, 1, 0.5, 1000, 5_000, false);
+        CaptureEngine engine = new CaptureEngine(source, take, BUFFER_SIZE, new CaptureEngineTest.Recorder());
+        engine.run();
+        assertNotNull(engine.loudnessResult());
+        File file = new File(take.path);
+        store.saveForTake(file.getName(), engine.dataBytes(), engine.loudnessResult());
+        return file;
+    }
+
+    @Test
+    public void capturedTakeIsFoundThroughItsPlaybackDocument() throws IOException {
+        LoudnessStore store = LoudnessStore.inMemory();
+        File take = recordTake(store);
+
+        // SAF 目录里的同一个文件：显示名是文件名，SIZE 是文件长度
+        File saf = new File(dir, "saf");
+        saf.mkdirs();
+        File document = new File(saf, take.getName());
+        Files.copy(take.toPath(), document.toPath());
+
+        LoudnessStore.Result result = store.loadForDocument(document.getName(), document.length());
+        assertNotNull("按播放 Uri 的名字和大小找不到录音时的响度", result);
+        assertEquals(-9.0, result.integratedLufs, 0.5);
+        // 扫描器把结果记到播放 Uri 下，切歌时 applyTrackGain 只查内存就能拿到
+        String playbackKey = "content://com.android.externalstorage.documents/tree/primary%3AMusic/document/primary%3AMusic%2F"
+                + document.getName();
+        store.save(playbackKey, result);
+        assertSame(result, store.getCached(playbackKey));
+    }
+
+    @Test
+    public void sameNameWithDifferentLengthIsNotTheTake() {
+        LoudnessStore store = LoudnessStore.inMemory();
+        File take = recordTake(store);
+
+        assertNull(store.loadForDocument(take.getName(), take.length() + 2));
+        assertNull(store.loadForDocument("other.wav", take.length()));
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.mediademo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * 进程内的 HttpServer 按 TakeUploader 的协议实现同步服务器：块按摘要存在内存里，提交清单时拼出完整文件
+ * 检查服务器已有的块不重传、块并行上传、失败重试，以及上传中途被杀之后从 ledger 接着传
+ */
+public class TakeUploaderTest {
+    private static final int CHUNK = TakeUploader.CHUNK_SIZE;
+    private static final long TIMEOUT_S = 60;
+
+    private final Map<String, byte[]> chunks = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> takes = new ConcurrentHashMap<>();
+    private final AtomicInteger puts = new AtomicInteger(); // 服务器收下的块
+    private final AtomicInteger failNextPuts = new AtomicInteger(); // 接下来这么多次 PUT 返回 503
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch putsReached; // 收下指定数量的块时放行，用来在上传中途“杀进程”
+    private volatile int putsToReach = Integer.MAX_VALUE;
+
+    private File dir;
+    private File ledgers;
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String endpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("upload").toFile();
+        ledgers = new File(dir, "ledgers");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/sync/chunks/missing", this::handleMissing);
+        server.createContext("/sync/chunks/", this::handleChunk);
+        server.createContext("/sync/takes/", this::handleTake);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/sync";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) deleteRecursively(c);
+        }
+        f.delete();
+    }
+
+    // POST 每行一个摘要，回复服务器还没有的
+    private void handleMissing(HttpExchange exchange) throws IOException {
+        String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.US_ASCII);
+        StringBuilder missing = new StringBuilder();
+        for (String hash : body.split("\n")) {
+            if (!hash.isEmpty() && !chunks.containsKey(hash)) missing.append(hash).append('\n');
+        }
+        reply(exchange, 200, missing.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // PUT 块内容，校验摘要；每块故意慢 50 ms，并行上传才看得出来
+    private void handleChunk(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            String hash = exchange.getRequestURI().getPath().substring("/sync/chunks/".length());
+            byte[] data = readAll(exchange.getRequestBody());
+            if (failNextPuts.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                reply(exchange, 503, new byte[0]);
+                return;
+            }
+            if (!hex(sha256(data)).equals(hash)) {
+                reply(exchange, 400, new byte[0]);
+                return;
+            }
+            Thread.sleep(50);
+            chunks.put(hash, data);
+            if (puts.incrementAndGet() == putsToReach) putsReached.countDown();
+            reply(exchange, 201, new byte[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // PUT 清单：文件长度、块大小、每行一个块摘要
+    private void handleTake(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring("/sync/takes/".length());
+        String[] lines = new String(readAll(exchange.getRequestBody()), StandardCharsets.US_ASCII).split("\n");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int i = 2; i < lines.length; i++) {
+            byte[] chunk = chunks.get(lines[i]);
+            if (chunk == null) {
+                reply(exchange, 409, new byte[0]);
+                return;
+            }
+            file.write(chunk);
+        }
+        if (file.size() != Long.parseLong(lines[0])) {
+            reply(exchange, 422, new byte[0]);
+            return;
+        }
+        takes.put(name, file.toByteArray());
+        reply(exchange, 200, new byte[0]);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private static void reply(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // 不同内容的块数，重复的块只传一次
+    private static int distinctChunks(byte[] data) {
+        Set<String> hashes = new HashSet<>();
+        for (int offset = 0; offset < data.length; offset += CHUNK) {
+            hashes.add(hex(sha256(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + CHUNK)))));
+        }
+        return hashes.size();
+    }
+
+    // 随机内容，中间两块全是静音（内容相同），最后一块不满
+    private File writeTake(long id, long seed) throws IOException {
+        byte[] data = new byte[7 * CHUNK + 1234];
+        new Random(seed).nextBytes(data);
+        Arrays.fill(data, 2 * CHUNK, 4 * CHUNK, (byte) 0);
+        File wav = new File(dir, "take_" + id + ".wav");
+        Files.write(wav.toPath(), data);
+        return wav;
+    }
+
+    static final class Result implements TakeUploader.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean success;
+        volatile boolean cancelled;
+
+        @Override
+        public void onProgress(long takeId, int chunksDone, int chunksTotal) {
+        }
+
+        @Override
+        public void onFinished(long takeId, boolean success, boolean cancelled) {
+            this.success = success;
+            this.cancelled = cancelled;
+            finished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("上传超时", finished.await(TIMEOUT_S, TimeUnit.SECONDS));
+        }
+    }
+
+    private Result upload(long takeId, File wav, String endpoint) throws InterruptedException {
+        TakeUploader uploader = new TakeUploader(ledgers);
+        Result result = new Result();
+        try {
+            uploader.upload(takeId, wav, endpoint, result);
+            result.await();
+        } finally {
+            uploader.shutdown();
+        }
+        return result;
+    }
+
+    @Test
+    public void uploadsDistinctChunksInParallelAndAssemblesTheFile() throws Exception {
+        File wav = writeTake(1, 1);
+        byte[] data = Files.readAllBytes(wav.toPath());
+
+        Result result = upload(1, wav, endpoint);
+
+        assertTrue(result.success);
+        assertArrayEquals(data, takes.get(wav.getName()));
+        // 两块静音只传一次
+        assertEquals(distinctChunks(data), puts.get());
+        assertTrue("最大并发 " + maxInFlight.get(), maxInFlight.get() > 1);
+        assertTrue(TakeUploader.pendingTakeIds(ledgers).isEmpty());
+    }
+
+    @Test
+    public void chunksAlreadyOnTheServerAreSkipped() throws Exception {
+        File first = writeTake(1, 1);
+        assertTrue(upload(1, first, endpoint).success);
+        int before = puts.get();
+
+        // 内容完全相同的另一个 take：服务器已经有全部的块，只提交清单
+        File second = new File(dir, "take_2.wav");
+        Files.copy(first.toPath(), second.toPath());
+        Result result = upload(2, second, endpoint);
+
+        assertTrue(result.success);
+        assertEquals(before, puts.get());
+        assertArrayEquals(Files.readAllBytes(second.toPath()), takes.get(second.getName()));
+    }
+
+    @Test
+    public void failedChunkIsRetried() throws Exception {
+        File wav = writeTake(1, 3);
+        failNextPuts.set(2); // 头两次 PUT 失败，各重试一次（间隔 1 秒）
+
+        Result result = upload(1, wav, endpoint);
+
+        assertTrue(result.success);
+        assertEquals(0, failNextPuts.get());
+        assertArrayEquals(Files.readAllBytes(wav.toPath()), takes.get(wav.getName()));
+    }
+
+    @Test
+    public void resumesFromLedgerAfterKill() throws Exception {
+        File wav = writeTake(1, 4);
+        byte[] data = Files.readAllBytes(wav.toPath());
+        int distinct = distinctChunks(data);
+
+        // 服务器收下 3 块时关掉上传器，相当于进程被杀：正在传的块断开，ledger 留在磁盘上
+        putsToReach = 3;
+        putsReached = new CountDownLatch(1);
+        TakeUploader first = new TakeUploader(ledgers);
+        Result killed = new Result();
+        first.upload(1, wav, endpoint, killed);
+        assertTrue(putsReached.await(TIMEOUT_S, TimeUnit.SECONDS));
+        first.shutdown();
+        killed.await();
+        assertFalse(killed.success);
+        assertTrue(killed.cancelled);
+        assertEquals(Arrays.asList(1L), TakeUploader.pendingTakeIds(ledgers));
+        assertFalse(takes.containsKey(wav.getName()));
+        // 服务器上还在处理的请求（客户端已经断开）处理完再统计
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+        while (inFlight.get() > 0) {
+            assertTrue("服务器请求没有结束", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        int uploadedBeforeKill = chunks.size();
+
+        // 新进程：不给地址，按 ledger 里记录的地址续传，已经在服务器上的块不再传
+        int before = puts.get();
+        Result resumed = upload(1, wav, null);
+
+        assertTrue(resumed.success);
+        assertEquals(distinct - uploadedBeforeKill, puts.get() - before);
+        assertArrayEquals(data, takes.get(wav.getName()));
+        assertTrue(TakeUploader.pendingTakeIds(ledgers).isEmpty());
+    }
+
+    @Test
+    public void cancelAllStopsTheCurrentAndQueuedTakes() throws Exception {
+        putsToReach = 1;
+        putsReached = new CountDownLatch(1);
+        TakeUploader uploader = new TakeUploader(ledgers);
+        Result[] results = new Result[3];
+        File[] wavs = new File[3];
+        for (int i = 0; i < wavs.length; i++) {
+            wavs[i] = writeTake(i + 1, 10 + i);
+        }
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new Result();
+                uploader.upload(i + 1, wavs[i], endpoint, results[i]);
+            }
+            // 第一个 take 已经在传，后两个还在排队
+            assertTrue(putsReached.await(TIMEOUT_S, TimeUnit.SECONDS));
+            uploader.cancelAll();
+            for (Result result : results) {
+                result.await();
+                assertFalse(result.success);
+                assertTrue(result.cancelled);
+            }
+        } finally {
+            uploader.shutdown();
+        }
+
+        for (File wav : wavs) {
+            assertFalse(takes.containsKey(wav.getName()));
+        }
+        // 只有开始过的那个留下 ledger，排队中的没有碰文件
+        assertEquals(Arrays.asList(1L), TakeUploader.pendingTakeIds(ledgers));
+    }
+
+    @Test
+    public void unresolvableTakeFailsWithoutTouchingTheServer() throws Exception {
+        TakeUploader uploader = new TakeUploader(ledgers);
+        Result result = new Result();
+        try {
+            uploader.upload(1, id -> null, endpoint, result);
+            result.await();
+        } finally {
+            uploader.shutdown();
+        }
+
+        assertFalse(result.success);
+        assertEquals(0, puts.get());
+        assertTrue(TakeUploader.pendingTakeIds(ledgers).isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.mediademo.macrobenchmark;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.BySelector;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+ * 被测应用的包名、权限和界面操作，几个基准共用
+ *
+ * 预算检查：应用里的 StartupMetrics 每次测量都和自己的预算比较，超出时打 StartupMetrics 的 error 日志；
+ * 基准开始前清空 logcat，跑完后日志里不能有对应指标超出预算的记录
+ */
+final class AppDriver {
+    static final String PACKAGE = "com.example.mediademo";
+    // 和 StartupMetrics 日志里的指标名一致
+    static final String FIRST_FRAME = "进程启动 -> 第一帧";
+    static final String FIRST_SAMPLE = "点击录音 -> 第一个采样";
+    // 和 StartupMetrics.FIRST_SAMPLE_SECTION、MeterView.doFrame 的 trace 切片名一致
+    static final String FIRST_SAMPLE_SECTION = "capture.firstSample";
+    static final String METER_SECTION = "ui.meter";
+
+    private static final long UI_TIMEOUT_MS = 5_000;
+    private static final long BIND_WAIT_MS = 1_000; // 界面绑定服务是异步的，没有可见的标志
+
+    private AppDriver() {
+    }
+
+    private static String shell(UiDevice device, String command) {
+        try {
+            return device.executeShellCommand(command);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 首次启动时的权限弹窗会挡住界面，提前授予；当前系统版本不适用的权限 pm 会忽略
+    static void grantPermissions(UiDevice device) {
+        shell(device, "pm grant " + PACKAGE + " android.permission.RECORD_AUDIO");
+        shell(device, "pm grant " + PACKAGE + " android.permission.READ_MEDIA_AUDIO");
+        shell(device, "pm grant " + PACKAGE + " android.permission.READ_EXTERNAL_STORAGE");
+    }
+
+    static void clearBudgetLog(UiDevice device) {
+        shell(device, "logcat -c");
+    }
+
+    static void assertWithinBudget(UiDevice device, String metric) {
+        String log = shell(device, "logcat -d -s StartupMetrics:E");
+        for (String line : log.split("\n")) {
+            if (line.contains(metric) && line.contains("超出预算")) {
+                fail(line.trim());
+            }
+        }
+    }
+
+    private static BySelector button(String id) {
+        return By.res(PACKAGE, id);
+    }
+
+    // 界面不在前台时启动并等服务绑定好
+    static void ensureStarted(MacrobenchmarkScope scope) {
+        if (scope.getDevice().hasObject(button("btnRecord"))) return;
+        scope.startActivityAndWait();
+        SystemClock.sleep(BIND_WAIT_MS);
+    }
+
+    private static void click(UiDevice device, String id) {
+        UiObject2 object = device.wait(Until.findObject(button(id).enabled(true)), UI_TIMEOUT_MS);
+        assertTrue("找不到可点击的 " + id, object != null);
+        object.click();
+    }
+
+    static boolean isRecording(UiDevice device) {
+        return device.hasObject(button("btnStopRecord").enabled(true));
+    }
+
+    static void startRecording(UiDevice device) {
+        click(device, "btnRecord");
+        assertTrue("没有开始录音", device.wait(Until.hasObject(button("btnStopRecord").enabled(true)), UI_TIMEOUT_MS));
+    }
+
+    static void stopRecording(UiDevice device) {
+        click(device, "btnStopRecord");
+        assertTrue("没有停止录音", device.wait(Until.hasObject(button("btnRecord").enabled(true)), UI_TIMEOUT_MS));
+    }
+}
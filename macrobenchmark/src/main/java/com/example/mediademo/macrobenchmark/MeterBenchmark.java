@@ -0,0 +1,66 @@
+package com.example.mediademo.macrobenchmark;
+
+import android.os.SystemClock;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import kotlin.Unit;
+
+/*
+ * 录音中电平表每帧动画的开销：MeterView 每个 Choreographer 帧拉一次电平、按需 invalidate
+ *
+ * FrameTimingMetric 给出整帧的 CPU 耗时和超时帧数，ui.meter 切片的总和是电平表自己在主线程上花的时间
+ */
+@RunWith(AndroidJUnit4.class)
+public class MeterBenchmark {
+    private static final int ITERATIONS = 5;
+    private static final long MEASURE_MS = 5_000; // 每次测量看这么久的电平动画
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+
+    @After
+    public void tearDown() {
+        if (AppDriver.isRecording(device)) {
+            AppDriver.stopRecording(device);
+        }
+    }
+
+    @Test
+    public void meterWhileRecording() {
+        List<Metric> metrics = Arrays.asList(new FrameTimingMetric(),
+                new TraceSectionMetric(AppDriver.METER_SECTION, TraceSectionMetric.Mode.Sum));
+        rule.measureRepeated(AppDriver.PACKAGE, metrics, CompilationMode.DEFAULT, null, ITERATIONS,
+                scope -> {
+                    AppDriver.grantPermissions(scope.getDevice());
+                    AppDriver.ensureStarted(scope);
+                    // 每次测量开一个新 take，避免单个 take 越录越大
+                    if (AppDriver.isRecording(scope.getDevice())) {
+                        AppDriver.stopRecording(scope.getDevice());
+                    }
+                    AppDriver.startRecording(scope.getDevice());
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    SystemClock.sleep(MEASURE_MS);
+                    return Unit.INSTANCE;
+                });
+    }
+}
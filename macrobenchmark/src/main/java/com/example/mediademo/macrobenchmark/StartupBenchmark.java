@@ -0,0 +1,74 @@
+package com.example.mediademo.macrobenchmark;
+
+import android.os.SystemClock;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/*
+ * StartupMetrics 的两个预算：进程启动 -> 第一帧、点击录音 -> 第一个采样
+ *
+ * 数字来自 StartupTimingMetric 和 capture.firstSample 切片（服务收到命令 -> 第一个采样，不含点击到 binder 的那一段），
+ * 写进基准结果的 json；是否超出预算按应用自己的测量（包含点击时刻）判断，见 AppDriver.assertWithinBudget
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final int ITERATIONS = 10;
+    private static final long FIRST_SAMPLE_WAIT_MS = 1_000; // 录这么久再停，第一个采样一定已经到了
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+
+    @Test
+    public void coldStartup() {
+        AppDriver.clearBudgetLog(device);
+        rule.measureRepeated(AppDriver.PACKAGE, Collections.singletonList(new StartupTimingMetric()),
+                CompilationMode.DEFAULT, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    AppDriver.grantPermissions(scope.getDevice());
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    return Unit.INSTANCE;
+                });
+        AppDriver.assertWithinBudget(device, AppDriver.FIRST_FRAME);
+    }
+
+    @Test
+    public void tapToFirstSample() {
+        AppDriver.clearBudgetLog(device);
+        rule.measureRepeated(AppDriver.PACKAGE,
+                Collections.singletonList(new TraceSectionMetric(AppDriver.FIRST_SAMPLE_SECTION)),
+                CompilationMode.DEFAULT, null, ITERATIONS,
+                scope -> {
+                    AppDriver.grantPermissions(scope.getDevice());
+                    AppDriver.ensureStarted(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    AppDriver.startRecording(scope.getDevice());
+                    SystemClock.sleep(FIRST_SAMPLE_WAIT_MS);
+                    AppDriver.stopRecording(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+        AppDriver.assertWithinBudget(device, AppDriver.FIRST_SAMPLE);
+    }
+}